@@ -8,16 +8,22 @@ import org.gabx.expenses.handlers.TransactionHandlers;
 import org.gabx.expenses.handlers.ViewHandlers;
 import org.gabx.expenses.handlers.ManagementHandlers;
 import org.gabx.expenses.handlers.RecurringExpenseHandlers;
+import org.gabx.expenses.persistence.StorageConfig;
+import org.gabx.expenses.persistence.StorageEngine;
 
 public class App {
-    private static final TransactionManager transactionManager = new TransactionManager();
-    private static final RecurringExpenseManager recurringExpenseManager = new RecurringExpenseManager(transactionManager);
+    private static final StorageEngine storage = StorageConfig.fromSystemProperties().createEngine();
+    private static final TransactionManager transactionManager = new TransactionManager(storage);
+    private static final RecurringExpenseManager recurringExpenseManager = new RecurringExpenseManager(transactionManager, storage);
     private static final TransactionHandlers transactionHandlers = new TransactionHandlers(transactionManager);
     private static final ViewHandlers viewHandlers = new ViewHandlers(transactionManager);
     private static final ManagementHandlers managementHandlers = new ManagementHandlers(transactionManager);
     private static final RecurringExpenseHandlers recurringExpenseHandlers = new RecurringExpenseHandlers(recurringExpenseManager);
     
     public static void main(String[] args) {
+        // Saves run on a background writer; drain it however the JVM exits
+        Runtime.getRuntime().addShutdownHook(new Thread(App::shutdown));
+        
         MenuSystem.displayAppHeader();
         
         // Show startup info
@@ -80,6 +86,9 @@ public class App {
                     transactionHandlers.findTransaction();
                     break;
                 case 6:
+                    transactionHandlers.searchTransactions();
+                    break;
+                case 7:
                     return;
                 default:
                     System.out.println("[ERROR] Invalid choice. Please try again.");
@@ -146,6 +155,9 @@ public class App {
                     viewHandlers.spendingInsights();
                     break;
                 case 5:
+                    viewHandlers.expensePercentileReport();
+                    break;
+                case 6:
                     return;
                 default:
                     System.out.println("[ERROR] Invalid choice. Please try again.");
@@ -222,26 +234,28 @@ public class App {
         }
     }
     
+    // Both managers share the engine, so it is closed once here rather than by either of them
+    private static void shutdown() {
+        storage.close();
+    }
+    
     private static void processOverdueOnStartup() {
         // Check if there are any overdue recurring expenses that haven't been processed yet
         java.time.LocalDate today = java.time.LocalDate.now();
+        // The schedule's earliest due date settles the common case without scanning anything
+        java.time.LocalDate earliestDue = recurringExpenseManager.getNextDueDate();
+        if (earliestDue == null || !earliestDue.isBefore(today)) {
+            return;
+        }
         var overdueExpenses = recurringExpenseManager.getRecurringExpensesDueBetween(
-            java.time.LocalDate.of(2020, 1, 1), today.minusDays(1));
+            earliestDue, today.minusDays(1));
         
         if (!overdueExpenses.isEmpty()) {
             // Check if any of these overdue expenses actually need processing
             boolean hasUnprocessedExpenses = overdueExpenses.stream()
-                .anyMatch(re -> {
+                .anyMatch(re -> re.getDueDatesUpTo(today).stream()
                     // Check if there are any periods between nextDueDate and today that haven't been processed
-                    java.time.LocalDate current = re.getNextDueDate();
-                    while (!current.isAfter(today)) {
-                        if (!hasExpenseForRecurringAndDate(re.getId(), current)) {
-                            return true; // Found an unprocessed period
-                        }
-                        current = getNextDateForFrequency(current, re.getFrequency());
-                    }
-                    return false;
-                });
+                    .anyMatch(date -> !hasExpenseForRecurringAndDate(re.getId(), date)));
             
             if (hasUnprocessedExpenses) {
                 System.out.println("\n[WARNING] Found overdue recurring expense(s) that haven't been processed yet.");
@@ -263,29 +277,6 @@ public class App {
     
     // Helper method to check if an expense exists for a recurring expense and date
     private static boolean hasExpenseForRecurringAndDate(String recurringExpenseId, java.time.LocalDate date) {
-        return transactionManager.getAllTransactions().stream()
-            .filter(t -> t instanceof org.gabx.expenses.transactions.Expense)
-            .map(t -> (org.gabx.expenses.transactions.Expense) t)
-            .anyMatch(e -> recurringExpenseId.equals(e.getOriginalRecurringId()) && date.equals(e.getDate()));
-    }
-    
-    // Helper method to get next date for frequency
-    private static java.time.LocalDate getNextDateForFrequency(java.time.LocalDate date, org.gabx.expenses.transactions.RecurringExpense.Frequency frequency) {
-        switch (frequency) {
-            case DAILY:
-                return date.plusDays(1);
-            case WEEKLY:
-                return date.plusWeeks(1);
-            case FOUR_WEEKLY:
-                return date.plusWeeks(4);
-            case MONTHLY:
-                return date.plusMonths(1);
-            case QUARTERLY:
-                return date.plusMonths(3);
-            case YEARLY:
-                return date.plusYears(1);
-            default:
-                return date;
-        }
+        return transactionManager.hasRecurringOccurrence(recurringExpenseId, date);
     }
 }
@@ -27,12 +27,18 @@ public class ManagementHandlers {
         
         switch (choice) {
             case 1:
-                Income.addIncomeCategory(categoryName);
-                System.out.printf("[SUCCESS] Income category '%s' added successfully!%n", categoryName);
+                if (transactionManager.addCategory(CategoryRegistry.Kind.INCOME, categoryName)) {
+                    System.out.printf("[SUCCESS] Income category '%s' added successfully!%n", categoryName);
+                } else {
+                    System.out.println(categoryName + " is already an income category!");
+                }
                 break;
             case 2:
-                Expense.addExpenseCategory(categoryName);
-                System.out.printf("[SUCCESS] Expense category '%s' added successfully!%n", categoryName);
+                if (transactionManager.addCategory(CategoryRegistry.Kind.EXPENSE, categoryName)) {
+                    System.out.printf("[SUCCESS] Expense category '%s' added successfully!%n", categoryName);
+                } else {
+                    System.out.println(categoryName + " is already an expense category!");
+                }
                 break;
             default:
                 System.out.println("[ERROR] Invalid choice.");
@@ -51,7 +57,10 @@ public class ManagementHandlers {
         System.out.println("[LOCATION] Your data is stored at:");
         System.out.println("   " + transactionManager.getStorageLocation());
         System.out.println("\n[INFO] This location contains:");
-        System.out.println("   [FILE] transactions.json - All your transaction data");
+        System.out.println("   [FILE] transactions.json - Snapshot of your transaction data");
+        System.out.println("   [FILE] transactions.journal - Changes made since the last snapshot");
+        System.out.println("   [LOCATION] segments/ - One file per month when the segmented layout is enabled");
+        System.out.println("   [FILE] transactions.bin - Binary snapshot when the binary layout is enabled");
         System.out.println("   [FILE] categories.json - Your custom categories");
         System.out.println("   [LOCATION] backups/ - Backup files");
     }
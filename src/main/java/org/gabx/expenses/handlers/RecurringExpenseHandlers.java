@@ -137,7 +137,7 @@ public class RecurringExpenseHandlers {
                 re.getNextDueDate().format(DateTimeFormatter.ofPattern("MMM dd")));
         }
         
-        double totalUpcoming = upcoming.stream().mapToDouble(RecurringExpense::getAmount).sum();
+        double totalUpcoming = Money.toMajor(upcoming.stream().mapToLong(RecurringExpense::getAmountMinorUnits).sum());
         System.out.println("=".repeat(90));
         System.out.printf("[EXPENSE] Total Amount Due: $%,15.2f%n", totalUpcoming);
     }
@@ -240,7 +240,7 @@ public class RecurringExpenseHandlers {
                 expense.getDescription(), expense.getAmount(), expense.getCategory());
         }
         
-        double total = generatedExpenses.stream().mapToDouble(Expense::getAmount).sum();
+        double total = Money.toMajor(generatedExpenses.stream().mapToLong(Expense::getAmountMinorUnits).sum());
         System.out.println("=".repeat(70));
         System.out.printf("[EXPENSE] Total Generated: $%,15.2f%n", total);
     }
@@ -273,7 +273,7 @@ public class RecurringExpenseHandlers {
                 expense.getDate().format(DISPLAY_FORMATTER));
         }
         
-        double total = generatedExpenses.stream().mapToDouble(Expense::getAmount).sum();
+        double total = Money.toMajor(generatedExpenses.stream().mapToLong(Expense::getAmountMinorUnits).sum());
         System.out.println("=".repeat(70));
         System.out.printf("[EXPENSE] Total Generated: $%,15.2f%n", total);
     }
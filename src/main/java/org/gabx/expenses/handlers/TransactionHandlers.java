@@ -11,6 +11,7 @@ import java.util.List;
 public class TransactionHandlers {
     private final TransactionManager transactionManager;
     private static final DateTimeFormatter DISPLAY_FORMATTER = DateTimeFormatter.ofPattern("MMM dd, yyyy");
+    private static final int SEARCH_LIMIT = 20;
     
     public TransactionHandlers(TransactionManager transactionManager) {
         this.transactionManager = transactionManager;
@@ -121,4 +122,36 @@ public class TransactionHandlers {
         System.out.println("[SUCCESS] Transaction found:");
         DisplayUtils.displayTransactionDetails(transaction);
     }
+    
+    public void searchTransactions() {
+        System.out.println("\n[SEARCH] === SEARCH DESCRIPTIONS ===");
+        
+        String text = UserInputHandler.getStringInput("[SEARCH] Enter part of a description: ");
+        if (text.isBlank()) {
+            System.out.println("[ERROR] Search text cannot be empty.");
+            return;
+        }
+        
+        long started = System.nanoTime();
+        List<Transaction> results = transactionManager.searchDescriptions(text, SEARCH_LIMIT);
+        double elapsedMs = (System.nanoTime() - started) / 1_000_000.0;
+        
+        if (results.isEmpty()) {
+            System.out.printf("[EMPTY] No transactions match '%s'.%n", text);
+            return;
+        }
+        
+        System.out.printf("%n[LIST] Best %d matches for '%s' (%.1f ms):%n", results.size(), text, elapsedMs);
+        System.out.println("=".repeat(85));
+        for (Transaction t : results) {
+            String type = t instanceof Income ? "[INCOME]" : "[EXPENSE]";
+            System.out.printf("%s %s - %-30s $%,8.2f [%s] %s%n",
+                type,
+                t.getDate().format(DISPLAY_FORMATTER),
+                DisplayUtils.truncate(t.getDescription(), 30),
+                t.getAmount(),
+                t.getCategory(),
+                t.getId());
+        }
+    }
 }
@@ -1,6 +1,9 @@
 package org.gabx.expenses.handlers;
 
 import org.gabx.expenses.transactions.*;
+import org.gabx.expenses.manager.ReportSnapshot;
+import org.gabx.expenses.manager.RollingSummary;
+import org.gabx.expenses.manager.RollingWindow;
 import org.gabx.expenses.manager.TransactionManager;
 import org.gabx.expenses.ui.UserInputHandler;
 import org.gabx.expenses.ui.DisplayUtils;
@@ -9,7 +12,6 @@ import java.time.format.DateTimeFormatter;
 import java.time.YearMonth;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 public class ViewHandlers {
     private final TransactionManager transactionManager;
@@ -160,8 +162,6 @@ public class ViewHandlers {
             startDate.format(DISPLAY_FORMATTER), endDate.format(DISPLAY_FORMATTER), transactions.size());
         System.out.println("=".repeat(85));
         
-        double totalIncome = 0, totalExpenses = 0;
-        
         for (Transaction t : transactions) {
             String type = t instanceof Income ? "[INCOME]" : "[EXPENSE]";
             System.out.printf("%s %s - %-30s $%,8.2f [%s]%n",
@@ -170,13 +170,9 @@ public class ViewHandlers {
                 DisplayUtils.truncate(t.getDescription(), 30),
                 t.getAmount(),
                 t.getCategory());
-            
-            if (t instanceof Income) {
-                totalIncome += t.getAmount();
-            } else {
-                totalExpenses += t.getAmount();
-            }
         }
+        double totalIncome = transactionManager.getTotalIncome(startDate, endDate);
+        double totalExpenses = transactionManager.getTotalExpenses(startDate, endDate);
         
         System.out.println("=".repeat(85));
         System.out.printf("[INCOME] Total Income:  $%,10.2f%n", totalIncome);
@@ -189,9 +185,10 @@ public class ViewHandlers {
         
         int year = UserInputHandler.getIntInput("[DATE] Enter year: ");
         
-        double totalIncome = transactionManager.getTotalIncomeForYear(year);
-        double totalExpenses = transactionManager.getTotalExpensesForYear(year);
-        double balance = totalIncome - totalExpenses;
+        ReportSnapshot snapshot = transactionManager.getReportSnapshot(year);
+        double totalIncome = snapshot.getTotalIncome();
+        double totalExpenses = snapshot.getTotalExpenses();
+        double balance = snapshot.getBalance();
         
         // Create yearly summary box
         String yearTitle = "YEAR " + year + " SUMMARY";
@@ -206,8 +203,8 @@ public class ViewHandlers {
         System.out.println("+" + "=".repeat(maxWidth - 2) + "+");
         
         // Monthly breakdown
-        Map<Integer, Double> monthlyIncome = transactionManager.getMonthlyIncome(year);
-        Map<Integer, Double> monthlyExpenses = transactionManager.getMonthlyExpenses(year);
+        Map<YearMonth, Double> monthlyIncome = snapshot.getMonthlyIncome();
+        Map<YearMonth, Double> monthlyExpenses = snapshot.getMonthlyExpenses();
         
         if (!monthlyIncome.isEmpty() || !monthlyExpenses.isEmpty()) {
             System.out.println("\n[STATS] Monthly Breakdown:");
@@ -215,12 +212,13 @@ public class ViewHandlers {
             System.out.println("==============================================");
             
             for (int month = 1; month <= 12; month++) {
-                double income = monthlyIncome.getOrDefault(month, 0.0);
-                double expenses = monthlyExpenses.getOrDefault(month, 0.0);
+                YearMonth yearMonth = YearMonth.of(year, month);
+                double income = monthlyIncome.getOrDefault(yearMonth, 0.0);
+                double expenses = monthlyExpenses.getOrDefault(yearMonth, 0.0);
                 double monthBalance = income - expenses;
                 
                 if (income > 0 || expenses > 0) {
-                    String monthName = YearMonth.of(year, month).format(DateTimeFormatter.ofPattern("MMM"));
+                    String monthName = yearMonth.format(DateTimeFormatter.ofPattern("MMM"));
                     System.out.printf("%-8s $%,8.2f  $%,8.2f  $%,8.2f%n", 
                         monthName, income, expenses, monthBalance);
                 }
@@ -307,26 +305,16 @@ public class ViewHandlers {
     public void yearToDateSummary() {
         DisplayUtils.printCenteredSection("YEAR-TO-DATE SUMMARY");
         
-        int year = LocalDate.now().getYear();
-        LocalDate startOfYear = LocalDate.of(year, 1, 1);
-        LocalDate today = LocalDate.now();
+        RollingSummary ytd = transactionManager.getRollingSummary(RollingWindow.YEAR_TO_DATE);
+        int year = ytd.getEndDate().getYear();
         
-        List<Transaction> ytdTransactions = transactionManager.getTransactionsByDateRange(startOfYear, today);
-        
-        if (ytdTransactions.isEmpty()) {
+        if (ytd.isEmpty()) {
             System.out.printf("[EMPTY] No transactions found for %d year-to-date.%n", year);
             return;
         }
         
-        double ytdIncome = ytdTransactions.stream()
-            .filter(t -> t instanceof Income)
-            .mapToDouble(Transaction::getAmount)
-            .sum();
-        
-        double ytdExpenses = ytdTransactions.stream()
-            .filter(t -> t instanceof Expense)
-            .mapToDouble(Transaction::getAmount)
-            .sum();
+        double ytdIncome = ytd.getTotalIncome();
+        double ytdExpenses = ytd.getTotalExpenses();
         
         // Create YTD summary box
         String ytdTitle = year + " YEAR-TO-DATE SUMMARY";
@@ -336,12 +324,12 @@ public class ViewHandlers {
         System.out.println("+" + "=".repeat(maxWidth - 2) + "+");
         System.out.printf("| [INCOME] YTD Income:        $%,15.2f |%n", ytdIncome);
         System.out.printf("| [EXPENSE] YTD Expenses:      $%,15.2f |%n", ytdExpenses);
-        System.out.printf("| [BALANCE] YTD Net Savings:   $%,15.2f |%n", ytdIncome - ytdExpenses);
-        System.out.printf("| [STATS] Total Transactions: %,15d |%n", ytdTransactions.size());
+        System.out.printf("| [BALANCE] YTD Net Savings:   $%,15.2f |%n", ytd.getBalance());
+        System.out.printf("| [STATS] Total Transactions: %,15d |%n", ytd.getTransactionCount());
         System.out.println("+" + "=".repeat(maxWidth - 2) + "+");
         
-        double dailyAvgIncome = ytdIncome / today.getDayOfYear();
-        double dailyAvgExpense = ytdExpenses / today.getDayOfYear();
+        double dailyAvgIncome = ytd.getAverageDailyIncome();
+        double dailyAvgExpense = ytd.getAverageDailyExpenses();
         
         System.out.printf("%n[TREND] Daily Averages:%n");
         System.out.printf("[INCOME] Average Daily Income:  $%,10.2f%n", dailyAvgIncome);
@@ -352,59 +340,80 @@ public class ViewHandlers {
     public void spendingInsights() {
         DisplayUtils.printCenteredSection("SPENDING INSIGHTS");
         
-        LocalDate oneMonthAgo = LocalDate.now().minusMonths(1);
-        LocalDate today = LocalDate.now();
+        RollingSummary recent = transactionManager.getRollingSummary(RollingWindow.LAST_30_DAYS);
+        long incomeCount = recent.getIncomeCount();
+        long expenseCount = recent.getExpenseCount();
+        long totalCount = recent.getTransactionCount();
         
-        List<Transaction> recentTransactions = transactionManager.getTransactionsByDateRange(oneMonthAgo, today);
-        
-        if (recentTransactions.isEmpty()) {
+        if (totalCount == 0) {
             System.out.println("[EMPTY] Not enough recent data for insights.");
             return;
         }
         
-        // Calculate insights
-        double avgTransactionAmount = recentTransactions.stream()
-            .mapToDouble(Transaction::getAmount)
-            .average().orElse(0);
-        
-        long expenseCount = recentTransactions.stream()
-            .filter(t -> t instanceof Expense)
-            .count();
-        
-        long incomeCount = recentTransactions.stream()
-            .filter(t -> t instanceof Income)
-            .count();
-        
         System.out.println("\n[INSIGHT] Recent Insights (Last 30 days):");
         System.out.println("=".repeat(50));
-        System.out.printf("[STATS] Total Transactions: %d%n", recentTransactions.size());
+        System.out.printf("[STATS] Total Transactions: %d%n", totalCount);
         System.out.printf("[EXPENSE] Expense Transactions: %d (%.1f%%)%n", 
-            expenseCount, (expenseCount * 100.0) / recentTransactions.size());
+            expenseCount, (expenseCount * 100.0) / totalCount);
         System.out.printf("[INCOME] Income Transactions: %d (%.1f%%)%n", 
-            incomeCount, (incomeCount * 100.0) / recentTransactions.size());
-        System.out.printf("[BALANCE] Average Transaction: $%.2f%n", avgTransactionAmount);
+            incomeCount, (incomeCount * 100.0) / totalCount);
+        System.out.printf("[BALANCE] Average Transaction: $%.2f%n", recent.getAverageTransaction());
         
         // Most frequent category
-        Map<String, Long> categoryFrequency = recentTransactions.stream()
-            .collect(Collectors.groupingBy(
-                Transaction::getCategory,
-                Collectors.counting()));
-        
-        if (!categoryFrequency.isEmpty()) {
-            String mostFrequentCategory = categoryFrequency.entrySet().stream()
-                .max(Map.Entry.comparingByValue())
-                .get().getKey();
-            
-            System.out.printf("[BEST] Most Active Category: %s%n", mostFrequentCategory);
+        if (recent.getMostFrequentCategory() != null) {
+            System.out.printf("[BEST] Most Active Category: %s%n", recent.getMostFrequentCategory());
+        }
+        
+        // Spending pace over the shorter and longer windows, for comparison
+        RollingSummary week = transactionManager.getRollingSummary(RollingWindow.LAST_7_DAYS);
+        RollingSummary quarter = transactionManager.getRollingSummary(RollingWindow.LAST_90_DAYS);
+        System.out.printf("[TREND] Average Daily Expense: $%.2f (7 days), $%.2f (30 days), $%.2f (90 days)%n",
+            week.getAverageDailyExpenses(), recent.getAverageDailyExpenses(), quarter.getAverageDailyExpenses());
+    }
+    
+    public void expensePercentileReport() {
+        DisplayUtils.printCenteredSection("EXPENSE PERCENTILES");
+        
+        int month = UserInputHandler.getIntInput("[DATE] Enter month (1-12, 0 for the whole year): ");
+        int year = UserInputHandler.getIntInput("[DATE] Enter year: ");
+        
+        if (month < 0 || month > 12) {
+            System.out.println("[ERROR] Invalid month. Please enter a value between 0 and 12.");
+            return;
+        }
+        
+        Map<String, TransactionManager.Percentiles> percentiles = month == 0
+            ? transactionManager.getExpensePercentiles(year)
+            : transactionManager.getExpensePercentiles(month, year);
+        
+        if (percentiles.isEmpty()) {
+            System.out.println("[EMPTY] No expense data found for the specified period.");
+            return;
+        }
+        
+        String period = month == 0 ? String.valueOf(year)
+            : YearMonth.of(year, month).format(DateTimeFormatter.ofPattern("MMMM yyyy"));
+        System.out.printf("%n[STATS] Expense Amounts - %s:%n", period);
+        System.out.printf("%-22s %6s %11s %11s %11s%n", "Category", "Count", "Median", "P90", "P99");
+        System.out.println("=".repeat(65));
+        
+        for (Map.Entry<String, TransactionManager.Percentiles> entry : percentiles.entrySet()) {
+            if (entry.getKey().equals(TransactionManager.ALL_CATEGORIES)) {
+                System.out.println("=".repeat(65));
+            }
+            TransactionManager.Percentiles p = entry.getValue();
+            System.out.printf("%-22s %,6d $%,10.2f $%,10.2f $%,10.2f%n",
+                entry.getKey(), p.count, p.median, p.p90, p.p99);
         }
     }
     
     public void viewLifetimeBalance() {
         DisplayUtils.printCenteredSection("LIFETIME BALANCE");
         
-        double totalIncome = transactionManager.getTotalIncome();
-        double totalExpenses = transactionManager.getTotalExpenses();
-        double lifetimeBalance = totalIncome - totalExpenses;
+        ReportSnapshot snapshot = transactionManager.getLifetimeSnapshot();
+        double totalIncome = snapshot.getTotalIncome();
+        double totalExpenses = snapshot.getTotalExpenses();
+        double lifetimeBalance = snapshot.getBalance();
         
         // Create lifetime summary box
         String lifetimeTitle = "LIFETIME FINANCIAL SUMMARY";
@@ -427,24 +436,17 @@ public class ViewHandlers {
         }
         
         // Show transaction count
-        List<Transaction> allTransactions = transactionManager.getAllTransactions();
-        long incomeCount = allTransactions.stream().filter(t -> t instanceof Income).count();
-        long expenseCount = allTransactions.stream().filter(t -> t instanceof Expense).count();
+        long incomeCount = snapshot.getIncomeCount();
+        long expenseCount = snapshot.getExpenseCount();
         
         System.out.printf("%n[STATS] Transaction Summary:%n");
         System.out.printf("[INCOME] Income Transactions: %,d%n", incomeCount);
         System.out.printf("[EXPENSE] Expense Transactions: %,d%n", expenseCount);
-        System.out.printf("[STATS] Total Transactions: %,d%n", allTransactions.size());
-        
-        if (!allTransactions.isEmpty()) {
-            LocalDate earliest = allTransactions.stream()
-                .map(Transaction::getDate)
-                .min(LocalDate::compareTo)
-                .orElse(LocalDate.now());
-            LocalDate latest = allTransactions.stream()
-                .map(Transaction::getDate)
-                .max(LocalDate::compareTo)
-                .orElse(LocalDate.now());
+        System.out.printf("[STATS] Total Transactions: %,d%n", incomeCount + expenseCount);
+        
+        if (incomeCount + expenseCount > 0) {
+            LocalDate earliest = snapshot.getFirstDate();
+            LocalDate latest = snapshot.getLastDate();
             System.out.printf("[DATE] Tracking Period: %s to %s%n", 
                 earliest.format(DateTimeFormatter.ofPattern("MMM dd, yyyy")),
                 latest.format(DateTimeFormatter.ofPattern("MMM dd, yyyy")));
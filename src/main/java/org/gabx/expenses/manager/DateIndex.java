@@ -0,0 +1,119 @@
+package org.gabx.expenses.manager;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.IntConsumer;
+
+// Column-store rows bucketed by epoch day in a sorted map. Within a day, rows keep the order they
+// were added in, which is the order the old stable sort by date produced.
+class DateIndex {
+    private final NavigableMap<Integer, Rows> byDay = new TreeMap<>();
+    
+    void add(int epochDay, int row) {
+        byDay.computeIfAbsent(epochDay, d -> new Rows()).add(row);
+    }
+    
+    void remove(int epochDay, int row) {
+        Rows day = byDay.get(epochDay);
+        if (day != null && day.remove(row) && day.size == 0) {
+            byDay.remove(epochDay);
+        }
+    }
+    
+    LocalDate firstDate() {
+        return byDay.isEmpty() ? null : LocalDate.ofEpochDay(byDay.firstKey());
+    }
+    
+    LocalDate lastDate() {
+        return byDay.isEmpty() ? null : LocalDate.ofEpochDay(byDay.lastKey());
+    }
+    
+    // Earliest and latest day with rows between two epoch days (inclusive), or null when there are none
+    LocalDate firstDate(int fromEpochDay, int toEpochDay) {
+        Integer day = byDay.ceilingKey(fromEpochDay);
+        return day == null || day > toEpochDay ? null : LocalDate.ofEpochDay(day);
+    }
+    
+    LocalDate lastDate(int fromEpochDay, int toEpochDay) {
+        Integer day = byDay.floorKey(toEpochDay);
+        return day == null || day < fromEpochDay ? null : LocalDate.ofEpochDay(day);
+    }
+    
+    // Visits the rows between two epoch days (inclusive), oldest day first, without copying them
+    void forEachRow(int fromEpochDay, int toEpochDay, IntConsumer action) {
+        if (fromEpochDay > toEpochDay) {
+            return;
+        }
+        for (Rows day : byDay.subMap(fromEpochDay, true, toEpochDay, true).values()) {
+            for (int i = 0; i < day.size; i++) {
+                action.accept(day.rows[i]);
+            }
+        }
+    }
+    
+    // Rows between two dates, newest first, both ends inclusive
+    int[] between(LocalDate startDate, LocalDate endDate) {
+        if (startDate.isAfter(endDate)) {
+            return new int[0];
+        }
+        Rows result = new Rows();
+        int from = Math.toIntExact(startDate.toEpochDay());
+        int to = Math.toIntExact(endDate.toEpochDay());
+        for (Rows day : byDay.subMap(from, true, to, true).descendingMap().values()) {
+            result.addAll(day);
+        }
+        return result.toArray();
+    }
+    
+    // The newest count rows, walking back from the latest date and stopping once there are enough
+    int[] newest(int count) {
+        Rows result = new Rows();
+        for (Rows day : byDay.descendingMap().values()) {
+            for (int i = 0; i < day.size; i++) {
+                if (result.size >= count) {
+                    return result.toArray();
+                }
+                result.add(day.rows[i]);
+            }
+        }
+        return result.toArray();
+    }
+    
+    // Growable int list; most days hold only a handful of rows
+    private static class Rows {
+        int[] rows = new int[2];
+        int size;
+        
+        void add(int row) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            rows[size++] = row;
+        }
+        
+        void addAll(Rows other) {
+            if (size + other.size > rows.length) {
+                rows = Arrays.copyOf(rows, Math.max(rows.length * 2, size + other.size));
+            }
+            System.arraycopy(other.rows, 0, rows, size, other.size);
+            size += other.size;
+        }
+        
+        boolean remove(int row) {
+            for (int i = 0; i < size; i++) {
+                if (rows[i] == row) {
+                    System.arraycopy(rows, i + 1, rows, i, size - i - 1);
+                    size--;
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        int[] toArray() {
+            return Arrays.copyOf(rows, size);
+        }
+    }
+}
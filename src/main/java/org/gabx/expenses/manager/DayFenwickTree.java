@@ -0,0 +1,119 @@
+package org.gabx.expenses.manager;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Fenwick (binary indexed) tree over epoch days: point updates and prefix sums in O(log n).
+// Days are grouped into fixed blocks of BLOCK_DAYS, each with its own small tree allocated the
+// first time one of its days is used, and a second tree over the block totals answers the part of
+// a prefix sum that lies in earlier blocks. A stray date centuries away therefore costs one block
+// plus a slot per block in the totals, rather than a slot for every day in between.
+class DayFenwickTree {
+    static final int BLOCK_DAYS = 1024;
+    
+    private final Map<Integer, long[]> blocks = new HashMap<>(); // 1-based tree per block
+    private final DenseTree blockTotals = new DenseTree();
+    
+    void add(int epochDay, long delta) {
+        if (delta == 0) {
+            return;
+        }
+        int block = Math.floorDiv(epochDay, BLOCK_DAYS);
+        long[] tree = blocks.computeIfAbsent(block, b -> new long[BLOCK_DAYS + 1]);
+        for (int i = Math.floorMod(epochDay, BLOCK_DAYS) + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+        blockTotals.add(block, delta);
+    }
+    
+    // Sum of every day up to and including the given one
+    long sumThrough(int epochDay) {
+        int block = Math.floorDiv(epochDay, BLOCK_DAYS);
+        long sum = blockTotals.sumThrough(block - 1);
+        long[] tree = blocks.get(block);
+        if (tree != null) {
+            for (int i = Math.floorMod(epochDay, BLOCK_DAYS) + 1; i > 0; i -= i & -i) {
+                sum += tree[i];
+            }
+        }
+        return sum;
+    }
+    
+    // Sum between two days, both inclusive; 0 when the range is empty
+    long sumBetween(int fromEpochDay, int toEpochDay) {
+        if (toEpochDay < fromEpochDay) {
+            return 0;
+        }
+        return sumThrough(toEpochDay) - sumThrough(fromEpochDay - 1);
+    }
+    
+    // Fenwick tree over a contiguous run of positions (here: block numbers). The span starts around
+    // the first position added and doubles whenever a position falls outside it; the plain values
+    // are kept alongside the tree so a resize can rebuild it in linear time.
+    private static class DenseTree {
+        private int first; // position stored at index 0
+        private long[] values = new long[0];
+        private long[] tree = new long[1]; // 1-based
+        
+        void add(int position, long delta) {
+            ensureCovers(position);
+            int index = position - first;
+            values[index] += delta;
+            for (int i = index + 1; i < tree.length; i += i & -i) {
+                tree[i] += delta;
+            }
+        }
+        
+        long sumThrough(int position) {
+            if (values.length == 0 || position < first) {
+                return 0;
+            }
+            int index = Math.min(position - first, values.length - 1);
+            long sum = 0;
+            for (int i = index + 1; i > 0; i -= i & -i) {
+                sum += tree[i];
+            }
+            return sum;
+        }
+        
+        private void ensureCovers(int position) {
+            if (values.length == 0) {
+                first = position - 4;
+                rebuild(first, new long[9]);
+                return;
+            }
+            int last = first + values.length - 1;
+            if (position >= first && position <= last) {
+                return;
+            }
+            
+            int newFirst = Math.min(first, position);
+            int newLast = Math.max(last, position);
+            int length = values.length;
+            while (length < newLast - newFirst + 1) {
+                length *= 2;
+            }
+            // Spread the extra room towards whichever end grew, so repeated appends stay amortized
+            if (position < first) {
+                newFirst = newLast - length + 1;
+            }
+            long[] grown = new long[length];
+            System.arraycopy(values, 0, grown, first - newFirst, values.length);
+            rebuild(newFirst, grown);
+        }
+        
+        // Linear-time construction: each node passes its partial sum up to its parent once
+        private void rebuild(int start, long[] initial) {
+            first = start;
+            values = initial;
+            tree = new long[initial.length + 1];
+            System.arraycopy(initial, 0, tree, 1, initial.length);
+            for (int i = 1; i < tree.length; i++) {
+                int parent = i + (i & -i);
+                if (parent < tree.length) {
+                    tree[parent] += tree[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.gabx.expenses.manager;
+
+import org.gabx.expenses.transactions.RecurringExpense;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+// Active recurring expenses ordered by next due date, so "what is due by this date" and "what falls
+// due in this range" walk only the matching entries instead of every template. Templates due on the
+// same day keep the order they were scheduled in. The owner reschedules a template whenever its due
+// date or active flag changes; the schedule does not notice changes made behind its back.
+class DueDateSchedule {
+    private final NavigableMap<LocalDate, Map<String, RecurringExpense>> byDate = new TreeMap<>();
+    private final Map<String, LocalDate> scheduledOn = new HashMap<>();
+    
+    // Files the template under its current due date, or drops it when it is inactive
+    void schedule(RecurringExpense recurringExpense) {
+        remove(recurringExpense.getId());
+        LocalDate due = recurringExpense.getNextDueDate();
+        if (recurringExpense.isActive() && due != null) {
+            byDate.computeIfAbsent(due, d -> new LinkedHashMap<>()).put(recurringExpense.getId(), recurringExpense);
+            scheduledOn.put(recurringExpense.getId(), due);
+        }
+    }
+    
+    void remove(String id) {
+        LocalDate due = scheduledOn.remove(id);
+        if (due != null) {
+            Map<String, RecurringExpense> sameDay = byDate.get(due);
+            sameDay.remove(id);
+            if (sameDay.isEmpty()) {
+                byDate.remove(due);
+            }
+        }
+    }
+    
+    // Due on or before the date, earliest first
+    List<RecurringExpense> dueBy(LocalDate date) {
+        return collect(byDate.headMap(date, true).values());
+    }
+    
+    // Due strictly before the date, earliest first
+    List<RecurringExpense> dueBefore(LocalDate date) {
+        return collect(byDate.headMap(date, false).values());
+    }
+    
+    // Due between the two dates (both inclusive), earliest first
+    List<RecurringExpense> dueBetween(LocalDate startDate, LocalDate endDate) {
+        if (endDate.isBefore(startDate)) {
+            return new ArrayList<>();
+        }
+        return collect(byDate.subMap(startDate, true, endDate, true).values());
+    }
+    
+    // Earliest due date of any active template, or null when none is scheduled
+    LocalDate firstDueDate() {
+        return byDate.isEmpty() ? null : byDate.firstKey();
+    }
+    
+    private static List<RecurringExpense> collect(Collection<Map<String, RecurringExpense>> days) {
+        List<RecurringExpense> result = new ArrayList<>();
+        for (Map<String, RecurringExpense> day : days) {
+            result.addAll(day.values());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,101 @@
+package org.gabx.expenses.manager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// A list of items with unique IDs plus a hash index from ID to position, so lookups and
+// replacements are constant time. Iteration follows insertion order. Removal leaves a null
+// tombstone in the item's place, and once tombstones outnumber the live items the list is
+// compacted in one pass, so removals stay amortized constant time without reordering anything.
+class IndexedList<T> implements Iterable<T> {
+    private final List<T> items = new ArrayList<>(); // null slots are tombstones
+    private final Map<String, Integer> positions = new HashMap<>();
+    private final Function<T, String> idOf;
+    private int tombstones;
+    
+    IndexedList(Function<T, String> idOf) {
+        this.idOf = idOf;
+    }
+    
+    // Adds the item, replacing (and returning) any item already stored under the same ID
+    T put(T item) {
+        String id = idOf.apply(item);
+        Integer position = positions.get(id);
+        if (position != null) {
+            return items.set(position, item);
+        }
+        positions.put(id, items.size());
+        items.add(item);
+        return null;
+    }
+    
+    T get(String id) {
+        Integer position = positions.get(id);
+        return position == null ? null : items.get(position);
+    }
+    
+    boolean contains(String id) {
+        return positions.containsKey(id);
+    }
+    
+    T remove(String id) {
+        Integer position = positions.remove(id);
+        if (position == null) {
+            return null;
+        }
+        T removed = items.set(position, null);
+        tombstones++;
+        if (tombstones > positions.size()) {
+            compact();
+        }
+        return removed;
+    }
+    
+    int size() {
+        return positions.size();
+    }
+    
+    boolean isEmpty() {
+        return positions.isEmpty();
+    }
+    
+    Stream<T> stream() {
+        return items.stream().filter(Objects::nonNull);
+    }
+    
+    // Read-only list of the items in insertion order; a view of the backing list when it holds no
+    // tombstones, a copy otherwise
+    List<T> asList() {
+        if (tombstones == 0) {
+            return Collections.unmodifiableList(items);
+        }
+        return Collections.unmodifiableList(stream().collect(Collectors.toList()));
+    }
+    
+    @Override
+    public Iterator<T> iterator() {
+        return asList().iterator();
+    }
+    
+    // Closes the gaps, keeping the survivors in order and moving their positions down
+    private void compact() {
+        int next = 0;
+        for (T item : items) {
+            if (item != null) {
+                items.set(next, item);
+                positions.put(idOf.apply(item), next);
+                next++;
+            }
+        }
+        items.subList(next, items.size()).clear();
+        tombstones = 0;
+    }
+}
@@ -0,0 +1,129 @@
+package org.gabx.expenses.manager;
+
+import java.util.Arrays;
+
+// KLL quantile sketch over long values (amounts in minor units). Values are kept in levels; an item
+// on level h stands for 2^h original values. When a level outgrows its capacity it is sorted and
+// every other item is promoted to the next level, so memory stays around 3K items however many
+// values are added, and any rank is answered to within roughly 1.7/K of the total count. Until
+// the first compaction (fewer than K values) answers are exact.
+//
+// Sketches merge by concatenating levels and compacting again, which is how month sketches roll up
+// into year figures without revisiting any amounts. Deletions are not supported; the owner
+// rebuilds a sketch when one of its values goes away.
+class QuantileSketch {
+    static final int K = 200;
+    private static final double DECAY = 2.0 / 3.0;
+    
+    private long[][] levels = { new long[8] };
+    private int[] sizes = new int[1];
+    private long count;
+    // Alternates which half a compaction keeps, in place of KLL's random coin, so results are
+    // reproducible
+    private boolean keepOdd;
+    
+    void add(long value) {
+        append(0, value);
+        count++;
+        compact();
+    }
+    
+    // Folds the other sketch's values into this one; the other sketch is left unchanged
+    void merge(QuantileSketch other) {
+        for (int level = 0; level < other.sizes.length; level++) {
+            for (int i = 0; i < other.sizes[level]; i++) {
+                append(level, other.levels[level][i]);
+            }
+        }
+        count += other.count;
+        compact();
+    }
+    
+    long count() {
+        return count;
+    }
+    
+    // Smallest retained value whose estimated rank reaches q of the total, q in [0, 1]
+    long quantile(double q) {
+        if (count == 0) {
+            throw new IllegalStateException("Empty sketch");
+        }
+        int items = 0;
+        for (int size : sizes) {
+            items += size;
+        }
+        // Pack (value, level) pairs so one sort orders them by value
+        long[] values = new long[items];
+        int[] itemLevels = new int[items];
+        Integer[] order = new Integer[items];
+        int next = 0;
+        for (int level = 0; level < sizes.length; level++) {
+            for (int i = 0; i < sizes[level]; i++) {
+                values[next] = levels[level][i];
+                itemLevels[next] = level;
+                order[next] = next;
+                next++;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(values[a], values[b]));
+        
+        long total = 0;
+        for (int level = 0; level < sizes.length; level++) {
+            total += (long) sizes[level] << level;
+        }
+        double target = Math.max(1, Math.ceil(q * total));
+        long seen = 0;
+        for (int index : order) {
+            seen += 1L << itemLevels[index];
+            if (seen >= target) {
+                return values[index];
+            }
+        }
+        return values[order[items - 1]];
+    }
+    
+    private void append(int level, long value) {
+        if (level >= sizes.length) {
+            int first = sizes.length;
+            levels = Arrays.copyOf(levels, level + 1);
+            sizes = Arrays.copyOf(sizes, level + 1);
+            for (int i = first; i <= level; i++) {
+                levels[i] = new long[8];
+            }
+        }
+        if (sizes[level] == levels[level].length) {
+            levels[level] = Arrays.copyOf(levels[level], sizes[level] * 2);
+        }
+        levels[level][sizes[level]++] = value;
+    }
+    
+    // Lower levels get geometrically smaller capacities; the top level holds K
+    private int capacity(int level) {
+        int depth = sizes.length - 1 - level;
+        return Math.max(2, (int) Math.ceil(K * Math.pow(DECAY, depth)));
+    }
+    
+    private void compact() {
+        for (int level = 0; level < sizes.length; level++) {
+            if (sizes[level] < capacity(level)) {
+                continue;
+            }
+            long[] items = levels[level];
+            int size = sizes[level];
+            Arrays.sort(items, 0, size);
+            // An odd item out stays behind so the promoted pairs cover an even run
+            int paired = size & ~1;
+            int offset = keepOdd ? 1 : 0;
+            keepOdd = !keepOdd;
+            for (int i = offset; i < paired; i += 2) {
+                append(level + 1, items[i]);
+            }
+            if (paired < size) {
+                items[0] = items[size - 1];
+                sizes[level] = 1;
+            } else {
+                sizes[level] = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package org.gabx.expenses.manager;
+
+import org.gabx.expenses.transactions.CategoryRegistry;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+// Plans and runs TransactionQuery against the column store. The planner estimates how many rows
+// each usable access path would hand over and starts from the smallest; every condition is then
+// checked against the candidate rows straight from the columns, so no path has to be exact.
+//
+// Access paths: the ID map (one row), the date index (rows per day, sized from the day-count
+// prefix sums), a bitmap of rows per category ID, the description trigram index, or a scan over
+// every row.
+class QueryEngine {
+    enum AccessPath { ID_INDEX, DATE_INDEX, CATEGORY_BITMAP, TRIGRAM_INDEX, FULL_SCAN }
+    
+    private final TransactionColumns columns;
+    private final Map<String, Integer> rowsById;
+    private final DateIndex dateIndex;
+    private final DayFenwickTree[] dailyCounts;
+    private final Map<Integer, BitSet> rowsByCategory = new HashMap<>();
+    private final TrigramIndex descriptions = new TrigramIndex();
+    private final CategoryRegistry categoryRegistry = CategoryRegistry.getInstance();
+    
+    QueryEngine(TransactionColumns columns, Map<String, Integer> rowsById, DateIndex dateIndex, DayFenwickTree[] dailyCounts) {
+        this.columns = columns;
+        this.rowsById = rowsById;
+        this.dateIndex = dateIndex;
+        this.dailyCounts = dailyCounts;
+    }
+    
+    // Kept in step by TransactionManager.indexRow
+    void add(int row) {
+        int category = columns.categoryId(row);
+        if (category >= 0) {
+            rowsByCategory.computeIfAbsent(category, c -> new BitSet()).set(row);
+        }
+        descriptions.add(row, columns.description(row));
+    }
+    
+    void remove(int row) {
+        BitSet rows = rowsByCategory.get(columns.categoryId(row));
+        if (rows != null) {
+            rows.clear(row);
+        }
+        descriptions.remove(columns.description(row));
+    }
+    
+    // The chosen path plus the estimate for every path that was considered
+    static class Plan {
+        final AccessPath path;
+        final Map<AccessPath, Long> estimates;
+        final List<String> conditions;
+        final TransactionQuery.Order order;
+        final int limit;
+        
+        Plan(AccessPath path, Map<AccessPath, Long> estimates, TransactionQuery query) {
+            this.path = path;
+            this.estimates = estimates;
+            this.conditions = query.describeConditions();
+            this.order = query.order;
+            this.limit = query.limit;
+        }
+        
+        String explain() {
+            StringBuilder out = new StringBuilder();
+            out.append("Query:      ").append(String.join(", ", conditions)).append('\n');
+            out.append("Plan:       ").append(path).append(", about ").append(estimates.get(path)).append(" rows\n");
+            out.append("Considered:");
+            estimates.forEach((candidate, rows) -> out.append(' ').append(candidate).append('=').append(rows));
+            out.append('\n');
+            out.append("Then:       filter each candidate row, order ").append(order);
+            if (limit != Integer.MAX_VALUE) {
+                out.append(", limit ").append(limit);
+            }
+            return out.toString();
+        }
+    }
+    
+    Plan plan(TransactionQuery query) {
+        Map<AccessPath, Long> estimates = new EnumMap<>(AccessPath.class);
+        if (query.id != null) {
+            estimates.put(AccessPath.ID_INDEX, rowsById.containsKey(query.id) ? 1L : 0L);
+        }
+        if (query.startDate != null || query.endDate != null) {
+            estimates.put(AccessPath.DATE_INDEX, estimateDateRows(query));
+        }
+        if (query.categories != null) {
+            long rows = 0;
+            for (String category : query.categories) {
+                BitSet bitmap = rowsByCategory.get(categoryRegistry.lookup(category));
+                rows += bitmap == null ? 0 : bitmap.cardinality();
+            }
+            estimates.put(AccessPath.CATEGORY_BITMAP, rows);
+        }
+        if (query.descriptionContains != null) {
+            long rows = descriptions.estimate(query.descriptionContains);
+            if (rows >= 0) {
+                estimates.put(AccessPath.TRIGRAM_INDEX, rows);
+            }
+        }
+        estimates.put(AccessPath.FULL_SCAN, (long) columns.size());
+        
+        AccessPath best = AccessPath.FULL_SCAN;
+        for (Map.Entry<AccessPath, Long> estimate : estimates.entrySet()) {
+            if (estimate.getValue() < estimates.get(best)) {
+                best = estimate.getKey();
+            }
+        }
+        return new Plan(best, estimates, query);
+    }
+    
+    // Matching rows in the requested order, cut to the limit
+    int[] execute(TransactionQuery query) {
+        Plan plan = plan(query);
+        Matcher matcher = new Matcher(query);
+        RowList matches = new RowList();
+        // The date index already hands rows over newest first, so a limit can stop the walk early
+        boolean presorted = plan.path == AccessPath.DATE_INDEX && query.order == TransactionQuery.Order.DATE_DESC;
+        int wanted = presorted ? query.limit : Integer.MAX_VALUE;
+        
+        forEachCandidate(plan.path, query, row -> {
+            if (matches.size < wanted && matcher.test(row)) {
+                matches.add(row);
+            }
+        });
+        
+        int[] rows = matches.toArray();
+        if (!presorted) {
+            rows = sort(rows, query.order);
+        }
+        return rows.length > query.limit ? Arrays.copyOf(rows, query.limit) : rows;
+    }
+    
+    // Rows whose description contains the text, best matches first: the whole description, then
+    // descriptions starting with the text, then a word starting with it, then anywhere inside.
+    // Newest first within each rank.
+    int[] search(String text, int limit) {
+        int[] rows = execute(TransactionQuery.all().descriptionContains(text));
+        String needle = text.toLowerCase(Locale.ROOT);
+        Integer[] order = new Integer[rows.length];
+        int[] ranks = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            order[i] = i;
+            ranks[i] = rank(columns.description(rows[i]).toLowerCase(Locale.ROOT), needle);
+        }
+        Arrays.sort(order, Comparator.comparingInt(i -> ranks[i]));
+        int[] ranked = new int[Math.min(limit, rows.length)];
+        for (int i = 0; i < ranked.length; i++) {
+            ranked[i] = rows[order[i]];
+        }
+        return ranked;
+    }
+    
+    private static int rank(String description, String needle) {
+        if (description.equals(needle)) {
+            return 0;
+        }
+        if (description.startsWith(needle)) {
+            return 1;
+        }
+        int at = description.indexOf(needle);
+        while (at > 0) {
+            if (!Character.isLetterOrDigit(description.charAt(at - 1))) {
+                return 2;
+            }
+            at = description.indexOf(needle, at + 1);
+        }
+        return 3;
+    }
+    
+    // Sum of amounts per group, in minor units, over the rows execute() would return
+    Map<String, Long> sumBy(TransactionQuery query, TransactionQuery.GroupBy groupBy) {
+        Map<String, Long> totals = new HashMap<>();
+        for (int row : execute(query)) {
+            totals.merge(groupKey(row, groupBy), columns.amount(row), Long::sum);
+        }
+        return totals;
+    }
+    
+    Map<String, Long> countBy(TransactionQuery query, TransactionQuery.GroupBy groupBy) {
+        Map<String, Long> counts = new HashMap<>();
+        for (int row : execute(query)) {
+            counts.merge(groupKey(row, groupBy), 1L, Long::sum);
+        }
+        return counts;
+    }
+    
+    private String groupKey(int row, TransactionQuery.GroupBy groupBy) {
+        switch (groupBy) {
+            case CATEGORY:
+                return columns.category(row);
+            case MONTH:
+                return YearMonth.from(columns.date(row)).toString();
+            default:
+                return columns.type(row) == TransactionColumns.INCOME ? "INCOME" : "EXPENSE";
+        }
+    }
+    
+    private long estimateDateRows(TransactionQuery query) {
+        LocalDate first = query.startDate != null ? query.startDate : dateIndex.firstDate();
+        LocalDate last = query.endDate != null ? query.endDate : dateIndex.lastDate();
+        if (first == null || last == null) {
+            return 0;
+        }
+        int from = Math.toIntExact(first.toEpochDay());
+        int to = Math.toIntExact(last.toEpochDay());
+        return dailyCounts[TransactionColumns.INCOME].sumBetween(from, to)
+            + dailyCounts[TransactionColumns.EXPENSE].sumBetween(from, to);
+    }
+    
+    private void forEachCandidate(AccessPath path, TransactionQuery query, IntConsumer consumer) {
+        switch (path) {
+            case ID_INDEX:
+                Integer row = rowsById.get(query.id);
+                if (row != null) {
+                    consumer.accept(row);
+                }
+                break;
+            case DATE_INDEX:
+                LocalDate first = query.startDate != null ? query.startDate : dateIndex.firstDate();
+                LocalDate last = query.endDate != null ? query.endDate : dateIndex.lastDate();
+                if (first != null && last != null) {
+                    for (int candidate : dateIndex.between(first, last)) {
+                        consumer.accept(candidate);
+                    }
+                }
+                break;
+            case TRIGRAM_INDEX:
+                descriptions.candidates(query.descriptionContains, consumer);
+                break;
+            case CATEGORY_BITMAP:
+                for (String category : query.categories) {
+                    BitSet bitmap = rowsByCategory.get(categoryRegistry.lookup(category));
+                    if (bitmap != null) {
+                        bitmap.stream().forEach(consumer);
+                    }
+                }
+                break;
+            default:
+                for (int candidate = 0; candidate < columns.rowLimit(); candidate++) {
+                    if (columns.isLive(candidate)) {
+                        consumer.accept(candidate);
+                    }
+                }
+        }
+    }
+    
+    // Drops the stale posting entries left by removals once they outweigh the live ones. Called by
+    // the owner after removals, under its write lock, so searches never see the index mid-rebuild.
+    void refreshDescriptions() {
+        if (!descriptions.needsRebuild()) {
+            return;
+        }
+        descriptions.clear();
+        for (int row = 0; row < columns.rowLimit(); row++) {
+            if (columns.isLive(row)) {
+                descriptions.add(row, columns.description(row));
+            }
+        }
+    }
+    
+    // Stable sorts, so rows on the same date or with the same amount keep the order they came in
+    private int[] sort(int[] rows, TransactionQuery.Order order) {
+        Integer[] boxed = new Integer[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            boxed[i] = rows[i];
+        }
+        Comparator<Integer> comparator;
+        switch (order) {
+            case DATE_ASC:
+                comparator = Comparator.comparingInt(columns::epochDay);
+                break;
+            case AMOUNT_DESC:
+                comparator = Comparator.comparingLong((Integer row) -> columns.amount(row)).reversed();
+                break;
+            case AMOUNT_ASC:
+                comparator = Comparator.comparingLong(columns::amount);
+                break;
+            default:
+                comparator = Comparator.comparingInt((Integer row) -> columns.epochDay(row)).reversed();
+        }
+        Arrays.sort(boxed, comparator);
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = boxed[i];
+        }
+        return rows;
+    }
+    
+    // Every condition of a query, resolved once against the dictionaries and checked per row
+    private class Matcher {
+        final TransactionQuery query;
+        final int from;
+        final int to;
+        final int type;
+        final BitSet categoryIds;
+        final int recurringCode;
+        final String needle;
+        
+        Matcher(TransactionQuery query) {
+            this.query = query;
+            this.from = query.startDate == null ? Integer.MIN_VALUE : Math.toIntExact(query.startDate.toEpochDay());
+            this.to = query.endDate == null ? Integer.MAX_VALUE : Math.toIntExact(query.endDate.toEpochDay());
+            this.type = query.type == null ? -1
+                : query.type == TransactionQuery.Type.INCOME ? TransactionColumns.INCOME : TransactionColumns.EXPENSE;
+            if (query.categories != null) {
+                categoryIds = new BitSet();
+                for (String category : query.categories) {
+                    int id = categoryRegistry.lookup(category);
+                    if (id >= 0) {
+                        categoryIds.set(id);
+                    }
+                }
+            } else {
+                categoryIds = null;
+            }
+            this.recurringCode = query.recurringId == null ? -1 : columns.lookupRecurringId(query.recurringId);
+            this.needle = query.descriptionContains == null ? null : query.descriptionContains.toLowerCase(Locale.ROOT);
+        }
+        
+        boolean test(int row) {
+            int day = columns.epochDay(row);
+            if (day < from || day > to) {
+                return false;
+            }
+            if (type >= 0 && columns.type(row) != type) {
+                return false;
+            }
+            if (categoryIds != null && (columns.categoryId(row) < 0 || !categoryIds.get(columns.categoryId(row)))) {
+                return false;
+            }
+            long amount = columns.amount(row);
+            if ((query.minAmount != null && amount < query.minAmount) || (query.maxAmount != null && amount > query.maxAmount)) {
+                return false;
+            }
+            if (query.id != null && !query.id.equals(columns.id(row))) {
+                return false;
+            }
+            if (query.onlyRecurring) {
+                int code = columns.recurringIdCode(row);
+                if (code < 0 || (query.recurringId != null && code != recurringCode)) {
+                    return false;
+                }
+            }
+            if (needle != null) {
+                String description = columns.description(row);
+                return description != null && description.toLowerCase(Locale.ROOT).contains(needle);
+            }
+            return true;
+        }
+    }
+    
+    // Growable int list for collecting matches
+    private static class RowList {
+        int[] rows = new int[16];
+        int size;
+        
+        void add(int row) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            rows[size++] = row;
+        }
+        
+        int[] toArray() {
+            return Arrays.copyOf(rows, size);
+        }
+    }
+}
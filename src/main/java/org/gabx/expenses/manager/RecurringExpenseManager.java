@@ -1,149 +1,155 @@
 package org.gabx.expenses.manager;
 
 import org.gabx.expenses.transactions.*;
-import org.gabx.expenses.persistence.DataPersistenceService;
+import org.gabx.expenses.persistence.StorageEngine;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
+// Thread-safe in the same way as TransactionManager: lookups share a read lock, changes and
+// processing take the write lock. Processing holds it while generating expenses, so two threads
+// catching up at once cannot both create the same occurrence. Lock order is always this manager
+// first, then the TransactionManager.
 public class RecurringExpenseManager {
-    private List<RecurringExpense> recurringExpenses;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final IndexedList<RecurringExpense> recurringExpenses = new IndexedList<>(RecurringExpense::getId);
+    // Active templates by next due date; every change to a template's due date or status goes
+    // through schedule() so the due-date queries can walk it instead of scanning every template
+    private final DueDateSchedule schedule = new DueDateSchedule();
     private TransactionManager transactionManager;
-    private DataPersistenceService persistenceService;
+    private final StorageEngine persistenceService;
     
-    public RecurringExpenseManager(TransactionManager transactionManager) {
+    public RecurringExpenseManager(TransactionManager transactionManager, StorageEngine persistenceService) {
         this.transactionManager = transactionManager;
-        this.persistenceService = new DataPersistenceService();
-        this.recurringExpenses = persistenceService.loadRecurringExpenses();
+        this.persistenceService = persistenceService;
+        for (RecurringExpense recurringExpense : persistenceService.loadRecurringExpenses()) {
+            recurringExpenses.put(recurringExpense);
+            schedule.schedule(recurringExpense);
+        }
         
         System.out.println("Loaded " + recurringExpenses.size() + " recurring expenses from storage.");
     }
     
     // Add a new recurring expense
     public void addRecurringExpense(RecurringExpense recurringExpense) {
-        recurringExpenses.add(recurringExpense);
-        saveData();
+        write(() -> {
+            recurringExpenses.put(recurringExpense);
+            schedule.schedule(recurringExpense);
+            saveData();
+        });
     }
     
     // Remove a recurring expense
     public void removeRecurringExpense(String id) {
-        recurringExpenses.removeIf(re -> re.getId().equals(id));
-        saveData();
+        write(() -> {
+            recurringExpenses.remove(id);
+            schedule.remove(id);
+            saveData();
+        });
     }
     
     // Get all recurring expenses
     public List<RecurringExpense> getAllRecurringExpenses() {
-        return new ArrayList<>(recurringExpenses);
+        return read(() -> new ArrayList<>(recurringExpenses.asList()));
     }
     
     // Get active recurring expenses
     public List<RecurringExpense> getActiveRecurringExpenses() {
-        return recurringExpenses.stream()
+        return read(() -> recurringExpenses.stream()
             .filter(RecurringExpense::isActive)
-            .collect(Collectors.toList());
+            .collect(Collectors.toList()));
     }
     
     // Find recurring expense by ID
     public RecurringExpense findRecurringExpenseById(String id) {
-        return recurringExpenses.stream()
-            .filter(re -> re.getId().equals(id))
-            .findFirst()
-            .orElse(null);
+        return read(() -> recurringExpenses.get(id));
     }
     
-    // Get recurring expenses due on a specific date
+    // Get recurring expenses due on a specific date (including any still overdue), earliest first
     public List<RecurringExpense> getRecurringExpensesDueOn(LocalDate date) {
-        return recurringExpenses.stream()
-            .filter(re -> re.isDue(date))
-            .collect(Collectors.toList());
+        return read(() -> schedule.dueBy(date));
     }
     
-    // Get recurring expenses due within a date range
+    // Get recurring expenses due within a date range, earliest first
     public List<RecurringExpense> getRecurringExpensesDueBetween(LocalDate startDate, LocalDate endDate) {
-        return recurringExpenses.stream()
-            .filter(re -> re.isActive())
-            .filter(re -> {
-                LocalDate nextDue = re.getNextDueDate();
-                return !nextDue.isBefore(startDate) && !nextDue.isAfter(endDate);
-            })
-            .collect(Collectors.toList());
+        return read(() -> schedule.dueBetween(startDate, endDate));
     }
     
     // Get upcoming recurring expenses (next 30 days by default)
     public List<RecurringExpense> getUpcomingRecurringExpenses(int daysAhead) {
         LocalDate today = LocalDate.now();
-        LocalDate futureDate = today.plusDays(daysAhead);
-        
-        return recurringExpenses.stream()
-            .filter(RecurringExpense::isActive)
-            .filter(re -> {
-                LocalDate nextDue = re.getNextDueDate();
-                return !nextDue.isBefore(today) && !nextDue.isAfter(futureDate);
-            })
-            .sorted(Comparator.comparing(RecurringExpense::getNextDueDate))
-            .collect(Collectors.toList());
+        return read(() -> schedule.dueBetween(today, today.plusDays(daysAhead)));
+    }
+    
+    // Earliest next due date of any active recurring expense, or null when there are none
+    public LocalDate getNextDueDate() {
+        return read(schedule::firstDueDate);
     }
     
     // Process recurring expenses and generate regular expenses
     public List<Expense> processRecurringExpenses(LocalDate processDate) {
-        List<Expense> generatedExpenses = new ArrayList<>();
-        List<RecurringExpense> dueExpenses = getRecurringExpensesDueOn(processDate);
-        
-        for (RecurringExpense recurringExpense : dueExpenses) {
-            // Check if an expense for this recurring expense and date already exists
-            if (!hasExpenseForRecurringAndDate(recurringExpense.getId(), processDate)) {
-                Expense expense = recurringExpense.createExpenseInstance();
-                expense.setOriginalRecurringId(recurringExpense.getId());
-                transactionManager.addTransaction(expense);
-                generatedExpenses.add(expense);
+        return write(() -> {
+            List<Expense> generatedExpenses = new ArrayList<>();
+            List<RecurringExpense> dueExpenses = schedule.dueBy(processDate);
+            
+            for (RecurringExpense recurringExpense : dueExpenses) {
+                // The instance is dated on the due date, so that is the date to check for
+                LocalDate dueDate = recurringExpense.getNextDueDate();
+                if (!hasExpenseForRecurringAndDate(recurringExpense.getId(), dueDate)) {
+                    Expense expense = recurringExpense.createExpenseInstance();
+                    expense.setOriginalRecurringId(recurringExpense.getId());
+                    generatedExpenses.add(expense);
+                }
                 
                 // Update the next due date
-                recurringExpense.updateNextDueDate();
+                recurringExpense.setNextDueDate(recurringExpense.getFirstDueDateAfter(dueDate));
+                schedule.schedule(recurringExpense);
             }
-        }
-        
-        if (!generatedExpenses.isEmpty()) {
-            saveData();
-        }
-        
-        return generatedExpenses;
+            
+            if (!generatedExpenses.isEmpty()) {
+                transactionManager.addAll(generatedExpenses);
+                saveData();
+            }
+            
+            return generatedExpenses;
+        });
     }
     
     // Process all overdue recurring expenses
     public List<Expense> processOverdueRecurringExpenses() {
-        List<Expense> generatedExpenses = new ArrayList<>();
-        LocalDate today = LocalDate.now();
-        
-        List<RecurringExpense> overdueExpenses = recurringExpenses.stream()
-            .filter(RecurringExpense::isActive)
-            .filter(re -> re.getNextDueDate().isBefore(today))
-            .collect(Collectors.toList());
-        
-        for (RecurringExpense recurringExpense : overdueExpenses) {
-            // Generate expenses for each overdue period
-            LocalDate current = recurringExpense.getNextDueDate();
-            while (!current.isAfter(today)) {
-                // Check if an expense for this recurring expense and date already exists
-                if (!hasExpenseForRecurringAndDate(recurringExpense.getId(), current)) {
-                    Expense expense = recurringExpense.createExpenseInstance();
-                    expense.setDate(current);
-                    expense.setOriginalRecurringId(recurringExpense.getId());
-                    transactionManager.addTransaction(expense);
-                    generatedExpenses.add(expense);
+        return write(() -> {
+            List<Expense> generatedExpenses = new ArrayList<>();
+            LocalDate today = LocalDate.now();
+            
+            List<RecurringExpense> overdueExpenses = schedule.dueBefore(today);
+            
+            for (RecurringExpense recurringExpense : overdueExpenses) {
+                // Generate expenses for each overdue period
+                for (LocalDate current : recurringExpense.getDueDatesUpTo(today)) {
+                    // Check if an expense for this recurring expense and date already exists
+                    if (!hasExpenseForRecurringAndDate(recurringExpense.getId(), current)) {
+                        Expense expense = recurringExpense.createExpenseInstance();
+                        expense.setDate(current);
+                        expense.setOriginalRecurringId(recurringExpense.getId());
+                        generatedExpenses.add(expense);
+                    }
                 }
                 
-                current = getNextDateForFrequency(current, recurringExpense.getFrequency());
+                // Update the next due date
+                recurringExpense.setNextDueDate(recurringExpense.getFirstDueDateAfter(today));
+                schedule.schedule(recurringExpense);
             }
             
-            // Update the next due date
-            recurringExpense.setNextDueDate(current);
-        }
-        
-        if (!generatedExpenses.isEmpty()) {
-            saveData();
-        }
-        
-        return generatedExpenses;
+            // Occurrences are unique per (template, date), so they can all be added in one batch
+            if (!generatedExpenses.isEmpty()) {
+                transactionManager.addAll(generatedExpenses);
+                saveData();
+            }
+            
+            return generatedExpenses;
+        });
     }
     
     // Get total monthly recurring expenses
@@ -152,61 +158,66 @@ public class RecurringExpenseManager {
         LocalDate monthStart = today.withDayOfMonth(1);
         LocalDate monthEnd = today.withDayOfMonth(today.lengthOfMonth());
         
-        return recurringExpenses.stream()
+        return read(() -> Money.toMajor(recurringExpenses.stream()
             .filter(RecurringExpense::isActive)
-            .mapToDouble(re -> re.calculateTotalForDateRange(monthStart, monthEnd))
-            .sum();
+            .mapToLong(re -> re.calculateTotalForDateRange(monthStart, monthEnd))
+            .sum()));
     }
     
     // Get recurring expenses by category
     public Map<String, Double> getRecurringExpensesByCategory() {
-        return recurringExpenses.stream()
+        return read(() -> toMajor(recurringExpenses.stream()
             .filter(RecurringExpense::isActive)
             .collect(Collectors.groupingBy(
                 RecurringExpense::getCategory,
-                Collectors.summingDouble(Expense::getAmount)
-            ));
+                Collectors.summingLong(Expense::getAmountMinorUnits)
+            ))));
     }
     
     // Get recurring expenses by frequency
     public Map<RecurringExpense.Frequency, Double> getRecurringExpensesByFrequency() {
-        return recurringExpenses.stream()
+        return read(() -> toMajor(recurringExpenses.stream()
             .filter(RecurringExpense::isActive)
             .collect(Collectors.groupingBy(
                 RecurringExpense::getFrequency,
-                Collectors.summingDouble(Expense::getAmount)
-            ));
+                Collectors.summingLong(Expense::getAmountMinorUnits)
+            ))));
     }
     
     // Update a recurring expense
     public void updateRecurringExpense(String id, RecurringExpense updatedExpense) {
-        RecurringExpense existing = findRecurringExpenseById(id);
-        if (existing != null) {
-            int index = recurringExpenses.indexOf(existing);
-            updatedExpense.setId(id); // Preserve the original ID
-            recurringExpenses.set(index, updatedExpense);
-            saveData();
-        }
+        write(() -> {
+            if (recurringExpenses.contains(id)) {
+                updatedExpense.setId(id); // Preserve the original ID
+                recurringExpenses.put(updatedExpense);
+                schedule.schedule(updatedExpense);
+                saveData();
+            }
+        });
     }
     
     // Toggle active status of a recurring expense
     public void toggleRecurringExpenseStatus(String id) {
-        RecurringExpense expense = findRecurringExpenseById(id);
-        if (expense != null) {
-            expense.setActive(!expense.isActive());
-            saveData();
-        }
+        write(() -> {
+            RecurringExpense expense = recurringExpenses.get(id);
+            if (expense != null) {
+                expense.setActive(!expense.isActive());
+                schedule.schedule(expense);
+                saveData();
+            }
+        });
     }
     
     // Get summary statistics
     public void printRecurringExpenseSummary() {
+        int total = read(recurringExpenses::size);
+        int active = getActiveRecurringExpenses().size();
         System.out.println("\n=== RECURRING EXPENSE SUMMARY ===");
-        System.out.println("Total Recurring Expenses: " + recurringExpenses.size());
-        System.out.println("Active Recurring Expenses: " + getActiveRecurringExpenses().size());
-        System.out.println("Inactive Recurring Expenses: " + 
-            (recurringExpenses.size() - getActiveRecurringExpenses().size()));
+        System.out.println("Total Recurring Expenses: " + total);
+        System.out.println("Active Recurring Expenses: " + active);
+        System.out.println("Inactive Recurring Expenses: " + (total - active));
         
-        if (!recurringExpenses.isEmpty()) {
+        if (total > 0) {
             double totalMonthly = getTotalMonthlyRecurringExpenses();
             System.out.printf("Estimated Monthly Total: $%,.2f%n", totalMonthly);
             System.out.printf("Estimated Yearly Total: $%,.2f%n", totalMonthly * 12);
@@ -221,36 +232,55 @@ public class RecurringExpenseManager {
         System.out.println();
     }
     
-    // Helper method to get next date for frequency
-    private LocalDate getNextDateForFrequency(LocalDate date, RecurringExpense.Frequency frequency) {
-        switch (frequency) {
-            case DAILY:
-                return date.plusDays(1);
-            case WEEKLY:
-                return date.plusWeeks(1);
-            case FOUR_WEEKLY:
-                return date.plusWeeks(4);
-            case MONTHLY:
-                return date.plusMonths(1);
-            case QUARTERLY:
-                return date.plusMonths(3);
-            case YEARLY:
-                return date.plusYears(1);
-            default:
-                return date;
-        }
+    // Block until every queued recurring expense save is on disk
+    public void flush() {
+        persistenceService.flush().join();
     }
     
     // Check if an expense already exists for a specific recurring expense and date
     private boolean hasExpenseForRecurringAndDate(String recurringExpenseId, LocalDate date) {
-        return transactionManager.getAllTransactions().stream()
-            .filter(t -> t instanceof Expense)
-            .map(t -> (Expense) t)
-            .anyMatch(e -> recurringExpenseId.equals(e.getOriginalRecurringId()) && date.equals(e.getDate()));
+        return transactionManager.hasRecurringOccurrence(recurringExpenseId, date);
+    }
+    
+    // Sums are kept in minor units and only converted for display
+    private static <K> Map<K, Double> toMajor(Map<K, Long> minorUnits) {
+        Map<K, Double> result = new HashMap<>();
+        minorUnits.forEach((key, amount) -> result.put(key, Money.toMajor(amount)));
+        return result;
+    }
+    
+    private <T> T read(Supplier<T> body) {
+        lock.readLock().lock();
+        try {
+            return body.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    private <T> T write(Supplier<T> body) {
+        lock.writeLock().lock();
+        try {
+            return body.get();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    private void write(Runnable body) {
+        write(() -> {
+            body.run();
+            return null;
+        });
     }
     
     // Save recurring expenses to persistence
     private void saveData() {
-        persistenceService.saveRecurringExpenses(recurringExpenses);
+        persistenceService.saveRecurringExpenses(recurringExpenses.asList())
+            .whenComplete((ignored, error) -> {
+                if (error != null) {
+                    System.err.println("Error saving recurring expenses: " + error.getMessage());
+                }
+            });
     }
 }
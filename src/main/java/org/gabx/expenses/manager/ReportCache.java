@@ -0,0 +1,140 @@
+package org.gabx.expenses.manager;
+
+import java.time.YearMonth;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Supplier;
+
+// Bounded LRU cache of report results, keyed by what was asked for and the months it covers.
+// Every entry is also listed under each of its months, so a change to one month evicts exactly
+// the entries that could have seen it: that month's reports, its year's, and any open-ended ones.
+//
+// Synchronized because it is filled by concurrent readers; TransactionManager computes and stores
+// each value under its read lock, so no write can slip between the two and leave a stale entry.
+class ReportCache {
+    private final int capacity;
+    private final LinkedHashMap<Key, Object> entries;
+    private final Map<YearMonth, Set<Key>> keysByMonth = new HashMap<>();
+    private final Set<Key> unboundedKeys = new HashSet<>();
+    private long hits;
+    private long misses;
+    private long evictions;
+    
+    ReportCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+    
+    // The cached value, or compute() stored under the key; values must not be changed afterwards.
+    // The computation runs outside the cache's lock so concurrent reports do not queue behind it.
+    @SuppressWarnings("unchecked")
+    <T> T get(String kind, YearMonth first, YearMonth last, Supplier<T> compute) {
+        Key key = new Key(kind, first, last);
+        synchronized (this) {
+            Object cached = entries.get(key);
+            if (cached != null) {
+                hits++;
+                return (T) cached;
+            }
+            misses++;
+        }
+        T value = compute.get();
+        synchronized (this) {
+            if (entries.put(key, value) == null) {
+                index(key);
+            }
+            if (entries.size() > capacity) {
+                Iterator<Key> eldest = entries.keySet().iterator();
+                Key evicted = eldest.next();
+                eldest.remove();
+                unindex(evicted);
+                evictions++;
+            }
+        }
+        return value;
+    }
+    
+    // Drops every entry whose period includes the month
+    synchronized void invalidate(YearMonth month) {
+        Set<Key> affected = keysByMonth.remove(month);
+        if (affected != null) {
+            for (Key key : affected) {
+                entries.remove(key);
+                unindex(key);
+            }
+        }
+        for (Key key : unboundedKeys) {
+            entries.remove(key);
+        }
+        unboundedKeys.clear();
+    }
+    
+    synchronized String describe() {
+        long lookups = hits + misses;
+        return String.format("%d hits, %d misses (%.0f%% hit rate), %d of %d entries, %d evicted",
+            hits, misses, lookups == 0 ? 0.0 : hits * 100.0 / lookups, entries.size(), capacity, evictions);
+    }
+    
+    synchronized long getHits() {
+        return hits;
+    }
+    
+    synchronized long getMisses() {
+        return misses;
+    }
+    
+    private void index(Key key) {
+        if (key.first == null || key.last == null) {
+            unboundedKeys.add(key);
+            return;
+        }
+        for (YearMonth month = key.first; !month.isAfter(key.last); month = month.plusMonths(1)) {
+            keysByMonth.computeIfAbsent(month, m -> new HashSet<>()).add(key);
+        }
+    }
+    
+    private void unindex(Key key) {
+        if (key.first == null || key.last == null) {
+            unboundedKeys.remove(key);
+            return;
+        }
+        for (YearMonth month = key.first; !month.isAfter(key.last); month = month.plusMonths(1)) {
+            Set<Key> keys = keysByMonth.get(month);
+            if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                keysByMonth.remove(month);
+            }
+        }
+    }
+    
+    // Report kind plus the months it covers, both inclusive; null ends mean unbounded
+    private static final class Key {
+        final String kind;
+        final YearMonth first;
+        final YearMonth last;
+        
+        Key(String kind, YearMonth first, YearMonth last) {
+            this.kind = kind;
+            this.first = first;
+            this.last = last;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return kind.equals(other.kind) && Objects.equals(first, other.first) && Objects.equals(last, other.last);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(kind, first, last);
+        }
+    }
+}
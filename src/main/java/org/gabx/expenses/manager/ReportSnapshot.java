@@ -0,0 +1,230 @@
+package org.gabx.expenses.manager;
+
+import org.gabx.expenses.transactions.CategoryRegistry;
+import org.gabx.expenses.transactions.Money;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntConsumer;
+
+// Every figure a summary view needs for one period: totals and counts by type, the first and last
+// dates seen, and breakdowns by month and by category. Whole months come from the rollup cube and
+// the date index supplies the first and last dates, so only the rows of a partially covered month
+// at either end are visited. Amounts are kept in minor units and converted on the way out. The
+// snapshot is a copy; later changes to the manager do not show up in it.
+public class ReportSnapshot {
+    private static final int INCOME = TransactionColumns.INCOME;
+    private static final int EXPENSE = TransactionColumns.EXPENSE;
+    
+    private final LocalDate startDate; // null for an open end
+    private final LocalDate endDate;
+    private final long[] totals = new long[2];
+    private final long[] counts = new long[2];
+    private LocalDate firstDate;
+    private LocalDate lastDate;
+    private final TreeMap<YearMonth, long[]> monthly = new TreeMap<>(); // {income, expenses}
+    private long[][] categoryTotals = new long[2][0]; // [type][category ID]
+    private int[] categoryCounts = new int[0];
+    
+    // Month of the previous row, so runs of rows on the same day skip the date conversion
+    private int cachedDay = Integer.MIN_VALUE;
+    private long[] cachedMonth;
+    
+    ReportSnapshot(LocalDate startDate, LocalDate endDate) {
+        this.startDate = startDate;
+        this.endDate = endDate;
+    }
+    
+    // Figures for the transactions between the two dates (both inclusive, null for an open end)
+    static ReportSnapshot of(TransactionColumns columns, DateIndex dateIndex, RollupCube rollups,
+            LocalDate startDate, LocalDate endDate) {
+        ReportSnapshot snapshot = new ReportSnapshot(startDate, endDate);
+        snapshot.reserveCategories(CategoryRegistry.getInstance().size());
+        int from = startDate == null ? Integer.MIN_VALUE : Math.toIntExact(startDate.toEpochDay());
+        int to = endDate == null ? Integer.MAX_VALUE : Math.toIntExact(endDate.toEpochDay());
+        
+        // Months the range covers from their first day to their last
+        YearMonth firstFull = startDate == null ? null
+            : startDate.getDayOfMonth() == 1 ? YearMonth.from(startDate) : YearMonth.from(startDate).plusMonths(1);
+        YearMonth lastFull = endDate == null ? null
+            : endDate.getDayOfMonth() == endDate.lengthOfMonth() ? YearMonth.from(endDate) : YearMonth.from(endDate).minusMonths(1);
+        
+        IntConsumer addRow = row ->
+            snapshot.add(columns.epochDay(row), columns.type(row), columns.categoryId(row), columns.amount(row));
+        if (firstFull != null && lastFull != null && firstFull.isAfter(lastFull)) {
+            dateIndex.forEachRow(from, to, addRow);
+        } else {
+            rollups.addTo(snapshot, firstFull, lastFull);
+            if (startDate != null && startDate.getDayOfMonth() != 1) {
+                dateIndex.forEachRow(from, Math.toIntExact(firstFull.atDay(1).toEpochDay()) - 1, addRow);
+            }
+            if (endDate != null && endDate.getDayOfMonth() != endDate.lengthOfMonth()) {
+                dateIndex.forEachRow(Math.toIntExact(lastFull.atEndOfMonth().toEpochDay()) + 1, to, addRow);
+            }
+        }
+        snapshot.includeDates(dateIndex.firstDate(from, to), dateIndex.lastDate(from, to));
+        return snapshot;
+    }
+    
+    // A month's total for one (type, category) cell of the rollup cube
+    void addRollup(YearMonth month, int type, int categoryId, long amount, long count) {
+        totals[type] += amount;
+        counts[type] += count;
+        monthly.computeIfAbsent(month, m -> new long[2])[type] += amount;
+        if (categoryId >= 0) {
+            reserveCategories(categoryId + 1);
+            categoryTotals[type][categoryId] += amount;
+            categoryCounts[categoryId] += Math.toIntExact(count);
+        }
+    }
+    
+    void add(int epochDay, int type, int categoryId, long amount) {
+        totals[type] += amount;
+        counts[type]++;
+        
+        if (epochDay != cachedDay) {
+            LocalDate date = LocalDate.ofEpochDay(epochDay);
+            cachedMonth = monthly.computeIfAbsent(YearMonth.from(date), m -> new long[2]);
+            cachedDay = epochDay;
+            if (firstDate == null || date.isBefore(firstDate)) {
+                firstDate = date;
+            }
+            if (lastDate == null || date.isAfter(lastDate)) {
+                lastDate = date;
+            }
+        }
+        cachedMonth[type] += amount;
+        
+        if (categoryId >= 0) {
+            reserveCategories(categoryId + 1);
+            categoryTotals[type][categoryId] += amount;
+            categoryCounts[categoryId]++;
+        }
+    }
+    
+    // Counts and dates for transactions that are summarized elsewhere (e.g. a segment manifest)
+    // rather than added one by one; totals and breakdowns are left alone
+    void addSummary(int incomeCount, int expenseCount, LocalDate first, LocalDate last) {
+        counts[INCOME] += incomeCount;
+        counts[EXPENSE] += expenseCount;
+        includeDates(first, last);
+    }
+    
+    private void includeDates(LocalDate first, LocalDate last) {
+        if (first != null && (firstDate == null || first.isBefore(firstDate))) {
+            firstDate = first;
+        }
+        if (last != null && (lastDate == null || last.isAfter(lastDate))) {
+            lastDate = last;
+        }
+    }
+    
+    private void reserveCategories(int size) {
+        if (size > categoryCounts.length) {
+            int capacity = Math.max(size, categoryCounts.length * 2);
+            categoryTotals[INCOME] = Arrays.copyOf(categoryTotals[INCOME], capacity);
+            categoryTotals[EXPENSE] = Arrays.copyOf(categoryTotals[EXPENSE], capacity);
+            categoryCounts = Arrays.copyOf(categoryCounts, capacity);
+        }
+    }
+    
+    public LocalDate getStartDate() {
+        return startDate;
+    }
+    
+    public LocalDate getEndDate() {
+        return endDate;
+    }
+    
+    public boolean isEmpty() {
+        return getTransactionCount() == 0;
+    }
+    
+    public double getTotalIncome() {
+        return Money.toMajor(totals[INCOME]);
+    }
+    
+    public double getTotalExpenses() {
+        return Money.toMajor(totals[EXPENSE]);
+    }
+    
+    public double getBalance() {
+        return Money.toMajor(totals[INCOME] - totals[EXPENSE]);
+    }
+    
+    public long getIncomeCount() {
+        return counts[INCOME];
+    }
+    
+    public long getExpenseCount() {
+        return counts[EXPENSE];
+    }
+    
+    public long getTransactionCount() {
+        return counts[INCOME] + counts[EXPENSE];
+    }
+    
+    // Dates of the oldest and newest transaction in the period, or null when there are none
+    public LocalDate getFirstDate() {
+        return firstDate;
+    }
+    
+    public LocalDate getLastDate() {
+        return lastDate;
+    }
+    
+    // Months with at least one transaction, in calendar order
+    public Map<YearMonth, Double> getMonthlyIncome() {
+        return monthly(INCOME);
+    }
+    
+    public Map<YearMonth, Double> getMonthlyExpenses() {
+        return monthly(EXPENSE);
+    }
+    
+    public Map<String, Double> getIncomeByCategory() {
+        return byCategory(INCOME);
+    }
+    
+    public Map<String, Double> getExpensesByCategory() {
+        return byCategory(EXPENSE);
+    }
+    
+    // Transactions per category, both types together
+    public Map<String, Integer> getCategoryCounts() {
+        Map<String, Integer> result = new HashMap<>();
+        CategoryRegistry registry = CategoryRegistry.getInstance();
+        for (int id = 0; id < categoryCounts.length; id++) {
+            if (categoryCounts[id] > 0) {
+                result.put(registry.nameOf(id), categoryCounts[id]);
+            }
+        }
+        return result;
+    }
+    
+    private Map<YearMonth, Double> monthly(int type) {
+        Map<YearMonth, Double> result = new TreeMap<>();
+        monthly.forEach((month, amounts) -> {
+            if (amounts[type] != 0) {
+                result.put(month, Money.toMajor(amounts[type]));
+            }
+        });
+        return result;
+    }
+    
+    private Map<String, Double> byCategory(int type) {
+        Map<String, Double> result = new HashMap<>();
+        CategoryRegistry registry = CategoryRegistry.getInstance();
+        long[] amounts = categoryTotals[type];
+        for (int id = 0; id < amounts.length; id++) {
+            if (amounts[id] != 0) {
+                result.put(registry.nameOf(id), Money.toMajor(amounts[id]));
+            }
+        }
+        return result;
+    }
+}
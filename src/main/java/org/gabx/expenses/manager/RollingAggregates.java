@@ -0,0 +1,140 @@
+package org.gabx.expenses.manager;
+
+import org.gabx.expenses.transactions.CategoryRegistry;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// Running totals, counts and category frequencies for each RollingWindow. The manager reports every
+// row it indexes or drops, and rows inside a window's current range are applied to it at once. When
+// the calendar day moves on, each window subtracts the days that fell off its start and adds the
+// days that came into its end (including transactions that were dated ahead), so the cost of
+// advancing is the rows crossing the boundaries rather than a rescan of the window.
+//
+// Synchronized because readers advance the windows lazily; the manager's write lock already keeps
+// row changes apart from readers.
+class RollingAggregates {
+    private final TransactionColumns columns;
+    private final DateIndex dateIndex;
+    private final Supplier<LocalDate> clock;
+    private final Map<RollingWindow, Window> windows = new EnumMap<>(RollingWindow.class);
+    private LocalDate today;
+    
+    RollingAggregates(TransactionColumns columns, DateIndex dateIndex, Supplier<LocalDate> clock) {
+        this.columns = columns;
+        this.dateIndex = dateIndex;
+        this.clock = clock;
+        this.today = clock.get();
+        for (RollingWindow window : RollingWindow.values()) {
+            windows.put(window, new Window(window.startFor(today), today));
+        }
+    }
+    
+    // Applies a row being indexed (delta 1) or dropped (delta -1) to the windows that cover its day
+    synchronized void add(int row, int delta) {
+        int day = columns.epochDay(row);
+        for (Window window : windows.values()) {
+            if (day >= window.startDay && day <= window.endDay) {
+                window.apply(row, delta);
+            }
+        }
+    }
+    
+    synchronized RollingSummary summary(RollingWindow window) {
+        advance();
+        return windows.get(window).summary();
+    }
+    
+    private void advance() {
+        LocalDate now = clock.get();
+        if (now.equals(today)) {
+            return;
+        }
+        for (Map.Entry<RollingWindow, Window> entry : windows.entrySet()) {
+            entry.getValue().moveTo(entry.getKey().startFor(now), now);
+        }
+        today = now;
+    }
+    
+    private class Window {
+        int startDay;
+        int endDay;
+        final long[] totals = new long[2];
+        final long[] counts = new long[2];
+        int[] categoryCounts = new int[0];
+        RollingSummary published; // dropped on every change
+        
+        Window(LocalDate start, LocalDate end) {
+            startDay = Math.toIntExact(start.toEpochDay());
+            endDay = Math.toIntExact(end.toEpochDay());
+        }
+        
+        void apply(int row, int delta) {
+            byte type = columns.type(row);
+            totals[type] += delta * columns.amount(row);
+            counts[type] += delta;
+            int categoryId = columns.categoryId(row);
+            if (categoryId >= 0) {
+                if (categoryId >= categoryCounts.length) {
+                    categoryCounts = Arrays.copyOf(categoryCounts, Math.max(categoryId + 1, categoryCounts.length * 2));
+                }
+                categoryCounts[categoryId] += delta;
+            }
+            published = null;
+        }
+        
+        // Slides forward by the days between the old and new ranges; anything else (the clock
+        // going back, or a jump past the whole window) starts again from the date index
+        void moveTo(LocalDate start, LocalDate end) {
+            int newStart = Math.toIntExact(start.toEpochDay());
+            int newEnd = Math.toIntExact(end.toEpochDay());
+            if (newStart < startDay || newEnd < endDay || newStart > endDay) {
+                Arrays.fill(totals, 0);
+                Arrays.fill(counts, 0);
+                Arrays.fill(categoryCounts, 0);
+                applyDays(newStart, newEnd, 1);
+            } else {
+                applyDays(startDay, newStart - 1, -1);
+                applyDays(endDay + 1, newEnd, 1);
+            }
+            startDay = newStart;
+            endDay = newEnd;
+            published = null;
+        }
+        
+        private void applyDays(int fromDay, int toDay, int delta) {
+            if (fromDay <= toDay) {
+                for (int row : dateIndex.between(LocalDate.ofEpochDay(fromDay), LocalDate.ofEpochDay(toDay))) {
+                    apply(row, delta);
+                }
+            }
+        }
+        
+        RollingSummary summary() {
+            if (published == null) {
+                CategoryRegistry registry = CategoryRegistry.getInstance();
+                Map<String, Integer> byName = new HashMap<>();
+                String mostFrequent = null;
+                int best = 0;
+                for (int id = 0; id < categoryCounts.length; id++) {
+                    int count = categoryCounts[id];
+                    if (count > 0) {
+                        String name = registry.nameOf(id);
+                        byName.put(name, count);
+                        if (count > best || (count == best && name.compareTo(mostFrequent) < 0)) {
+                            mostFrequent = name;
+                            best = count;
+                        }
+                    }
+                }
+                published = new RollingSummary(LocalDate.ofEpochDay(startDay), LocalDate.ofEpochDay(endDay),
+                    totals, counts, byName, mostFrequent);
+            }
+            return published;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.gabx.expenses.manager;
+
+import org.gabx.expenses.transactions.Money;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.Map;
+
+// Figures for one rolling window as of the day it was taken: totals and counts by type, how often
+// each category was used and which was used most. Immutable; a later change or a new day gives a
+// new summary rather than changing this one.
+public class RollingSummary {
+    private static final int INCOME = TransactionColumns.INCOME;
+    private static final int EXPENSE = TransactionColumns.EXPENSE;
+    
+    private final LocalDate startDate;
+    private final LocalDate endDate;
+    private final long[] totals;
+    private final long[] counts;
+    private final Map<String, Integer> categoryCounts;
+    private final String mostFrequentCategory;
+    
+    RollingSummary(LocalDate startDate, LocalDate endDate, long[] totals, long[] counts,
+                   Map<String, Integer> categoryCounts, String mostFrequentCategory) {
+        this.startDate = startDate;
+        this.endDate = endDate;
+        this.totals = totals.clone();
+        this.counts = counts.clone();
+        this.categoryCounts = Collections.unmodifiableMap(categoryCounts);
+        this.mostFrequentCategory = mostFrequentCategory;
+    }
+    
+    public LocalDate getStartDate() {
+        return startDate;
+    }
+    
+    public LocalDate getEndDate() {
+        return endDate;
+    }
+    
+    // Calendar days covered, including both ends
+    public long getDays() {
+        return ChronoUnit.DAYS.between(startDate, endDate) + 1;
+    }
+    
+    public boolean isEmpty() {
+        return getTransactionCount() == 0;
+    }
+    
+    public double getTotalIncome() {
+        return Money.toMajor(totals[INCOME]);
+    }
+    
+    public double getTotalExpenses() {
+        return Money.toMajor(totals[EXPENSE]);
+    }
+    
+    public double getBalance() {
+        return Money.toMajor(totals[INCOME] - totals[EXPENSE]);
+    }
+    
+    public long getIncomeCount() {
+        return counts[INCOME];
+    }
+    
+    public long getExpenseCount() {
+        return counts[EXPENSE];
+    }
+    
+    public long getTransactionCount() {
+        return counts[INCOME] + counts[EXPENSE];
+    }
+    
+    // Mean amount per transaction, income and expenses together; 0 when the window is empty
+    public double getAverageTransaction() {
+        long count = getTransactionCount();
+        return count == 0 ? 0 : Money.toMajor(totals[INCOME] + totals[EXPENSE]) / count;
+    }
+    
+    public double getAverageDailyIncome() {
+        return getTotalIncome() / getDays();
+    }
+    
+    public double getAverageDailyExpenses() {
+        return getTotalExpenses() / getDays();
+    }
+    
+    // Transactions per category, both types together
+    public Map<String, Integer> getCategoryCounts() {
+        return categoryCounts;
+    }
+    
+    // Category with the most transactions (ties go to the first name alphabetically), or null
+    public String getMostFrequentCategory() {
+        return mostFrequentCategory;
+    }
+}
@@ -0,0 +1,22 @@
+package org.gabx.expenses.manager;
+
+import java.time.LocalDate;
+
+// Periods ending today that TransactionManager keeps running figures for; see getRollingSummary
+public enum RollingWindow {
+    LAST_7_DAYS(7),
+    LAST_30_DAYS(30),
+    LAST_90_DAYS(90),
+    YEAR_TO_DATE(0);
+    
+    private final int days; // 0 for year-to-date
+    
+    RollingWindow(int days) {
+        this.days = days;
+    }
+    
+    // First day of the window that ends on the given day; both ends are inclusive
+    public LocalDate startFor(LocalDate today) {
+        return days == 0 ? today.withDayOfYear(1) : today.minusDays(days - 1);
+    }
+}
@@ -0,0 +1,125 @@
+package org.gabx.expenses.manager;
+
+import java.time.YearMonth;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+// Sums (in minor units) and counts keyed by (year, month, type, category ID), updated in place on
+// every add and remove so the summary reports never have to scan transactions. Category IDs come
+// from CategoryRegistry; -1 stands for a transaction without a category.
+class RollupCube {
+    static final int INCOME = TransactionColumns.INCOME;
+    static final int EXPENSE = TransactionColumns.EXPENSE;
+    
+    private final NavigableMap<YearMonth, MonthRollup> months = new TreeMap<>();
+    private final Cell[] lifetime = { new Cell(), new Cell() };
+    
+    void add(int type, YearMonth month, int categoryId, long amount) {
+        apply(type, month, categoryId, amount, 1);
+    }
+    
+    void remove(int type, YearMonth month, int categoryId, long amount) {
+        apply(type, month, categoryId, amount, -1);
+    }
+    
+    long total(int type) {
+        return lifetime[type].sum;
+    }
+    
+    long count(int type) {
+        return lifetime[type].count;
+    }
+    
+    long total(YearMonth month, int type) {
+        MonthRollup rollup = months.get(month);
+        return rollup == null ? 0 : rollup.totals[type].sum;
+    }
+    
+    long count(YearMonth month, int type) {
+        MonthRollup rollup = months.get(month);
+        return rollup == null ? 0 : rollup.totals[type].count;
+    }
+    
+    long yearTotal(int year, int type) {
+        long total = 0;
+        for (int month = 1; month <= 12; month++) {
+            total += total(YearMonth.of(year, month), type);
+        }
+        return total;
+    }
+    
+    // Only categories with at least one transaction in the month appear
+    Map<Integer, Long> byCategory(YearMonth month, int type) {
+        Map<Integer, Long> result = new HashMap<>();
+        MonthRollup rollup = months.get(month);
+        if (rollup != null) {
+            rollup.categories.get(type).forEach((categoryId, cell) -> result.put(categoryId, cell.sum));
+        }
+        return result;
+    }
+    
+    // Month number to total, for the months of the year that have transactions of this type
+    Map<Integer, Long> monthlyTotals(int year, int type) {
+        Map<Integer, Long> result = new TreeMap<>();
+        for (int month = 1; month <= 12; month++) {
+            MonthRollup rollup = months.get(YearMonth.of(year, month));
+            if (rollup != null && rollup.totals[type].count > 0) {
+                result.put(month, rollup.totals[type].sum);
+            }
+        }
+        return result;
+    }
+    
+    // Feeds every month between the two (inclusive, null for an open end) into the snapshot, one
+    // call per category cell
+    void addTo(ReportSnapshot snapshot, YearMonth first, YearMonth last) {
+        NavigableMap<YearMonth, MonthRollup> range = months;
+        if (first != null) {
+            range = range.tailMap(first, true);
+        }
+        if (last != null) {
+            range = range.headMap(last, true);
+        }
+        range.forEach((month, rollup) -> {
+            for (int type = INCOME; type <= EXPENSE; type++) {
+                int cellType = type;
+                rollup.categories.get(type).forEach((categoryId, cell) ->
+                    snapshot.addRollup(month, cellType, categoryId, cell.sum, cell.count));
+            }
+        });
+    }
+    
+    private void apply(int type, YearMonth month, int categoryId, long amount, int sign) {
+        MonthRollup rollup = months.computeIfAbsent(month, m -> new MonthRollup());
+        lifetime[type].update(amount, sign);
+        rollup.totals[type].update(amount, sign);
+        Map<Integer, Cell> categories = rollup.categories.get(type);
+        Cell cell = categories.computeIfAbsent(categoryId, c -> new Cell());
+        cell.update(amount, sign);
+        
+        if (cell.count == 0) {
+            categories.remove(categoryId);
+        }
+        if (rollup.totals[INCOME].count == 0 && rollup.totals[EXPENSE].count == 0) {
+            months.remove(month);
+        }
+    }
+    
+    private static class Cell {
+        long sum;
+        long count;
+        
+        void update(long amount, int sign) {
+            count += sign;
+            sum += sign * amount;
+        }
+    }
+    
+    private static class MonthRollup {
+        final Cell[] totals = { new Cell(), new Cell() };
+        final List<Map<Integer, Cell>> categories = List.of(new HashMap<>(), new HashMap<>()); // by type
+    }
+}
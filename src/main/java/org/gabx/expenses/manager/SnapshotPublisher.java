@@ -0,0 +1,77 @@
+package org.gabx.expenses.manager;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+// Writer side of TransactionSnapshot. Rows are grouped into fixed-size chunks holding a copy of
+// the column arrays for those rows; the manager only marks rows dirty as it changes them, and the
+// next snapshot request copies just those rows out of the column store. A chunk that an earlier
+// snapshot can still see is copied before its first change in a new version (copy-on-write per
+// epoch), so publishing costs the changed rows plus one reference per chunk rather than a copy of
+// everything, and no Transaction objects are kept at all.
+class SnapshotPublisher {
+    private static final int CHUNK_SHIFT = 9;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    
+    private TransactionSnapshot.Chunk[] chunks = new TransactionSnapshot.Chunk[0];
+    private int[] chunkEpochs = new int[0]; // epoch in which this publisher last copied the chunk
+    private int[] liveCounts = new int[0];
+    private int size;
+    private int epoch;
+    private final BitSet dirtyRows = new BitSet();
+    private TransactionSnapshot published;
+    
+    synchronized void markDirty(int row) {
+        dirtyRows.set(row);
+    }
+    
+    // The current version, reusing the last snapshot when nothing changed since it was taken.
+    // Synchronized because concurrent readers of the manager may all ask for it at once.
+    synchronized TransactionSnapshot snapshot(TransactionColumns columns) {
+        if (published != null && dirtyRows.isEmpty()) {
+            return published;
+        }
+        // Every chunk handed out so far now belongs to an older epoch and is copied on write
+        epoch++;
+        for (int row = dirtyRows.nextSetBit(0); row >= 0; row = dirtyRows.nextSetBit(row + 1)) {
+            TransactionSnapshot.Chunk chunk = writableChunk(row >>> CHUNK_SHIFT);
+            int slot = row & (CHUNK_SIZE - 1);
+            boolean live = columns.isLive(row);
+            int change = (live ? 1 : 0) - (chunk.isLive(slot) ? 1 : 0);
+            liveCounts[row >>> CHUNK_SHIFT] += change;
+            size += change;
+            if (live) {
+                chunk.set(slot, columns, row);
+            } else {
+                chunk.clear(slot);
+            }
+        }
+        dirtyRows.clear();
+        
+        int[] liveBefore = new int[chunks.length];
+        for (int i = 1; i < chunks.length; i++) {
+            liveBefore[i] = liveBefore[i - 1] + liveCounts[i - 1];
+        }
+        published = new TransactionSnapshot(chunks.clone(), columns.recurringIdValues(), liveBefore, size, epoch);
+        return published;
+    }
+    
+    private TransactionSnapshot.Chunk writableChunk(int index) {
+        if (index >= chunks.length) {
+            int capacity = Math.max(index + 1, chunks.length * 2);
+            int first = chunks.length;
+            chunks = Arrays.copyOf(chunks, capacity);
+            chunkEpochs = Arrays.copyOf(chunkEpochs, capacity);
+            liveCounts = Arrays.copyOf(liveCounts, capacity);
+            for (int i = first; i < capacity; i++) {
+                chunks[i] = new TransactionSnapshot.Chunk(CHUNK_SIZE);
+                chunkEpochs[i] = epoch;
+            }
+        }
+        if (chunkEpochs[index] != epoch) {
+            chunks[index] = chunks[index].copy();
+            chunkEpochs[index] = epoch;
+        }
+        return chunks[index];
+    }
+}
@@ -0,0 +1,50 @@
+package org.gabx.expenses.manager;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Assigns each distinct string a small integer code, so columns can hold codes instead of references.
+// Codes are never reused; null is always -1.
+class StringDictionary {
+    private final Map<String, Integer> codes = new HashMap<>();
+    private String[] values = new String[16];
+    private int size;
+    
+    int encode(String value) {
+        if (value == null) {
+            return -1;
+        }
+        Integer code = codes.get(value);
+        if (code == null) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            code = size++;
+            codes.put(value, code);
+            values[code] = value;
+        }
+        return code;
+    }
+    
+    // -1 when the string has never been encoded
+    int lookup(String value) {
+        Integer code = value == null ? null : codes.get(value);
+        return code == null ? -1 : code;
+    }
+    
+    String decode(int code) {
+        return code < 0 ? null : values[code];
+    }
+    
+    int size() {
+        return size;
+    }
+    
+    // The backing array, indexed by code. Slots below size() are never written again (growth copies
+    // into a new array), so a reader handed the array under a lock can keep decoding those codes
+    // from any thread while encoding carries on.
+    String[] values() {
+        return values;
+    }
+}
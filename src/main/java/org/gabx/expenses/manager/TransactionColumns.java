@@ -0,0 +1,239 @@
+package org.gabx.expenses.manager;
+
+import org.gabx.expenses.persistence.BinaryTransactionFile;
+import org.gabx.expenses.persistence.DataPersistenceService;
+import org.gabx.expenses.transactions.CategoryRegistry;
+import org.gabx.expenses.transactions.Transaction;
+import org.gabx.expenses.transactions.Income;
+import org.gabx.expenses.transactions.Expense;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Set;
+
+// Struct-of-arrays store for transactions: one primitive array per field (amounts in minor units, see Money), with categories held
+// as CategoryRegistry IDs and recurring IDs dictionary-encoded. Rows are addressed by index and stay put while they live;
+// removed rows go on a free list and are reused by later adds. Transaction objects are only
+// built when a caller asks for one.
+class TransactionColumns {
+    static final byte INCOME = 0;
+    static final byte EXPENSE = 1;
+    static final byte FREE = -1;
+    
+    private int[] epochDays;
+    private long[] amounts;
+    private byte[] types;
+    private int[] categories;
+    private int[] recurringIds;
+    private String[] ids;
+    private String[] descriptions;
+    
+    private final CategoryRegistry categoryRegistry = CategoryRegistry.getInstance();
+    private final StringDictionary recurringIdDictionary = new StringDictionary();
+    private int[] freeRows = new int[16];
+    private int freeCount;
+    private int rowLimit; // rows below this index have been used at least once
+    private int size;
+    
+    TransactionColumns() {
+        this(1024);
+    }
+    
+    TransactionColumns(int initialCapacity) {
+        int capacity = Math.max(16, initialCapacity);
+        epochDays = new int[capacity];
+        amounts = new long[capacity];
+        types = new byte[capacity];
+        categories = new int[capacity];
+        recurringIds = new int[capacity];
+        ids = new String[capacity];
+        descriptions = new String[capacity];
+    }
+    
+    static byte typeOf(Transaction transaction) {
+        return transaction instanceof Income ? INCOME : EXPENSE;
+    }
+    
+    // Stores the transaction and returns its row
+    int add(Transaction transaction) {
+        int row;
+        if (freeCount > 0) {
+            row = freeRows[--freeCount];
+        } else {
+            if (rowLimit == epochDays.length) {
+                grow();
+            }
+            row = rowLimit++;
+        }
+        
+        epochDays[row] = Math.toIntExact(transaction.getDate().toEpochDay());
+        amounts[row] = transaction.getAmountMinorUnits();
+        types[row] = typeOf(transaction);
+        categories[row] = categoryRegistry.idOf(transaction.getCategory());
+        recurringIds[row] = transaction instanceof Expense
+            ? recurringIdDictionary.encode(((Expense) transaction).getOriginalRecurringId())
+            : -1;
+        ids[row] = transaction.getId();
+        descriptions[row] = transaction.getDescription();
+        size++;
+        return row;
+    }
+    
+    // Appends every row of a mapped binary snapshot. The date, amount and type columns are copied
+    // in bulk; only the strings and the category and recurring ID codes go row by row. Rows whose
+    // ID is in skipIds are left free. Returns the first new row; the rest follow up to rowLimit.
+    int addAll(BinaryTransactionFile file, Set<String> skipIds) {
+        int first = rowLimit;
+        int count = file.size();
+        while (epochDays.length < first + count) {
+            grow();
+        }
+        file.copyEpochDays(epochDays, first);
+        file.copyAmounts(amounts, first);
+        file.copyTypes(types, first);
+        
+        String[] table = file.getCategoryTable();
+        int[] categoryIds = new int[table.length];
+        for (int ordinal = 0; ordinal < table.length; ordinal++) {
+            categoryIds[ordinal] = categoryRegistry.idOf(table[ordinal]);
+        }
+        rowLimit += count;
+        for (int i = 0; i < count; i++) {
+            int row = first + i;
+            if (types[row] != INCOME) {
+                types[row] = EXPENSE; // recurring templates count as expenses, as in typeOf
+            }
+            int ordinal = file.categoryOrdinal(i);
+            categories[row] = ordinal < 0 ? -1 : categoryIds[ordinal];
+            ids[row] = file.id(i);
+            descriptions[row] = file.description(i);
+            recurringIds[row] = types[row] == EXPENSE ? recurringIdDictionary.encode(file.originalRecurringId(i)) : -1;
+            size++;
+            if (skipIds.contains(ids[row])) {
+                remove(row);
+            }
+        }
+        return first;
+    }
+    
+    void remove(int row) {
+        types[row] = FREE;
+        ids[row] = null;
+        descriptions[row] = null;
+        if (freeCount == freeRows.length) {
+            freeRows = Arrays.copyOf(freeRows, freeCount * 2);
+        }
+        freeRows[freeCount++] = row;
+        size--;
+    }
+    
+    int size() {
+        return size;
+    }
+    
+    // Upper bound (exclusive) for row indexes; rows below it may be free, see isLive
+    int rowLimit() {
+        return rowLimit;
+    }
+    
+    boolean isLive(int row) {
+        return types[row] != FREE;
+    }
+    
+    int epochDay(int row) {
+        return epochDays[row];
+    }
+    
+    long amount(int row) {
+        return amounts[row];
+    }
+    
+    byte type(int row) {
+        return types[row];
+    }
+    
+    String id(int row) {
+        return ids[row];
+    }
+    
+    // Registry ID of the row's category, -1 when it has none
+    int categoryId(int row) {
+        return categories[row];
+    }
+    
+    String category(int row) {
+        return categoryRegistry.nameOf(categories[row]);
+    }
+    
+    // Dictionary code of the row's originalRecurringId, -1 when it has none
+    int recurringIdCode(int row) {
+        return recurringIds[row];
+    }
+    
+    // -1 when no row has ever referred to this recurring ID
+    int lookupRecurringId(String recurringId) {
+        return recurringIdDictionary.lookup(recurringId);
+    }
+    
+    String description(int row) {
+        return descriptions[row];
+    }
+    
+    // Shared decoding table for recurringIdCode; see StringDictionary.values
+    String[] recurringIdValues() {
+        return recurringIdDictionary.values();
+    }
+    
+    String originalRecurringId(int row) {
+        return recurringIdDictionary.decode(recurringIds[row]);
+    }
+    
+    LocalDate date(int row) {
+        return LocalDate.ofEpochDay(epochDays[row]);
+    }
+    
+    // Builds a fresh Transaction for the row; changes to it do not write back
+    Transaction get(int row) {
+        return Transaction.of(types[row] == INCOME ? "INCOME" : "EXPENSE", ids[row], amounts[row], date(row),
+            descriptions[row], category(row), originalRecurringId(row));
+    }
+    
+    DataPersistenceService.TransactionData toData(int row) {
+        DataPersistenceService.TransactionData data = new DataPersistenceService.TransactionData();
+        data.id = ids[row];
+        data.amountMinorUnits = amounts[row];
+        data.date = date(row);
+        data.description = descriptions[row];
+        data.category = category(row);
+        data.transactionType = types[row] == INCOME ? "INCOME" : "EXPENSE";
+        data.originalRecurringId = originalRecurringId(row);
+        return data;
+    }
+    
+    // Transaction counts indexed by category ID between two epoch days, for both types
+    int[] countByCategory(int fromEpochDay, int toEpochDay) {
+        int[] counts = new int[categoryRegistry.size()];
+        for (int row = 0; row < rowLimit; row++) {
+            int day = epochDays[row];
+            if (types[row] != FREE && categories[row] >= 0 && day >= fromEpochDay && day <= toEpochDay) {
+                counts[categories[row]]++;
+            }
+        }
+        return counts;
+    }
+    
+    String categoryName(int code) {
+        return categoryRegistry.nameOf(code);
+    }
+    
+    private void grow() {
+        int capacity = epochDays.length * 2;
+        epochDays = Arrays.copyOf(epochDays, capacity);
+        amounts = Arrays.copyOf(amounts, capacity);
+        types = Arrays.copyOf(types, capacity);
+        categories = Arrays.copyOf(categories, capacity);
+        recurringIds = Arrays.copyOf(recurringIds, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        descriptions = Arrays.copyOf(descriptions, capacity);
+    }
+}
@@ -2,145 +2,464 @@ package org.gabx.expenses.manager;
 
 import org.gabx.expenses.transactions.*;
 import org.gabx.expenses.persistence.DataPersistenceService;
-import java.util.stream.Collectors;
+import org.gabx.expenses.persistence.SegmentStore;
+import org.gabx.expenses.persistence.StorageEngine;
 import java.util.ArrayList; 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.EnumMap;
 import java.util.Map;
-import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
+// Safe to share between threads: reads run concurrently under the read half of a
+// ReentrantReadWriteLock, while adds, removals and lazy month loads take the write half. Results
+// handed out (lists, snapshots, maps) are copies or immutable, so they can be used without the lock.
 public class TransactionManager {
-    private List<Transaction> transactions;
-    private DataPersistenceService persistenceService;
+    // Key under which getExpensePercentiles reports every category together
+    public static final String ALL_CATEGORIES = "All categories";
+    private static final int REPORT_CACHE_SIZE = 256;
+    // Batches at least this large are saved as a snapshot rather than journaled item by item
+    private static final int BULK_SAVE_THRESHOLD = 500;
     
-    public TransactionManager() {
-        this.persistenceService = new DataPersistenceService();
-        this.transactions = persistenceService.loadTransactions();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Transactions live in columns; the map gives each ID's row
+    private final TransactionColumns columns = new TransactionColumns();
+    private final Map<String, Integer> rowsById = new HashMap<>();
+    private final StorageEngine persistenceService;
+    private final DateIndex dateIndex = new DateIndex();
+    private final RollupCube rollups = new RollupCube();
+    // Per-day amounts and counts by type (indexed by TransactionColumns.INCOME/EXPENSE), and amounts
+    // by category ID, as prefix sums so any day range is two O(log n) lookups
+    private final DayFenwickTree[] dailyAmounts = { new DayFenwickTree(), new DayFenwickTree() };
+    private final DayFenwickTree[] dailyCounts = { new DayFenwickTree(), new DayFenwickTree() };
+    private final Map<Integer, DayFenwickTree> dailyCategoryAmounts = new HashMap<>();
+    // Generated instances per (originalRecurringId code, epoch day), see occurrenceKey
+    private final Map<Long, Integer> recurringOccurrences = new HashMap<>();
+    // Expense amount sketches per month and category ID (-1 for none), for percentile reports
+    private final Map<YearMonth, Map<Integer, QuantileSketch>> expenseSketches = new HashMap<>();
+    private final QueryEngine queryEngine = new QueryEngine(columns, rowsById, dateIndex, dailyCounts);
+    private final SnapshotPublisher snapshots = new SnapshotPublisher();
+    // Recently opened reports; a change evicts only the entries covering its month
+    private final ReportCache reportCache = new ReportCache(REPORT_CACHE_SIZE);
+    // Last 7/30/90 days and year-to-date, kept current as rows change and days pass
+    private final RollingAggregates rollingWindows = new RollingAggregates(columns, dateIndex, LocalDate::now);
+    
+    // Segmented storage loads months lazily; these track what is in memory and what changed.
+    // loadedMonths and fullyLoaded are checked before taking the lock.
+    private final Set<YearMonth> loadedMonths = ConcurrentHashMap.newKeySet();
+    private final Set<YearMonth> dirtyMonths = new HashSet<>();
+    private final Map<YearMonth, Integer> monthCounts = new HashMap<>();
+    private volatile boolean fullyLoaded;
+    
+    private final CategoryRegistry categories = CategoryRegistry.getInstance();
+    private long savedCategoryVersion = -1; // registry version last handed to storage
+    
+    public TransactionManager(StorageEngine persistenceService) {
+        this.persistenceService = persistenceService;
+        // Categories first, so transactions loaded below get the category IDs saved last time
         loadCategories();
+        DataPersistenceService.MappedSnapshot mapped = persistenceService.mapSnapshot();
+        if (mapped != null) {
+            loadMapped(mapped);
+        } else {
+            for (Transaction transaction : persistenceService.loadTransactions()) {
+                putTransaction(transaction);
+            }
+        }
+        if (persistenceService.isSegmented()) {
+            loadedMonths.addAll(persistenceService.getStartupMonths());
+        } else {
+            fullyLoaded = true;
+        }
+        compactIfNeeded();
         
-        System.out.println("Loaded " + transactions.size() + " transactions from storage.");
+        System.out.println("Loaded " + columns.size() + " transactions from storage.");
+        if (!fullyLoaded) {
+            System.out.println("Older months (" + persistenceService.getStoredMonths().size()
+                + " stored in total) are loaded when first needed.");
+        }
         System.out.println("Data stored in: " + persistenceService.getDataLocation());
     }
     
     public void addTransaction(Transaction transaction) {
-        transactions.add(transaction);
-        saveData();
+        YearMonth month = YearMonth.from(transaction.getDate());
+        lock.writeLock().lock();
+        try {
+            ensureLoaded(month);
+            putTransaction(transaction);
+            dirtyMonths.add(month);
+            logFailure(persistenceService.appendTransaction(transaction), "transaction " + transaction.getId());
+            saveCategories();
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
     
     public void removeTransaction(String id) {
-        transactions.removeIf(t -> t.getId().equals(id));
-        saveData();
+        lock.writeLock().lock();
+        try {
+            ensureAllLoaded();
+            Integer row = rowsById.get(id);
+            if (row == null) {
+                return;
+            }
+            
+            Transaction removed = removeRow(row);
+            logFailure(persistenceService.appendRemoval(removed), "removal of " + id);
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    // Adds many transactions under one lock and saves them once. Items that cannot be stored are
+    // skipped; the result reports what happened to each, in the order given.
+    public BatchResult addAll(Collection<? extends Transaction> transactions) {
+        BatchResult result = new BatchResult();
+        List<Transaction> added = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            for (Transaction transaction : transactions) {
+                String problem = validate(transaction);
+                if (problem != null) {
+                    result.add(transaction == null ? null : transaction.getId(), BatchResult.Outcome.REJECTED, problem);
+                    continue;
+                }
+                YearMonth month = YearMonth.from(transaction.getDate());
+                ensureLoaded(month);
+                boolean replaced = rowsById.containsKey(transaction.getId());
+                putTransaction(transaction);
+                dirtyMonths.add(month);
+                added.add(transaction);
+                result.add(transaction.getId(), replaced ? BatchResult.Outcome.REPLACED : BatchResult.Outcome.ADDED, null);
+            }
+            persistBatch(added, Collections.emptyList());
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return result;
     }
     
+    public BatchResult removeAll(Collection<String> ids) {
+        BatchResult result = new BatchResult();
+        List<Transaction> removed = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            ensureAllLoaded();
+            for (String id : ids) {
+                Integer row = rowsById.get(id);
+                if (row == null) {
+                    result.add(id, BatchResult.Outcome.NOT_FOUND, null);
+                    continue;
+                }
+                removed.add(removeRow(row));
+                result.add(id, BatchResult.Outcome.REMOVED, null);
+            }
+            persistBatch(Collections.emptyList(), removed);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return result;
+    }
+    
+    // Removes every transaction the filter accepts; the result lists them oldest row first
+    public BatchResult removeAll(Predicate<? super Transaction> filter) {
+        BatchResult result = new BatchResult();
+        List<Transaction> removed = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            ensureAllLoaded();
+            for (int row = 0; row < columns.rowLimit(); row++) {
+                if (columns.isLive(row) && filter.test(columns.get(row))) {
+                    Transaction transaction = removeRow(row);
+                    removed.add(transaction);
+                    result.add(transaction.getId(), BatchResult.Outcome.REMOVED, null);
+                }
+            }
+            persistBatch(Collections.emptyList(), removed);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return result;
+    }
+    
+    // Every transaction, as an immutable snapshot; see getSnapshot
     public List<Transaction> getAllTransactions() {
-        return new ArrayList<>(transactions);
+        return getSnapshot();
+    }
+    
+    // Consistent view of the current version. Repeated calls without changes in between return the
+    // same snapshot, and later changes never show up in one already taken.
+    public TransactionSnapshot getSnapshot() {
+        ensureAllLoaded();
+        return read(() -> snapshots.snapshot(columns));
     }
     
     public List<Transaction> getTransactionsByDateRange(LocalDate startDate, LocalDate endDate) {
-        return transactions.stream()
-            .filter(t -> !t.getDate().isBefore(startDate) && !t.getDate().isAfter(endDate))
-            .sorted(Comparator.comparing(Transaction::getDate).reversed())
-            .collect(Collectors.toList());
+        ensureLoaded(startDate, endDate);
+        return read(() -> materialize(dateIndex.between(startDate, endDate)));
     }
     
     public List<Transaction> getRecentTransactions(int count) {
-        return transactions.stream()
-            .sorted(Comparator.comparing(Transaction::getDate).reversed())
-            .limit(count)
-            .collect(Collectors.toList());
+        ensureRecentLoaded(count);
+        return read(() -> materialize(dateIndex.newest(count)));
     }
     
     public Transaction findTransactionById(String id) {
-        return transactions.stream()
-            .filter(t -> t.getId().equals(id))
-            .findFirst()
-            .orElse(null);
+        ensureAllLoaded();
+        return read(() -> {
+            Integer row = rowsById.get(id);
+            return row == null ? null : columns.get(row);
+        });
     }
 
     public double getTotalIncome(int month, int year) {
-        return transactions.stream()
-            .filter(t -> t instanceof Income)
-            .filter(t -> isInMonth(t.getDate(), month, year))
-            .mapToDouble(Transaction::getAmount)
-            .sum();
+        ensureLoaded(year, month);
+        return read(() -> month < 1 || month > 12 ? 0 : Money.toMajor(rollups.total(YearMonth.of(year, month), RollupCube.INCOME)));
     }
 
     public double getTotalExpenses(int month, int year) {
-        return transactions.stream()
-            .filter(t -> t instanceof Expense)
-            .filter(t -> isInMonth(t.getDate(), month, year))
-            .mapToDouble(Transaction::getAmount)
-            .sum();
+        ensureLoaded(year, month);
+        return read(() -> month < 1 || month > 12 ? 0 : Money.toMajor(rollups.total(YearMonth.of(year, month), RollupCube.EXPENSE)));
     }
     
     public double getTotalIncomeForYear(int year) {
-        return transactions.stream()
-            .filter(t -> t instanceof Income)
-            .filter(t -> t.getDate().getYear() == year)
-            .mapToDouble(Transaction::getAmount)
-            .sum();
+        ensureLoaded(YearMonth.of(year, 1), YearMonth.of(year, 12));
+        return read(() -> Money.toMajor(rollups.yearTotal(year, RollupCube.INCOME)));
     }
     
     public double getTotalExpensesForYear(int year) {
-        return transactions.stream()
-            .filter(t -> t instanceof Expense)
-            .filter(t -> t.getDate().getYear() == year)
-            .mapToDouble(Transaction::getAmount)
-            .sum();
+        ensureLoaded(YearMonth.of(year, 1), YearMonth.of(year, 12));
+        return read(() -> Money.toMajor(rollups.yearTotal(year, RollupCube.EXPENSE)));
     }
     
     public double getTotalIncome() {
-        return transactions.stream()
-            .filter(t -> t instanceof Income)
-            .mapToDouble(Transaction::getAmount)
-            .sum();
+        ensureAllLoaded();
+        return read(() -> Money.toMajor(rollups.total(RollupCube.INCOME)));
     }
     
     public double getTotalExpenses() {
-        return transactions.stream()
-            .filter(t -> t instanceof Expense)
-            .mapToDouble(Transaction::getAmount)
-            .sum();
+        ensureAllLoaded();
+        return read(() -> Money.toMajor(rollups.total(RollupCube.EXPENSE)));
+    }
+    
+    public long getIncomeCount() {
+        ensureAllLoaded();
+        return read(() -> rollups.count(RollupCube.INCOME));
+    }
+    
+    public long getExpenseCount() {
+        ensureAllLoaded();
+        return read(() -> rollups.count(RollupCube.EXPENSE));
+    }
+    
+    // Dates of the oldest and newest transaction, or null when there are none
+    public LocalDate getEarliestDate() {
+        ensureAllLoaded();
+        return read(dateIndex::firstDate);
+    }
+    
+    public LocalDate getLatestDate() {
+        ensureAllLoaded();
+        return read(dateIndex::lastDate);
+    }
+    
+    // Totals, counts, dates and breakdowns for a period; null ends leave it open
+    public ReportSnapshot getReportSnapshot(LocalDate startDate, LocalDate endDate) {
+        if (startDate != null && endDate != null) {
+            ensureLoaded(startDate, endDate);
+        } else {
+            ensureAllLoaded();
+        }
+        YearMonth first = startDate == null ? null : YearMonth.from(startDate);
+        YearMonth last = endDate == null ? null : YearMonth.from(endDate);
+        return read(() -> reportCache.get("snapshot " + startDate + ".." + endDate, first, last,
+            () -> ReportSnapshot.of(columns, dateIndex, rollups, startDate, endDate)));
+    }
+    
+    // Running figures for a window ending today; reading one costs nothing beyond the days that
+    // entered or left it since the last read
+    public RollingSummary getRollingSummary(RollingWindow window) {
+        LocalDate today = LocalDate.now();
+        LocalDate earliest = RollingWindow.LAST_90_DAYS.startFor(today);
+        LocalDate startOfYear = RollingWindow.YEAR_TO_DATE.startFor(today);
+        ensureLoaded(earliest.isBefore(startOfYear) ? earliest : startOfYear, today);
+        return read(() -> rollingWindows.summary(window));
+    }
+    
+    public ReportSnapshot getReportSnapshot(int year) {
+        return getReportSnapshot(LocalDate.of(year, 1, 1), LocalDate.of(year, 12, 31));
+    }
+    
+    public ReportSnapshot getLifetimeSnapshot() {
+        return getReportSnapshot(null, null);
     }
     
     public Map<String, Double> getIncomeByCategory(int month, int year) {
-        return transactions.stream()
-            .filter(t -> t instanceof Income)
-            .filter(t -> isInMonth(t.getDate(), month, year))
-            .collect(Collectors.groupingBy(
-                Transaction::getCategory,
-                Collectors.summingDouble(Transaction::getAmount)
-            ));
+        return byCategory(month, year, RollupCube.INCOME);
     }
     
     public Map<String, Double> getExpensesByCategory(int month, int year) {
-        return transactions.stream()
-            .filter(t -> t instanceof Expense)
-            .filter(t -> isInMonth(t.getDate(), month, year))
-            .collect(Collectors.groupingBy(
-                Transaction::getCategory,
-                Collectors.summingDouble(Transaction::getAmount)
-            ));
+        return byCategory(month, year, RollupCube.EXPENSE);
     }
     
     public Map<Integer, Double> getMonthlyIncome(int year) {
-        return transactions.stream()
-            .filter(t -> t instanceof Income)
-            .filter(t -> t.getDate().getYear() == year)
-            .collect(Collectors.groupingBy(
-                t -> t.getDate().getMonthValue(),
-                Collectors.summingDouble(Transaction::getAmount)
-            ));
+        return monthlyTotals(year, RollupCube.INCOME);
     }
     
     public Map<Integer, Double> getMonthlyExpenses(int year) {
-        return transactions.stream()
-            .filter(t -> t instanceof Expense)
-            .filter(t -> t.getDate().getYear() == year)
-            .collect(Collectors.groupingBy(
-                t -> t.getDate().getMonthValue(),
-                Collectors.summingDouble(Transaction::getAmount)
-            ));
+        return monthlyTotals(year, RollupCube.EXPENSE);
+    }
+    
+    // Totals over arbitrary day ranges (both ends inclusive), answered from the prefix-sum trees
+    public double getTotalIncome(LocalDate startDate, LocalDate endDate) {
+        return Money.toMajor(rangeSum(dailyAmounts[TransactionColumns.INCOME], startDate, endDate));
+    }
+    
+    public double getTotalExpenses(LocalDate startDate, LocalDate endDate) {
+        return Money.toMajor(rangeSum(dailyAmounts[TransactionColumns.EXPENSE], startDate, endDate));
+    }
+    
+    public int getIncomeCount(LocalDate startDate, LocalDate endDate) {
+        return (int) rangeSum(dailyCounts[TransactionColumns.INCOME], startDate, endDate);
+    }
+    
+    public int getExpenseCount(LocalDate startDate, LocalDate endDate) {
+        return (int) rangeSum(dailyCounts[TransactionColumns.EXPENSE], startDate, endDate);
+    }
+    
+    // Income minus expenses between the two dates
+    public double sumBetween(LocalDate startDate, LocalDate endDate) {
+        ensureLoaded(startDate, endDate);
+        int from = epochDay(startDate);
+        int to = epochDay(endDate);
+        return read(() -> Money.toMajor(dailyAmounts[TransactionColumns.INCOME].sumBetween(from, to)
+            - dailyAmounts[TransactionColumns.EXPENSE].sumBetween(from, to)));
+    }
+    
+    // Running balance: income minus expenses over every transaction up to and including the date
+    public double balanceAsOf(LocalDate date) {
+        NavigableSet<YearMonth> stored = persistenceService.getStoredMonths();
+        if (!stored.isEmpty()) {
+            ensureLoaded(stored.first(), YearMonth.from(date));
+        }
+        int day = epochDay(date);
+        return read(() -> Money.toMajor(dailyAmounts[TransactionColumns.INCOME].sumThrough(day)
+            - dailyAmounts[TransactionColumns.EXPENSE].sumThrough(day)));
+    }
+    
+    // Amount recorded under one category between the two dates
+    public double getCategoryTotal(String category, LocalDate startDate, LocalDate endDate) {
+        ensureLoaded(startDate, endDate);
+        return read(() -> {
+            DayFenwickTree tree = dailyCategoryAmounts.get(CategoryRegistry.getInstance().lookup(category));
+            return tree == null ? 0 : Money.toMajor(tree.sumBetween(epochDay(startDate), epochDay(endDate)));
+        });
+    }
+    
+    // Number of transactions per category (income and expense together) between the two dates
+    public Map<String, Integer> getCategoryCounts(LocalDate startDate, LocalDate endDate) {
+        ensureLoaded(startDate, endDate);
+        int[] counts = read(() -> columns.countByCategory(epochDay(startDate), epochDay(endDate)));
+        Map<String, Integer> result = new HashMap<>();
+        for (int code = 0; code < counts.length; code++) {
+            if (counts[code] > 0) {
+                result.put(columns.categoryName(code), counts[code]);
+            }
+        }
+        return result;
+    }
+    
+    // Median, 90th and 99th percentile expense amount per category for one month, most frequent
+    // category first, followed by every category together under ALL_CATEGORIES. Exact while a
+    // category has fewer than QuantileSketch.K amounts, approximate from K on.
+    public Map<String, Percentiles> getExpensePercentiles(int month, int year) {
+        if (month < 1 || month > 12) {
+            return new LinkedHashMap<>();
+        }
+        YearMonth period = YearMonth.of(year, month);
+        ensureLoaded(period);
+        return read(() -> reportCache.get("percentiles", period, period, () -> percentiles(period, period)));
+    }
+    
+    // The same for a whole year, merging the month sketches
+    public Map<String, Percentiles> getExpensePercentiles(int year) {
+        YearMonth first = YearMonth.of(year, 1);
+        YearMonth last = YearMonth.of(year, 12);
+        ensureLoaded(first, last);
+        return read(() -> reportCache.get("percentiles", first, last, () -> percentiles(first, last)));
+    }
+    
+    // Ad hoc queries: the planner picks an index to start from, see explain()
+    public List<Transaction> query(TransactionQuery query) {
+        ensureLoaded(query);
+        return read(() -> materialize(queryEngine.execute(query)));
+    }
+    
+    public int count(TransactionQuery query) {
+        ensureLoaded(query);
+        return read(() -> queryEngine.execute(query).length);
+    }
+    
+    // Sum of the matching amounts, income and expenses alike
+    public double sum(TransactionQuery query) {
+        ensureLoaded(query);
+        return read(() -> {
+            long total = 0;
+            for (int row : queryEngine.execute(query)) {
+                total += columns.amount(row);
+            }
+            return Money.toMajor(total);
+        });
+    }
+    
+    public Map<String, Double> sumBy(TransactionQuery query, TransactionQuery.GroupBy groupBy) {
+        ensureLoaded(query);
+        return read(() -> toAmounts(queryEngine.sumBy(query, groupBy)));
+    }
+    
+    public Map<String, Long> countBy(TransactionQuery query, TransactionQuery.GroupBy groupBy) {
+        ensureLoaded(query);
+        return read(() -> queryEngine.countBy(query, groupBy));
+    }
+    
+    // Transactions whose description contains the text (ignoring case), best matches first
+    public List<Transaction> searchDescriptions(String text, int limit) {
+        ensureAllLoaded();
+        if (text == null || text.isBlank()) {
+            return new ArrayList<>();
+        }
+        return read(() -> materialize(queryEngine.search(text.trim(), limit)));
+    }
+    
+    // Which access path the planner would take for the query, with its row estimates
+    public String explain(TransactionQuery query) {
+        ensureLoaded(query);
+        return read(() -> queryEngine.plan(query).explain());
+    }
+    
+    // True if an expense generated from the recurring template already exists on the date; O(1)
+    public boolean hasRecurringOccurrence(String recurringId, LocalDate date) {
+        ensureLoaded(YearMonth.from(date));
+        return read(() -> {
+            int code = columns.lookupRecurringId(recurringId);
+            return code >= 0 && recurringOccurrences.containsKey(occurrenceKey(code, epochDay(date)));
+        });
     }
     
     public void createBackup() {
@@ -151,49 +470,494 @@ public class TransactionManager {
         return persistenceService.getDataLocation();
     }
     
+    // Writes are persisted in the background; this blocks until everything queued so far is on disk
+    public void flush() {
+        persistenceService.flush().join();
+    }
+    
+    private long rangeSum(DayFenwickTree tree, LocalDate startDate, LocalDate endDate) {
+        ensureLoaded(startDate, endDate);
+        return read(() -> tree.sumBetween(epochDay(startDate), epochDay(endDate)));
+    }
+    
+    // A query bounded on both ends only needs its months; anything else may touch every month
+    private void ensureLoaded(TransactionQuery query) {
+        if (query.startDate != null && query.endDate != null) {
+            ensureLoaded(query.startDate, query.endDate);
+        } else {
+            ensureAllLoaded();
+        }
+    }
+    
+    private void ensureLoaded(int year, int month) {
+        if (month >= 1 && month <= 12) {
+            ensureLoaded(YearMonth.of(year, month));
+        }
+    }
+    
+    private void ensureLoaded(LocalDate startDate, LocalDate endDate) {
+        ensureLoaded(YearMonth.from(startDate), YearMonth.from(endDate));
+    }
+    
+    // Loading changes the indexes, so it takes the write lock; callers must not hold the read lock.
+    // Once everything is in memory these return without locking.
+    
+    // Loads every stored month between the two (inclusive) that isn't in memory yet
+    private void ensureLoaded(YearMonth from, YearMonth to) {
+        if (fullyLoaded || from.isAfter(to)) {
+            return;
+        }
+        write(() -> {
+            for (YearMonth month : persistenceService.getStoredMonths().subSet(from, true, to, true)) {
+                ensureLoaded(month);
+            }
+        });
+    }
+    
+    private void ensureLoaded(YearMonth month) {
+        if (fullyLoaded || loadedMonths.contains(month)) {
+            return;
+        }
+        write(() -> {
+            if (fullyLoaded || loadedMonths.contains(month)) {
+                return;
+            }
+            for (Transaction transaction : persistenceService.loadMonth(month)) {
+                putTransaction(transaction);
+            }
+            loadedMonths.add(month);
+        });
+    }
+    
+    private void ensureAllLoaded() {
+        if (fullyLoaded) {
+            return;
+        }
+        write(() -> {
+            for (YearMonth month : persistenceService.getStoredMonths()) {
+                ensureLoaded(month);
+            }
+            fullyLoaded = true;
+        });
+    }
+    
+    // Loads months newest first until they hold at least count transactions
+    private void ensureRecentLoaded(int count) {
+        if (fullyLoaded) {
+            return;
+        }
+        write(() -> {
+            NavigableSet<YearMonth> months = new TreeSet<>(persistenceService.getStoredMonths());
+            months.addAll(monthCounts.keySet());
+            int available = 0;
+            for (YearMonth month : months.descendingSet()) {
+                ensureLoaded(month);
+                available += monthCounts.getOrDefault(month, 0);
+                if (available >= count) {
+                    return;
+                }
+            }
+        });
+    }
+    
+    private <T> T read(Supplier<T> body) {
+        lock.readLock().lock();
+        try {
+            return body.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    private void write(Runnable body) {
+        lock.writeLock().lock();
+        try {
+            body.run();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    // Why a transaction cannot be stored, or null if it can
+    private static String validate(Transaction transaction) {
+        if (transaction == null) {
+            return "Missing transaction";
+        }
+        if (transaction.getId() == null || transaction.getId().isBlank()) {
+            return "Missing ID";
+        }
+        if (transaction.getDate() == null) {
+            return "Missing date";
+        }
+        if (transaction.getAmountMinorUnits() < 0) {
+            return "Negative amount";
+        }
+        return null;
+    }
+    
+    // Drops a live row for a user removal and returns what it held
+    private Transaction removeRow(int row) {
+        Transaction removed = columns.get(row);
+        dropRow(row);
+        dirtyMonths.add(YearMonth.from(removed.getDate()));
+        return removed;
+    }
+    
+    // A small batch goes to the journal like single changes, where the writer thread appends it in
+    // one go. A large one is saved as one snapshot of the changed data instead, which replaces the
+    // journal rather than adding a record per item to it.
+    private void persistBatch(List<Transaction> added, List<Transaction> removed) {
+        if (added.size() + removed.size() >= BULK_SAVE_THRESHOLD) {
+            saveData();
+            return;
+        }
+        for (Transaction transaction : added) {
+            logFailure(persistenceService.appendTransaction(transaction), "transaction " + transaction.getId());
+        }
+        for (Transaction transaction : removed) {
+            logFailure(persistenceService.appendRemoval(transaction), "removal of " + transaction.getId());
+        }
+        saveCategories();
+        compactIfNeeded();
+    }
+    
+    // Every transaction entering or leaving memory goes through these two so the indexes stay in step.
+    // IDs are unique, as in storage: adding an ID that is already present replaces that transaction.
+    // Binary layout: the snapshot's columns go straight into the column store, with no Transaction
+    // built per row, and only the journal records on top are added one by one
+    private void loadMapped(DataPersistenceService.MappedSnapshot mapped) {
+        if (mapped.file != null) {
+            int first = columns.addAll(mapped.file, mapped.journalIds);
+            for (int row = first; row < columns.rowLimit(); row++) {
+                if (!columns.isLive(row)) {
+                    continue;
+                }
+                Integer existing = rowsById.put(columns.id(row), row);
+                if (existing != null) {
+                    dropRow(existing);
+                    rowsById.put(columns.id(row), row);
+                }
+                indexRow(row, 1);
+            }
+        }
+        for (Transaction transaction : mapped.journalTransactions) {
+            putTransaction(transaction);
+        }
+    }
+    
+    private void putTransaction(Transaction transaction) {
+        Integer existing = rowsById.get(transaction.getId());
+        if (existing != null) {
+            dirtyMonths.add(YearMonth.from(columns.date(existing)));
+            dropRow(existing);
+        }
+        int row = columns.add(transaction);
+        rowsById.put(transaction.getId(), row);
+        indexRow(row, 1);
+    }
+    
+    private void dropRow(int row) {
+        boolean expense = columns.type(row) == TransactionColumns.EXPENSE;
+        YearMonth month = YearMonth.from(columns.date(row));
+        int categoryId = columns.categoryId(row);
+        indexRow(row, -1);
+        rowsById.remove(columns.id(row));
+        columns.remove(row);
+        queryEngine.refreshDescriptions();
+        if (expense) {
+            rebuildSketch(month, categoryId);
+        }
+    }
+    
+    // Sketches cannot forget a value, so a removal rebuilds its (month, category) sketch from the
+    // rows that are left
+    private void rebuildSketch(YearMonth month, int categoryId) {
+        QuantileSketch sketch = new QuantileSketch();
+        for (int row : dateIndex.between(month.atDay(1), month.atEndOfMonth())) {
+            if (columns.type(row) == TransactionColumns.EXPENSE && columns.categoryId(row) == categoryId) {
+                sketch.add(columns.amount(row));
+            }
+        }
+        Map<Integer, QuantileSketch> byCategory = expenseSketches.get(month);
+        if (sketch.count() > 0) {
+            byCategory.put(categoryId, sketch);
+        } else if (byCategory != null) {
+            byCategory.remove(categoryId);
+            if (byCategory.isEmpty()) {
+                expenseSketches.remove(month);
+            }
+        }
+    }
+    
+    private void indexRow(int row, int delta) {
+        int epochDay = columns.epochDay(row);
+        YearMonth month = YearMonth.from(columns.date(row));
+        monthCounts.merge(month, delta, Integer::sum);
+        snapshots.markDirty(row);
+        reportCache.invalidate(month);
+        rollingWindows.add(row, delta);
+        if (delta > 0) {
+            dateIndex.add(epochDay, row);
+            queryEngine.add(row);
+            rollups.add(columns.type(row), month, columns.categoryId(row), columns.amount(row));
+        } else {
+            dateIndex.remove(epochDay, row);
+            queryEngine.remove(row);
+            rollups.remove(columns.type(row), month, columns.categoryId(row), columns.amount(row));
+        }
+        byte type = columns.type(row);
+        long amount = delta * columns.amount(row);
+        dailyAmounts[type].add(epochDay, amount);
+        dailyCounts[type].add(epochDay, delta);
+        if (columns.categoryId(row) >= 0) {
+            dailyCategoryAmounts.computeIfAbsent(columns.categoryId(row), id -> new DayFenwickTree())
+                .add(epochDay, amount);
+        }
+        if (delta > 0 && type == TransactionColumns.EXPENSE) {
+            expenseSketches.computeIfAbsent(month, m -> new HashMap<>())
+                .computeIfAbsent(columns.categoryId(row), id -> new QuantileSketch())
+                .add(columns.amount(row));
+        }
+        if (columns.recurringIdCode(row) >= 0) {
+            // merge drops the entry once its count reaches zero
+            recurringOccurrences.merge(occurrenceKey(columns.recurringIdCode(row), epochDay), delta,
+                (count, change) -> count + change == 0 ? null : count + change);
+        }
+    }
+    
+    // Recurring ID code in the high half, epoch day in the low half
+    private static long occurrenceKey(int recurringIdCode, int epochDay) {
+        return ((long) recurringIdCode << 32) | (epochDay & 0xFFFFFFFFL);
+    }
+    
+    private List<Transaction> materialize(int[] rows) {
+        List<Transaction> result = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            result.add(columns.get(row));
+        }
+        return result;
+    }
+    
+    // Monthly and category views are reopened often, so they go through the report cache
+    private Map<String, Double> byCategory(int month, int year, int type) {
+        if (month < 1 || month > 12) {
+            return new HashMap<>();
+        }
+        YearMonth period = YearMonth.of(year, month);
+        ensureLoaded(period);
+        return read(() -> reportCache.get("byCategory " + type, period, period,
+            () -> Collections.unmodifiableMap(toAmounts(byName(rollups.byCategory(period, type))))));
+    }
+    
+    private Map<Integer, Double> monthlyTotals(int year, int type) {
+        YearMonth first = YearMonth.of(year, 1);
+        YearMonth last = YearMonth.of(year, 12);
+        ensureLoaded(first, last);
+        return read(() -> reportCache.get("monthly " + type, first, last,
+            () -> Collections.unmodifiableMap(toAmounts(rollups.monthlyTotals(year, type)))));
+    }
+    
+    private Map<String, Percentiles> percentiles(YearMonth first, YearMonth last) {
+        Map<Integer, QuantileSketch> merged = new HashMap<>();
+        QuantileSketch all = new QuantileSketch();
+        for (YearMonth month = first; !month.isAfter(last); month = month.plusMonths(1)) {
+            Map<Integer, QuantileSketch> byCategory = expenseSketches.getOrDefault(month, Map.of());
+            byCategory.forEach((id, sketch) -> {
+                merged.computeIfAbsent(id, i -> new QuantileSketch()).merge(sketch);
+                all.merge(sketch);
+            });
+        }
+        
+        Map<String, Percentiles> result = new LinkedHashMap<>();
+        merged.entrySet().stream()
+            .sorted((a, b) -> Long.compare(b.getValue().count(), a.getValue().count()))
+            .forEach(entry -> {
+                String name = categories.nameOf(entry.getKey());
+                result.put(name == null ? "Uncategorized" : name, new Percentiles(entry.getValue()));
+            });
+        if (all.count() > 0) {
+            result.put(ALL_CATEGORIES, new Percentiles(all));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+    
+    private static <V> Map<String, V> byName(Map<Integer, V> byCategoryId) {
+        CategoryRegistry registry = CategoryRegistry.getInstance();
+        Map<String, V> result = new HashMap<>();
+        byCategoryId.forEach((id, value) -> result.put(registry.nameOf(id), value));
+        return result;
+    }
+    
+    private static <K> Map<K, Double> toAmounts(Map<K, Long> minorUnits) {
+        Map<K, Double> result = new HashMap<>();
+        minorUnits.forEach((key, amount) -> result.put(key, Money.toMajor(amount)));
+        return result;
+    }
+    
+    private static int epochDay(LocalDate date) {
+        return Math.toIntExact(date.toEpochDay());
+    }
+    
+    // Writes complete on the storage thread; a failure there is reported rather than dropped
+    private static void logFailure(CompletableFuture<Void> write, String what) {
+        write.whenComplete((ignored, error) -> {
+            if (error != null) {
+                System.err.println("Error saving " + what + ": " + error.getMessage());
+            }
+        });
+    }
+    
+    // Fold the journal into a fresh snapshot once it has grown past the threshold
+    private void compactIfNeeded() {
+        if (persistenceService.needsCompaction()) {
+            saveData();
+        }
+    }
+    
     private void saveData() {
+        if (persistenceService.isSegmented()) {
+            saveDirtyMonths();
+            return;
+        }
+        
         // Convert transactions to data format for JSON
-        List<DataPersistenceService.TransactionData> dataList = transactions.stream()
-            .map(DataPersistenceService.TransactionData::new)
-            .collect(Collectors.toList());
+        List<DataPersistenceService.TransactionData> dataList = new ArrayList<>(columns.size());
+        for (int row = 0; row < columns.rowLimit(); row++) {
+            if (columns.isLive(row)) {
+                dataList.add(columns.toData(row));
+            }
+        }
         
-        persistenceService.saveTransactions(dataList);
+        logFailure(persistenceService.saveTransactions(dataList), "transactions");
         saveCategories();
     }
     
-    private void loadCategories() {
-        Map<String, List<String>> categories = persistenceService.loadCategories();
-        if (categories.containsKey("income")) {
-            Income.setCategories(categories.get("income"));
+    // Segmented layout: only the months changed since the last compaction are rewritten
+    private void saveDirtyMonths() {
+        Map<YearMonth, List<DataPersistenceService.TransactionData>> months = new TreeMap<>();
+        for (YearMonth month : dirtyMonths) {
+            months.put(month, new ArrayList<>());
         }
-        if (categories.containsKey("expense")) {
-            Expense.setCategories(categories.get("expense"));
+        for (int row = 0; row < columns.rowLimit(); row++) {
+            if (!columns.isLive(row)) {
+                continue;
+            }
+            List<DataPersistenceService.TransactionData> month = months.get(YearMonth.from(columns.date(row)));
+            if (month != null) {
+                month.add(columns.toData(row));
+            }
         }
+        
+        logFailure(persistenceService.saveMonths(months), "month segments");
+        dirtyMonths.clear();
+        saveCategories();
     }
     
-    private void saveCategories() {
-        persistenceService.saveCategories(
-            Income.getCategories(),
-            Expense.getCategories()
-        );
+    // Hit and miss counts of the report cache, for the summary screen
+    public String getReportCacheStats() {
+        return reportCache.describe();
     }
-
-    private boolean isInMonth(LocalDate date, int month, int year) {
-        return date.getMonthValue() == month && date.getYear() == year;
+    
+    // Adds a category to the income or expense menu and saves it; false if it was already there
+    public boolean addCategory(CategoryRegistry.Kind kind, String name) {
+        lock.writeLock().lock();
+        try {
+            boolean added = categories.add(kind, name);
+            saveCategories();
+            return added;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    private void loadCategories() {
+        categories.load(persistenceService.loadCategories());
+        savedCategoryVersion = categories.getVersion();
+    }
+    
+    // Only writes when a category was added since the last save
+    private void saveCategories() {
+        long version = categories.getVersion();
+        if (version != savedCategoryVersion) {
+            logFailure(persistenceService.saveCategories(categories.toMap()), "categories");
+            savedCategoryVersion = version;
+        }
     }
     
     // Statistics methods
     public void printTransactionSummary() {
+        // Only what is in memory is scanned; months still on disk are summarized from the segment
+        // manifest rather than loaded
+        ReportSnapshot snapshot = read(() -> {
+            ReportSnapshot inMemory = ReportSnapshot.of(columns, dateIndex, rollups, null, null);
+            if (!fullyLoaded) {
+                for (Map.Entry<YearMonth, SegmentStore.SegmentInfo> entry : persistenceService.getSegmentInfo().entrySet()) {
+                    if (!loadedMonths.contains(entry.getKey())) {
+                        SegmentStore.SegmentInfo info = entry.getValue();
+                        inMemory.addSummary(info.incomeCount, info.expenseCount, info.firstDate, info.lastDate);
+                    }
+                }
+            }
+            return inMemory;
+        });
+        
         System.out.println("\n=== TRANSACTION SUMMARY ===");
-        System.out.println("Total Transactions: " + transactions.size());
-        System.out.println("Income Transactions: " + transactions.stream().filter(t -> t instanceof Income).count());
-        System.out.println("Expense Transactions: " + transactions.stream().filter(t -> t instanceof Expense).count());
+        System.out.println("Total Transactions: " + snapshot.getTransactionCount());
+        System.out.println("Income Transactions: " + snapshot.getIncomeCount());
+        System.out.println("Expense Transactions: " + snapshot.getExpenseCount());
         
-        if (!transactions.isEmpty()) {
-            LocalDate earliest = transactions.stream().map(Transaction::getDate).min(LocalDate::compareTo).orElse(LocalDate.now());
-            LocalDate latest = transactions.stream().map(Transaction::getDate).max(LocalDate::compareTo).orElse(LocalDate.now());
-            System.out.println("Date Range: " + earliest + " to " + latest);
+        if (snapshot.getFirstDate() != null) {
+            System.out.println("Date Range: " + snapshot.getFirstDate() + " to " + snapshot.getLastDate());
         }
+        System.out.println("Report Cache: " + reportCache.describe());
         System.out.println();
     }
+    
+    // Per-item outcome of addAll or removeAll, in the order the items were handled
+    public static class BatchResult {
+        public enum Outcome { ADDED, REPLACED, REJECTED, REMOVED, NOT_FOUND }
+        
+        private final List<Item> items = new ArrayList<>();
+        private final Map<Outcome, Integer> counts = new EnumMap<>(Outcome.class);
+        
+        void add(String id, Outcome outcome, String reason) {
+            items.add(new Item(id, outcome, reason));
+            counts.merge(outcome, 1, Integer::sum);
+        }
+        
+        public List<Item> getItems() {
+            return Collections.unmodifiableList(items);
+        }
+        
+        public int count(Outcome outcome) {
+            return counts.getOrDefault(outcome, 0);
+        }
+        
+        public static class Item {
+            public final String id;
+            public final Outcome outcome;
+            public final String reason; // why a rejected item was refused, otherwise null
+            
+            Item(String id, Outcome outcome, String reason) {
+                this.id = id;
+                this.outcome = outcome;
+                this.reason = reason;
+            }
+        }
+    }
+    
+    // Expense amount distribution for one category and period, in major units
+    public static class Percentiles {
+        public final long count;
+        public final double median;
+        public final double p90;
+        public final double p99;
+        
+        Percentiles(QuantileSketch sketch) {
+            this.count = sketch.count();
+            this.median = Money.toMajor(sketch.quantile(0.5));
+            this.p90 = Money.toMajor(sketch.quantile(0.9));
+            this.p99 = Money.toMajor(sketch.quantile(0.99));
+        }
+    }
 }
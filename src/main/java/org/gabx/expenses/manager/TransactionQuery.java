@@ -0,0 +1,135 @@
+package org.gabx.expenses.manager;
+
+import org.gabx.expenses.transactions.Money;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+// Describes which transactions a TransactionManager query should return. Every condition is
+// optional and they are combined with AND, e.g.
+//
+//   TransactionQuery.all().between(from, to).type(Type.EXPENSE).categories("Groceries").limit(10)
+//
+// The manager's planner decides which index to start from; see TransactionManager.explain.
+public class TransactionQuery {
+    public enum Type { INCOME, EXPENSE }
+    
+    public enum Order { DATE_DESC, DATE_ASC, AMOUNT_DESC, AMOUNT_ASC }
+    
+    public enum GroupBy { CATEGORY, MONTH, TYPE }
+    
+    LocalDate startDate;
+    LocalDate endDate;
+    Type type;
+    Set<String> categories;
+    Long minAmount; // minor units, inclusive
+    Long maxAmount;
+    String descriptionContains; // case-insensitive
+    String id;
+    String recurringId;
+    boolean onlyRecurring;
+    Order order = Order.DATE_DESC;
+    int limit = Integer.MAX_VALUE;
+    
+    private TransactionQuery() {}
+    
+    public static TransactionQuery all() {
+        return new TransactionQuery();
+    }
+    
+    // Both ends inclusive; either may be null for an open end
+    public TransactionQuery between(LocalDate startDate, LocalDate endDate) {
+        this.startDate = startDate;
+        this.endDate = endDate;
+        return this;
+    }
+    
+    public TransactionQuery type(Type type) {
+        this.type = type;
+        return this;
+    }
+    
+    public TransactionQuery categories(String... categories) {
+        return categories(List.of(categories));
+    }
+    
+    public TransactionQuery categories(Iterable<String> categories) {
+        this.categories = new LinkedHashSet<>();
+        categories.forEach(this.categories::add);
+        return this;
+    }
+    
+    // Amounts in major units (e.g. 12.50), both ends inclusive; either may be null
+    public TransactionQuery amountBetween(Double min, Double max) {
+        this.minAmount = min == null ? null : Money.toMinorUnits(min);
+        this.maxAmount = max == null ? null : Money.toMinorUnits(max);
+        return this;
+    }
+    
+    public TransactionQuery descriptionContains(String text) {
+        this.descriptionContains = text == null || text.isEmpty() ? null : text;
+        return this;
+    }
+    
+    public TransactionQuery id(String id) {
+        this.id = id;
+        return this;
+    }
+    
+    // Expenses generated from one recurring template
+    public TransactionQuery fromRecurring(String recurringId) {
+        this.recurringId = recurringId;
+        this.onlyRecurring = true;
+        return this;
+    }
+    
+    // Expenses generated from any recurring template
+    public TransactionQuery onlyRecurring() {
+        this.onlyRecurring = true;
+        return this;
+    }
+    
+    public TransactionQuery orderBy(Order order) {
+        this.order = order;
+        return this;
+    }
+    
+    public TransactionQuery limit(int limit) {
+        this.limit = Math.max(0, limit);
+        return this;
+    }
+    
+    // Human-readable conditions, used by explain()
+    List<String> describeConditions() {
+        List<String> conditions = new ArrayList<>();
+        if (id != null) {
+            conditions.add("id = " + id);
+        }
+        if (startDate != null || endDate != null) {
+            conditions.add("date " + (startDate == null ? "*" : startDate) + ".." + (endDate == null ? "*" : endDate));
+        }
+        if (type != null) {
+            conditions.add("type = " + type);
+        }
+        if (categories != null) {
+            conditions.add("category in " + categories);
+        }
+        if (minAmount != null || maxAmount != null) {
+            conditions.add("amount " + (minAmount == null ? "*" : Money.toDecimal(minAmount))
+                + ".." + (maxAmount == null ? "*" : Money.toDecimal(maxAmount)));
+        }
+        if (descriptionContains != null) {
+            conditions.add("description contains '" + descriptionContains + "'");
+        }
+        if (recurringId != null) {
+            conditions.add("recurring = " + recurringId);
+        } else if (onlyRecurring) {
+            conditions.add("recurring = any");
+        }
+        return conditions.isEmpty() ? Collections.singletonList("(none)") : conditions;
+    }
+}
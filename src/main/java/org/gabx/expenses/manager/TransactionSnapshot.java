@@ -0,0 +1,181 @@
+package org.gabx.expenses.manager;
+
+import org.gabx.expenses.transactions.CategoryRegistry;
+import org.gabx.expenses.transactions.Transaction;
+
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.function.Consumer;
+
+// Immutable view of every transaction as of one version of the manager. It shares its chunks of
+// column data with the publisher (see SnapshotPublisher), so taking one costs nothing when nothing
+// changed and never copies the whole data set; later writes copy the chunks they touch instead of
+// changing this view. Safe to read from any thread once obtained.
+//
+// Transactions are built from the columns on access, so every get or iteration hands out fresh
+// objects; changing one does not write back.
+public final class TransactionSnapshot extends AbstractList<Transaction> implements RandomAccess {
+    private static final CategoryRegistry categoryRegistry = CategoryRegistry.getInstance();
+    
+    private final Chunk[] chunks;
+    private final String[] recurringIds; // decoding table for Chunk.recurringIds
+    private final int[] liveBefore; // live transactions in the chunks before each one
+    private final int size;
+    private final long version;
+    
+    TransactionSnapshot(Chunk[] chunks, String[] recurringIds, int[] liveBefore, int size, long version) {
+        this.chunks = chunks;
+        this.recurringIds = recurringIds;
+        this.liveBefore = liveBefore;
+        this.size = size;
+        this.version = version;
+    }
+    
+    // Increases with every published change, so equal versions mean equal contents
+    public long getVersion() {
+        return version;
+    }
+    
+    @Override
+    public int size() {
+        return size;
+    }
+    
+    @Override
+    public Transaction get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+        }
+        // Last chunk whose live count so far does not pass the index, then a walk within it
+        int low = 0;
+        int high = chunks.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (liveBefore[mid] <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        Chunk chunk = chunks[low];
+        int remaining = index - liveBefore[low];
+        for (int slot = 0; slot < chunk.types.length; slot++) {
+            if (chunk.isLive(slot) && remaining-- == 0) {
+                return toTransaction(chunk, slot);
+            }
+        }
+        throw new IllegalStateException("Snapshot chunk counts are inconsistent");
+    }
+    
+    @Override
+    public Iterator<Transaction> iterator() {
+        return new Iterator<Transaction>() {
+            private int chunk;
+            private int slot = -1;
+            private int returned;
+            
+            @Override
+            public boolean hasNext() {
+                return returned < size;
+            }
+            
+            @Override
+            public Transaction next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                while (true) {
+                    if (++slot == chunks[chunk].types.length) {
+                        chunk++;
+                        slot = 0;
+                    }
+                    if (chunks[chunk].isLive(slot)) {
+                        returned++;
+                        return toTransaction(chunks[chunk], slot);
+                    }
+                }
+            }
+        };
+    }
+    
+    @Override
+    public void forEach(Consumer<? super Transaction> action) {
+        for (Chunk chunk : chunks) {
+            for (int slot = 0; slot < chunk.types.length; slot++) {
+                if (chunk.isLive(slot)) {
+                    action.accept(toTransaction(chunk, slot));
+                }
+            }
+        }
+    }
+    
+    private Transaction toTransaction(Chunk chunk, int slot) {
+        int recurringId = chunk.recurringIds[slot];
+        return Transaction.of(chunk.types[slot] == TransactionColumns.INCOME ? "INCOME" : "EXPENSE",
+            chunk.ids[slot], chunk.amounts[slot], LocalDate.ofEpochDay(chunk.epochDays[slot]),
+            chunk.descriptions[slot], categoryRegistry.nameOf(chunk.categories[slot]),
+            recurringId < 0 ? null : recurringIds[recurringId]);
+    }
+    
+    // A run of rows copied out of TransactionColumns, one array per column; free slots have type
+    // TransactionColumns.FREE. Written only by the publisher, and only before it hands the chunk out.
+    static final class Chunk {
+        private final int[] epochDays;
+        private final long[] amounts;
+        private final byte[] types;
+        private final int[] categories;
+        private final int[] recurringIds;
+        private final String[] ids;
+        private final String[] descriptions;
+        
+        Chunk(int size) {
+            epochDays = new int[size];
+            amounts = new long[size];
+            types = new byte[size];
+            categories = new int[size];
+            recurringIds = new int[size];
+            ids = new String[size];
+            descriptions = new String[size];
+            Arrays.fill(types, TransactionColumns.FREE);
+        }
+        
+        private Chunk(Chunk source) {
+            epochDays = source.epochDays.clone();
+            amounts = source.amounts.clone();
+            types = source.types.clone();
+            categories = source.categories.clone();
+            recurringIds = source.recurringIds.clone();
+            ids = source.ids.clone();
+            descriptions = source.descriptions.clone();
+        }
+        
+        Chunk copy() {
+            return new Chunk(this);
+        }
+        
+        boolean isLive(int slot) {
+            return types[slot] != TransactionColumns.FREE;
+        }
+        
+        void set(int slot, TransactionColumns columns, int row) {
+            epochDays[slot] = columns.epochDay(row);
+            amounts[slot] = columns.amount(row);
+            types[slot] = columns.type(row);
+            categories[slot] = columns.categoryId(row);
+            recurringIds[slot] = columns.recurringIdCode(row);
+            ids[slot] = columns.id(row);
+            descriptions[slot] = columns.description(row);
+        }
+        
+        // Drops the references too, so a removed row's strings can be collected
+        void clear(int slot) {
+            types[slot] = TransactionColumns.FREE;
+            ids[slot] = null;
+            descriptions[slot] = null;
+        }
+    }
+}
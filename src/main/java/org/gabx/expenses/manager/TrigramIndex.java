@@ -0,0 +1,120 @@
+package org.gabx.expenses.manager;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+
+// Inverted index from lower-cased character trigrams of descriptions to column-store rows. A
+// substring search looks up the rarest trigram of the needle and hands its rows over as candidates;
+// the caller confirms each one against the actual description, so the index only has to be a
+// superset of the matches.
+//
+// Removals are lazy: the row stays in its posting lists until the lists are rebuilt, which happens
+// once stale entries outnumber live ones. Candidates are deduplicated because a reused row can sit
+// in a list twice.
+class TrigramIndex {
+    static final int MIN_QUERY_LENGTH = 3;
+    
+    private final Map<Long, Postings> postings = new HashMap<>();
+    private long liveEntries;
+    private long staleEntries;
+    
+    void add(int row, String description) {
+        forEachTrigram(description, trigram -> {
+            postings.computeIfAbsent(trigram, t -> new Postings()).add(row);
+            liveEntries++;
+        });
+    }
+    
+    void remove(String description) {
+        long[] count = new long[1];
+        forEachTrigram(description, trigram -> count[0]++);
+        liveEntries -= count[0];
+        staleEntries += count[0];
+    }
+    
+    // True once the owner should clear the index and add every live row again
+    boolean needsRebuild() {
+        return staleEntries > 1024 && staleEntries > liveEntries;
+    }
+    
+    void clear() {
+        postings.clear();
+        liveEntries = 0;
+        staleEntries = 0;
+    }
+    
+    // Upper bound on the rows a search for the text can return; -1 if the text is too short to use
+    // the index
+    long estimate(String text) {
+        Postings rarest = rarest(text);
+        return rarest == null ? (usable(text) ? 0 : -1) : rarest.size;
+    }
+    
+    // Every row whose description may contain the text, each once
+    void candidates(String text, IntConsumer consumer) {
+        Postings rarest = rarest(text);
+        if (rarest == null) {
+            return;
+        }
+        BitSet seen = new BitSet();
+        for (int i = 0; i < rarest.size; i++) {
+            int row = rarest.rows[i];
+            if (!seen.get(row)) {
+                seen.set(row);
+                consumer.accept(row);
+            }
+        }
+    }
+    
+    private static boolean usable(String text) {
+        return text != null && text.length() >= MIN_QUERY_LENGTH;
+    }
+    
+    // The shortest posting list among the text's trigrams; null when the text is too short or one
+    // of its trigrams never occurs
+    private Postings rarest(String text) {
+        if (!usable(text)) {
+            return null;
+        }
+        Postings[] best = new Postings[1];
+        boolean[] missing = new boolean[1];
+        forEachTrigram(text, trigram -> {
+            Postings list = postings.get(trigram);
+            if (list == null) {
+                missing[0] = true;
+            } else if (best[0] == null || list.size < best[0].size) {
+                best[0] = list;
+            }
+        });
+        return missing[0] ? null : best[0];
+    }
+    
+    // Three 16-bit chars packed into one long
+    private static void forEachTrigram(String text, LongConsumer consumer) {
+        if (text == null || text.length() < MIN_QUERY_LENGTH) {
+            return;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        for (int i = 0; i + MIN_QUERY_LENGTH <= lower.length(); i++) {
+            consumer.accept(((long) lower.charAt(i) << 32) | ((long) lower.charAt(i + 1) << 16) | lower.charAt(i + 2));
+        }
+    }
+    
+    // Growable int list
+    private static class Postings {
+        int[] rows = new int[4];
+        int size;
+        
+        void add(int row) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            rows[size++] = row;
+        }
+    }
+}
@@ -0,0 +1,452 @@
+package org.gabx.expenses.persistence;
+
+import org.gabx.expenses.transactions.Transaction;
+import org.gabx.expenses.transactions.RecurringExpense;
+import org.gabx.expenses.transactions.Money;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Fixed-layout columnar file for transactions and recurring templates, read through a memory map.
+//
+// Layout (little-endian):
+//   header    magic, version, flags, amount scale, row count, category count, string heap offset
+//   columns   epochDay int[n] | amount long[n] | type byte[n] | category short[n] |
+//             id, description, originalRecurringId string refs (int offset, int length)[n]
+//             and, for recurring files, startDay int[n] | nextDueDay int[n] | frequency byte[n] | active byte[n]
+//   strings   category table refs, then the UTF-8 string heap
+// Amounts are integers in units of 10^-scale; a string ref with length -1 is null. Version 2 files
+// always hold minor units (scale Money.SCALE). Version 1 files, written before amounts became minor
+// units, may use up to 6 places; they are rescaled on read and DataPersistenceService rewrites
+// them as version 2 at startup (see needsUpgrade).
+public class BinaryTransactionFile {
+    private static final int MAGIC = 0x42505845; // "EXPB"
+    private static final short VERSION = 2;
+    private static final short OLDEST_VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int FLAG_SCHEDULE = 1;
+    
+    public static final byte TYPE_INCOME = 0;
+    public static final byte TYPE_EXPENSE = 1;
+    public static final byte TYPE_RECURRING_EXPENSE = 2;
+    
+    private final ByteBuffer buffer;
+    private final short version;
+    private final int rows;
+    private final int scale;
+    private final boolean hasSchedule;
+    private final String[] categories;
+    private final int epochDayOffset;
+    private final int amountOffset;
+    private final int typeOffset;
+    private final int categoryOffset;
+    private final int idOffset;
+    private final int descriptionOffset;
+    private final int recurringIdOffset;
+    private final int startDayOffset;
+    private final int nextDueDayOffset;
+    private final int frequencyOffset;
+    private final int activeOffset;
+    private final int heapOffset;
+    
+    private BinaryTransactionFile(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a binary transaction file");
+        }
+        this.version = buffer.getShort(4);
+        if (version < OLDEST_VERSION || version > VERSION) {
+            throw new IOException("Unsupported binary transaction file version " + version
+                + " (expected " + OLDEST_VERSION + " to " + VERSION + ")");
+        }
+        int flags = buffer.get(6);
+        this.hasSchedule = (flags & FLAG_SCHEDULE) != 0;
+        this.scale = buffer.get(7);
+        if (version == VERSION && scale != Money.SCALE) {
+            throw new IOException("Binary transaction file stores amounts at scale " + scale
+                + " instead of minor units");
+        }
+        this.rows = buffer.getInt(8);
+        int categoryCount = buffer.getInt(12);
+        this.heapOffset = (int) buffer.getLong(16);
+        
+        Layout layout = new Layout(rows, categoryCount, hasSchedule);
+        this.epochDayOffset = layout.epochDay;
+        this.amountOffset = layout.amount;
+        this.typeOffset = layout.type;
+        this.categoryOffset = layout.category;
+        this.idOffset = layout.id;
+        this.descriptionOffset = layout.description;
+        this.recurringIdOffset = layout.recurringId;
+        this.startDayOffset = layout.startDay;
+        this.nextDueDayOffset = layout.nextDueDay;
+        this.frequencyOffset = layout.frequency;
+        this.activeOffset = layout.active;
+        
+        this.categories = new String[categoryCount];
+        for (int i = 0; i < categoryCount; i++) {
+            categories[i] = readString(layout.categoryTable + i * 8);
+        }
+    }
+    
+    // Maps the file read-only; nothing is decoded until a row or column is asked for
+    public static BinaryTransactionFile open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new BinaryTransactionFile(mapped);
+        }
+    }
+    
+    public int size() {
+        return rows;
+    }
+    
+    // True for files written in an older version of the layout, which should be rewritten
+    public boolean needsUpgrade() {
+        return version < VERSION;
+    }
+    
+    public int epochDay(int row) {
+        return buffer.getInt(epochDayOffset + row * 4);
+    }
+    
+    // Amount in units of 10^-scale
+    public long amountUnits(int row) {
+        return buffer.getLong(amountOffset + row * 8);
+    }
+    
+    public int getScale() {
+        return scale;
+    }
+    
+    public byte type(int row) {
+        return buffer.get(typeOffset + row);
+    }
+    
+    public String category(int row) {
+        short ordinal = buffer.getShort(categoryOffset + row * 2);
+        return ordinal < 0 ? null : categories[ordinal];
+    }
+    
+    public String id(int row) {
+        return readString(idOffset + row * 8);
+    }
+    
+    public String description(int row) {
+        return readString(descriptionOffset + row * 8);
+    }
+    
+    public String originalRecurringId(int row) {
+        return readString(recurringIdOffset + row * 8);
+    }
+    
+    // Amount of one row rescaled to minor units
+    public long amountMinorUnits(int row) {
+        long units = amountUnits(row);
+        return scale == Money.SCALE ? units : Money.toMinorUnits(units, scale);
+    }
+    
+    // Category table index of the row (see getCategoryTable), -1 when it has none
+    public int categoryOrdinal(int row) {
+        return buffer.getShort(categoryOffset + row * 2);
+    }
+    
+    // The file's own category names, indexed by ordinal
+    public String[] getCategoryTable() {
+        return categories.clone();
+    }
+    
+    // Bulk copies of whole columns into caller arrays, starting at the given index. These move the
+    // mapped bytes straight into the arrays without decoding one row at a time.
+    public void copyEpochDays(int[] target, int offset) {
+        column(epochDayOffset).asIntBuffer().get(target, offset, rows);
+    }
+    
+    public void copyTypes(byte[] target, int offset) {
+        column(typeOffset).get(target, offset, rows);
+    }
+    
+    // Amounts in minor units; only version 1 files at another scale are rescaled row by row
+    public void copyAmounts(long[] target, int offset) {
+        if (scale == Money.SCALE) {
+            column(amountOffset).asLongBuffer().get(target, offset, rows);
+            return;
+        }
+        for (int row = 0; row < rows; row++) {
+            target[offset + row] = amountMinorUnits(row);
+        }
+    }
+    
+    // Sum in minor units of the rows of one type between two epoch days (inclusive), scanned
+    // directly over the mapped columns
+    public long sumMinorUnits(byte type, int fromEpochDay, int toEpochDay) {
+        long sum = 0;
+        for (int row = 0; row < rows; row++) {
+            int day = epochDay(row);
+            if (day != NULL_DAY && day >= fromEpochDay && day <= toEpochDay && type(row) == type) {
+                sum += amountMinorUnits(row);
+            }
+        }
+        return sum;
+    }
+    
+    // Little-endian view of the mapped file starting at a column
+    private ByteBuffer column(int offset) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+    
+    public Transaction toTransaction(int row) {
+        byte type = type(row);
+        if (type == TYPE_RECURRING_EXPENSE) {
+            return toRecurringExpense(row);
+        }
+        return Transaction.of(type == TYPE_INCOME ? "INCOME" : "EXPENSE", id(row), amountMinorUnits(row),
+            toDate(epochDay(row)), description(row), category(row), originalRecurringId(row));
+    }
+    
+    public void forEach(Consumer<Transaction> consumer) {
+        for (int row = 0; row < rows; row++) {
+            consumer.accept(toTransaction(row));
+        }
+    }
+    
+    private RecurringExpense toRecurringExpense(int row) {
+        RecurringExpense recurringExpense = new RecurringExpense();
+        if (hasSchedule) {
+            byte frequency = buffer.get(frequencyOffset + row);
+            // The setters for frequency and start date recompute the due date, so the stored one goes last
+            recurringExpense.setFrequency(frequency < 0 ? null : RecurringExpense.Frequency.values()[frequency]);
+            recurringExpense.setStartDate(toDate(buffer.getInt(startDayOffset + row * 4)));
+            recurringExpense.setNextDueDate(toDate(buffer.getInt(nextDueDayOffset + row * 4)));
+            recurringExpense.setActive(buffer.get(activeOffset + row) != 0);
+        }
+        recurringExpense.setOriginalRecurringId(originalRecurringId(row));
+        recurringExpense.setId(id(row));
+        recurringExpense.setAmountMinorUnits(amountMinorUnits(row));
+        recurringExpense.setDate(toDate(epochDay(row)));
+        recurringExpense.setDescription(description(row));
+        recurringExpense.setCategory(category(row));
+        return recurringExpense;
+    }
+    
+    private String readString(int refPosition) {
+        int offset = buffer.getInt(refPosition);
+        int length = buffer.getInt(refPosition + 4);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(heapOffset + offset);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    private static final int NULL_DAY = Integer.MIN_VALUE;
+    
+    private static LocalDate toDate(int epochDay) {
+        return epochDay == NULL_DAY ? null : LocalDate.ofEpochDay(epochDay);
+    }
+    
+    private static int toEpochDay(LocalDate date) {
+        return date == null ? NULL_DAY : Math.toIntExact(date.toEpochDay());
+    }
+    
+    // Writes transactions (no schedule columns)
+    public static void writeTransactions(File file, List<DataPersistenceService.TransactionData> transactions) throws IOException {
+        Writer writer = new Writer(transactions.size(), false);
+        for (DataPersistenceService.TransactionData data : transactions) {
+            writer.add(data.id, data.amountMinorUnits, data.date, data.description, data.category,
+                "INCOME".equals(data.transactionType) ? TYPE_INCOME : TYPE_EXPENSE, data.originalRecurringId);
+        }
+        writer.writeTo(file);
+    }
+    
+    // Writes recurring expense templates, including their schedule columns
+    public static void writeRecurringExpenses(File file, List<DataPersistenceService.RecurringExpenseData> recurringExpenses) throws IOException {
+        Writer writer = new Writer(recurringExpenses.size(), true);
+        for (DataPersistenceService.RecurringExpenseData data : recurringExpenses) {
+            int row = writer.add(data.id, data.amountMinorUnits, data.date, data.description, data.category,
+                TYPE_RECURRING_EXPENSE, data.originalRecurringId);
+            writer.startDays[row] = toEpochDay(data.startDate);
+            writer.nextDueDays[row] = toEpochDay(data.nextDueDate);
+            writer.frequencies[row] = data.frequency == null ? -1 : (byte) data.frequency.ordinal();
+            writer.active[row] = (byte) (data.isActive ? 1 : 0);
+        }
+        writer.writeTo(file);
+    }
+    
+    // Byte offsets of every section, derived from the row and category counts alone
+    private static class Layout {
+        final int epochDay, amount, type, category, id, description, recurringId;
+        final int startDay, nextDueDay, frequency, active, categoryTable, end;
+        
+        Layout(int rows, int categoryCount, boolean hasSchedule) {
+            int position = HEADER_SIZE;
+            epochDay = position;
+            position = align(position + rows * 4);
+            amount = position;
+            position = align(position + rows * 8);
+            type = position;
+            position = align(position + rows);
+            category = position;
+            position = align(position + rows * 2);
+            id = position;
+            position += rows * 8;
+            description = position;
+            position += rows * 8;
+            recurringId = position;
+            position += rows * 8;
+            if (hasSchedule) {
+                startDay = position;
+                position += rows * 4;
+                nextDueDay = position;
+                position += rows * 4;
+                frequency = position;
+                position += rows;
+                active = position;
+                position = align(position + rows);
+            } else {
+                startDay = nextDueDay = frequency = active = -1;
+            }
+            categoryTable = position;
+            end = position + categoryCount * 8;
+        }
+        
+        private static int align(int position) {
+            return (position + 7) & ~7;
+        }
+    }
+    
+    // Collects rows column by column, then lays them out in a single buffer
+    private static class Writer {
+        final boolean hasSchedule;
+        final int[] epochDays;
+        final long[] amounts;
+        final byte[] types;
+        final short[] categoryOrdinals;
+        final String[] ids, descriptions, recurringIds;
+        final int[] startDays, nextDueDays;
+        final byte[] frequencies, active;
+        final Map<String, Short> categoryIndex = new HashMap<>();
+        final List<String> categoryNames = new ArrayList<>();
+        int rows;
+        
+        Writer(int capacity, boolean hasSchedule) {
+            this.hasSchedule = hasSchedule;
+            epochDays = new int[capacity];
+            amounts = new long[capacity];
+            types = new byte[capacity];
+            categoryOrdinals = new short[capacity];
+            ids = new String[capacity];
+            descriptions = new String[capacity];
+            recurringIds = new String[capacity];
+            startDays = new int[hasSchedule ? capacity : 0];
+            nextDueDays = new int[hasSchedule ? capacity : 0];
+            frequencies = new byte[hasSchedule ? capacity : 0];
+            active = new byte[hasSchedule ? capacity : 0];
+        }
+        
+        int add(String id, long amountMinorUnits, LocalDate date, String description, String category, byte type, String recurringId) {
+            int row = rows++;
+            epochDays[row] = toEpochDay(date);
+            amounts[row] = amountMinorUnits;
+            types[row] = type;
+            categoryOrdinals[row] = category == null ? -1 : categoryIndex.computeIfAbsent(category, name -> {
+                // Ordinals are stored as shorts; refuse the file rather than wrap into another category
+                if (categoryNames.size() > Short.MAX_VALUE) {
+                    throw new IllegalStateException("Too many distinct categories for one file: " + categoryNames.size());
+                }
+                categoryNames.add(name);
+                return (short) (categoryNames.size() - 1);
+            });
+            ids[row] = id;
+            descriptions[row] = description;
+            recurringIds[row] = recurringId;
+            return row;
+        }
+        
+        void writeTo(File file) throws IOException {
+            Layout layout = new Layout(rows, categoryNames.size(), hasSchedule);
+            
+            StringHeap heap = new StringHeap();
+            ByteBuffer buffer = ByteBuffer.allocate(layout.end).order(ByteOrder.LITTLE_ENDIAN);
+            for (int row = 0; row < rows; row++) {
+                buffer.putInt(layout.epochDay + row * 4, epochDays[row]);
+                buffer.putLong(layout.amount + row * 8, amounts[row]);
+                buffer.put(layout.type + row, types[row]);
+                buffer.putShort(layout.category + row * 2, categoryOrdinals[row]);
+                heap.putRef(buffer, layout.id + row * 8, ids[row]);
+                heap.putRef(buffer, layout.description + row * 8, descriptions[row]);
+                heap.putRef(buffer, layout.recurringId + row * 8, recurringIds[row]);
+                if (hasSchedule) {
+                    buffer.putInt(layout.startDay + row * 4, startDays[row]);
+                    buffer.putInt(layout.nextDueDay + row * 4, nextDueDays[row]);
+                    buffer.put(layout.frequency + row, frequencies[row]);
+                    buffer.put(layout.active + row, active[row]);
+                }
+            }
+            for (int i = 0; i < categoryNames.size(); i++) {
+                heap.putRef(buffer, layout.categoryTable + i * 8, categoryNames.get(i));
+            }
+            
+            buffer.putInt(0, MAGIC);
+            buffer.putShort(4, VERSION);
+            buffer.put(6, (byte) (hasSchedule ? FLAG_SCHEDULE : 0));
+            buffer.put(7, (byte) Money.SCALE);
+            buffer.putInt(8, rows);
+            buffer.putInt(12, categoryNames.size());
+            buffer.putLong(16, layout.end);
+            
+            File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                buffer.rewind();
+                DurableFiles.writeFully(channel, buffer);
+                DurableFiles.writeFully(channel, ByteBuffer.wrap(heap.toByteArray()));
+                channel.force(true);
+            }
+            DurableFiles.replace(tempFile, file);
+        }
+    }
+    
+    // Append-only UTF-8 heap; identical strings (categories, recurring IDs) are stored once
+    private static class StringHeap {
+        private final java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+        private final Map<String, int[]> interned = new HashMap<>();
+        
+        void putRef(ByteBuffer buffer, int position, String value) {
+            if (value == null) {
+                buffer.putInt(position, 0);
+                buffer.putInt(position + 4, -1);
+                return;
+            }
+            int[] ref = interned.computeIfAbsent(value, v -> {
+                byte[] encoded = v.getBytes(StandardCharsets.UTF_8);
+                int offset = bytes.size();
+                bytes.write(encoded, 0, encoded.length);
+                return new int[] { offset, encoded.length };
+            });
+            buffer.putInt(position, ref[0]);
+            buffer.putInt(position + 4, ref[1]);
+        }
+        
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -1,50 +1,111 @@
 package org.gabx.expenses.persistence;
 
 import org.gabx.expenses.transactions.Transaction;
-import org.gabx.expenses.transactions.Income;
 import org.gabx.expenses.transactions.Expense;
 import org.gabx.expenses.transactions.RecurringExpense;
+import org.gabx.expenses.transactions.Money;
+import com.fasterxml.jackson.annotation.JsonSetter;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.type.CollectionType;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Collections;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
-public class DataPersistenceService {
+// File-backed storage engine: a JSON or binary snapshot plus journal, or JSON month segments
+public class DataPersistenceService implements StorageEngine {
     private static final String DATA_FILE = "transactions.json";
     private static final String CATEGORIES_FILE = "categories.json";
     private static final String RECURRING_FILE = "recurring_expenses.json";
-    private static final String DATA_DIRECTORY = System.getProperty("user.home") + File.separator + "bin" + File.separator + ".expense-tracker";
+    private static final String JOURNAL_FILE = "transactions.journal";
+    // Number of journal records after which the journal is folded into a new snapshot
+    private static final int COMPACTION_THRESHOLD = 1000;
+    // How long the background writer waits to group writes, and how many it groups at most
+    private static final long WRITER_MAX_LATENCY_MS = Long.getLong("expenses.writer.maxLatencyMs", 20);
+    private static final int WRITER_MAX_BATCH = Integer.getInteger("expenses.writer.maxBatch", 10_000);
+    // Months read at startup in the segmented layout: the current month and the one before it
+    private static final int STARTUP_MONTHS = 2;
     
     private final ObjectMapper objectMapper;
+    private final TransactionStreamReader transactionReader;
     private final File dataFile;
     private final File categoriesFile;
     private final File recurringFile;
+    private final File journalFile;
     private final File dataDir;
+    private final StorageLayout layout;
+    private final SegmentStore segmentStore; // null unless the layout is segmented
+    private final GroupCommitWriter<PendingWrite> writer;
+    private final AtomicInteger journalEntries = new AtomicInteger();
     
-    public DataPersistenceService() {
+    public DataPersistenceService(File dataDir) {
+        this(dataDir, StorageLayout.SINGLE_FILE);
+    }
+    
+    public DataPersistenceService(File dataDir, StorageLayout layout) {
         this.objectMapper = new ObjectMapper();
         this.objectMapper.registerModule(new JavaTimeModule());
+        this.transactionReader = new TransactionStreamReader(objectMapper.getFactory());
         
         // Create data directory if it doesn't exist
-        this.dataDir = new File(DATA_DIRECTORY);
+        this.dataDir = dataDir;
+        this.layout = layout;
         if (!dataDir.exists()) {
             dataDir.mkdirs();
         }
         
-        this.dataFile = new File(dataDir, DATA_FILE);
+        boolean binary = layout == StorageLayout.BINARY;
+        this.dataFile = new File(dataDir, binary ? StorageConverter.BINARY_DATA_FILE : DATA_FILE);
         this.categoriesFile = new File(dataDir, CATEGORIES_FILE);
-        this.recurringFile = new File(dataDir, RECURRING_FILE);
+        this.recurringFile = new File(dataDir, binary ? StorageConverter.BINARY_RECURRING_FILE : RECURRING_FILE);
+        this.journalFile = new File(dataDir, JOURNAL_FILE);
+        
+        // First start with the binary layout: convert whatever the JSON files hold
+        if (binary && !dataFile.exists() && StorageConverter.convert(dataDir)) {
+            truncateJournal();
+        }
         
         // Ensure files exist
         createFileIfNotExists(dataFile);
         createFileIfNotExists(categoriesFile);
         createFileIfNotExists(recurringFile);
+        if (binary) {
+            upgradeBinaryFiles();
+        } else {
+            migrateLegacyAmounts();
+        }
+        
+        if (layout == StorageLayout.SEGMENTED) {
+            this.segmentStore = new SegmentStore(dataDir, objectMapper, transactionReader);
+            openSegments();
+        } else {
+            this.segmentStore = null;
+        }
+        
+        this.writer = new GroupCommitWriter<>("expense-tracker-writer", this::writeBatch,
+            WRITER_MAX_LATENCY_MS, WRITER_MAX_BATCH);
     }
     
     private void createFileIfNotExists(File file) {
@@ -52,7 +113,11 @@ public class DataPersistenceService {
             if (!file.exists()) {
                 file.createNewFile();
                 // Initialize with empty content
-                if (file.equals(dataFile)) {
+                if (layout == StorageLayout.BINARY && file.equals(dataFile)) {
+                    BinaryTransactionFile.writeTransactions(file, new ArrayList<>());
+                } else if (layout == StorageLayout.BINARY && file.equals(recurringFile)) {
+                    BinaryTransactionFile.writeRecurringExpenses(file, new ArrayList<>());
+                } else if (file.equals(dataFile)) {
                     objectMapper.writeValue(file, new ArrayList<TransactionData>());
                 } else if (file.equals(categoriesFile)) {
                     Map<String, List<String>> defaultCategories = new HashMap<>();
@@ -68,61 +133,476 @@ public class DataPersistenceService {
         }
     }
     
-    public void saveTransactions(List<TransactionData> transactions) {
+    // Queues a full snapshot of all transactions; once written it supersedes the journal
+    @Override
+    public CompletableFuture<Void> saveTransactions(List<TransactionData> transactions) {
+        journalEntries.set(0);
+        return writer.submit(new PendingWrite(WriteKind.SNAPSHOT, transactions));
+    }
+    
+    // Queues an added transaction for the journal without rewriting the snapshot
+    @Override
+    public CompletableFuture<Void> appendTransaction(Transaction transaction) {
+        journalEntries.incrementAndGet();
+        return writer.submit(new PendingWrite(WriteKind.JOURNAL, JournalEntry.add(transaction)));
+    }
+    
+    // Queues a removal record for the journal without rewriting the snapshot
+    @Override
+    public CompletableFuture<Void> appendRemoval(Transaction transaction) {
+        journalEntries.incrementAndGet();
+        return writer.submit(new PendingWrite(WriteKind.JOURNAL, JournalEntry.remove(transaction)));
+    }
+    
+    // Segmented layout: queues replacements for the given month segments; once written they supersede the journal
+    @Override
+    public CompletableFuture<Void> saveMonths(Map<YearMonth, List<TransactionData>> months) {
+        if (!isSegmented()) {
+            return StorageEngine.super.saveMonths(months);
+        }
+        journalEntries.set(0);
+        return writer.submit(new PendingWrite(WriteKind.SEGMENTS, months));
+    }
+    
+    // True once enough journal records have piled up to be worth a new snapshot
+    @Override
+    public boolean needsCompaction() {
+        return journalEntries.get() >= COMPACTION_THRESHOLD;
+    }
+    
+    // Completes once every write queued so far has reached disk
+    @Override
+    public CompletableFuture<Void> flush() {
+        return writer.flush();
+    }
+    
+    // Writes out anything still queued and stops the background writer
+    @Override
+    public void close() {
+        writer.close();
+    }
+    
+    // Runs on the writer thread. Journal records queued before the last snapshot in the batch are
+    // already contained in it and are dropped; category and recurring saves keep only the latest.
+    private void writeBatch(List<PendingWrite> batch) {
+        int lastSnapshot = -1;
+        Map<YearMonth, List<TransactionData>> segments = null;
+        PendingWrite categories = null;
+        PendingWrite recurring = null;
+        for (int i = 0; i < batch.size(); i++) {
+            PendingWrite write = batch.get(i);
+            if (write.kind == WriteKind.SNAPSHOT) {
+                lastSnapshot = i;
+            } else if (write.kind == WriteKind.SEGMENTS) {
+                // Each segment write covers the months dirtied since the one before it, so together
+                // they cover every journal record queued ahead of the last one
+                lastSnapshot = i;
+                if (segments == null) {
+                    segments = new TreeMap<>();
+                }
+                segments.putAll(write.segments());
+            } else if (write.kind == WriteKind.CATEGORIES) {
+                categories = write;
+            } else if (write.kind == WriteKind.RECURRING) {
+                recurring = write;
+            }
+        }
+        
         try {
-            objectMapper.writeValue(dataFile, transactions);
+            if (segments != null) {
+                segmentStore.writeSegments(segments);
+                DurableFiles.truncate(journalFile);
+            } else if (lastSnapshot >= 0) {
+                writeSnapshot(batch.get(lastSnapshot).payload);
+            }
+            
+            StringBuilder journal = new StringBuilder();
+            for (int i = lastSnapshot + 1; i < batch.size(); i++) {
+                PendingWrite write = batch.get(i);
+                if (write.kind == WriteKind.JOURNAL) {
+                    journal.append(objectMapper.writeValueAsString(write.payload)).append(System.lineSeparator());
+                }
+            }
+            if (journal.length() > 0) {
+                DurableFiles.append(journalFile, journal.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            
+            if (categories != null) {
+                DurableFiles.writeJson(objectMapper, categoriesFile, categories.payload);
+            }
+            if (recurring != null) {
+                writeRecurring(recurring.payload);
+            }
         } catch (IOException e) {
-            System.err.println("Error saving transactions: " + e.getMessage());
+            System.err.println("Error saving data: " + e.getMessage());
+            throw new UncheckedIOException(e);
         }
     }
     
-    public List<Transaction> loadTransactions() {
+    @SuppressWarnings("unchecked")
+    private void writeSnapshot(Object transactions) throws IOException {
+        if (layout == StorageLayout.BINARY) {
+            BinaryTransactionFile.writeTransactions(dataFile, (List<TransactionData>) transactions);
+        } else {
+            DurableFiles.writeJson(objectMapper, dataFile, transactions);
+        }
+        DurableFiles.truncate(journalFile);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void writeRecurring(Object recurringExpenses) throws IOException {
+        if (layout == StorageLayout.BINARY) {
+            BinaryTransactionFile.writeRecurringExpenses(recurringFile, (List<RecurringExpenseData>) recurringExpenses);
+        } else {
+            DurableFiles.writeJson(objectMapper, recurringFile, recurringExpenses);
+        }
+    }
+    
+    // Files written before amounts became minor units store them as a decimal "amount". They still
+    // load, but are rewritten once here so the decimal form does not linger on disk.
+    private void migrateLegacyAmounts() {
         try {
-            if (dataFile.length() == 0) {
-                return new ArrayList<>();
+            if (layout == StorageLayout.SINGLE_FILE && dataFile.length() > 0
+                    && transactionReader.usesLegacyAmounts(dataFile)) {
+                List<TransactionData> transactions = new ArrayList<>();
+                loadSingleFile(transaction -> transactions.add(new TransactionData(transaction)));
+                writeSnapshot(transactions);
+                journalEntries.set(0);
+                System.out.println("Converted " + transactions.size() + " transaction amounts to minor units.");
             }
             
-            CollectionType listType = objectMapper.getTypeFactory().constructCollectionType(List.class, TransactionData.class);
-            List<TransactionData> transactionDataList = objectMapper.readValue(dataFile, listType);
-            
-            List<Transaction> transactions = new ArrayList<>();
-            for (TransactionData data : transactionDataList) {
-                Transaction transaction;
-                if ("INCOME".equals(data.transactionType)) {
-                    transaction = new Income();
-                } else {
-                    Expense expense = new Expense();
-                    if (data.originalRecurringId != null) {
-                        expense.setOriginalRecurringId(data.originalRecurringId);
+            if (recurringFile.length() > 0) {
+                JsonNode first = objectMapper.readTree(recurringFile).path(0);
+                if (first.has("amount") && !first.has("amountMinorUnits")) {
+                    List<RecurringExpenseData> recurring = new ArrayList<>();
+                    for (RecurringExpense recurringExpense : loadRecurringExpenses()) {
+                        recurring.add(new RecurringExpenseData(recurringExpense));
                     }
-                    transaction = expense;
+                    writeRecurring(recurring);
                 }
-                transaction.setId(data.id);
-                transaction.setAmount(data.amount);
-                transaction.setDate(data.date);
-                transaction.setDescription(data.description);
-                transaction.setCategory(data.category);
-                transactions.add(transaction);
+            }
+        } catch (IOException e) {
+            System.err.println("Error converting stored amounts: " + e.getMessage());
+        }
+    }
+    
+    // Binary files from before the current layout version still load (see BinaryTransactionFile),
+    // but are rewritten once here in the current version
+    private void upgradeBinaryFiles() {
+        try {
+            BinaryTransactionFile transactions = BinaryTransactionFile.open(dataFile);
+            if (transactions.needsUpgrade()) {
+                List<TransactionData> rows = new ArrayList<>(transactions.size());
+                transactions.forEach(transaction -> rows.add(new TransactionData(transaction)));
+                BinaryTransactionFile.writeTransactions(dataFile, rows);
+                System.out.println("Converted " + rows.size() + " transactions to the current binary format.");
             }
             
-            return transactions;
+            BinaryTransactionFile recurring = BinaryTransactionFile.open(recurringFile);
+            if (recurring.needsUpgrade()) {
+                List<RecurringExpenseData> rows = new ArrayList<>(recurring.size());
+                recurring.forEach(row -> rows.add(new RecurringExpenseData((RecurringExpense) row)));
+                BinaryTransactionFile.writeRecurringExpenses(recurringFile, rows);
+            }
+        } catch (IOException e) {
+            System.err.println("Error converting binary files: " + e.getMessage());
+        }
+    }
+    
+    private void truncateJournal() {
+        try {
+            DurableFiles.truncate(journalFile);
+        } catch (IOException e) {
+            System.err.println("Error truncating transaction journal: " + e.getMessage());
+        }
+    }
+    
+    // Loads the last snapshot and replays any journal records written after it.
+    // In the segmented layout only the startup months are read; see loadMonth for the rest.
+    @Override
+    public List<Transaction> loadTransactions() {
+        List<Transaction> transactions = new ArrayList<>();
+        loadTransactions(transactions::add);
+        return transactions;
+    }
+    
+    public void loadTransactions(Consumer<Transaction> consumer) {
+        if (segmentStore == null) {
+            loadSingleFile(consumer);
+            return;
+        }
+        for (YearMonth month : getStartupMonths()) {
+            readSegment(month, consumer);
+        }
+    }
+    
+    // Every stored transaction, whichever layout is in use
+    @Override
+    public List<Transaction> loadAllTransactions() {
+        List<Transaction> transactions = new ArrayList<>();
+        if (segmentStore == null) {
+            loadSingleFile(transactions::add);
+        } else {
+            for (YearMonth month : getStoredMonths()) {
+                readSegment(month, transactions::add);
+            }
+        }
+        return transactions;
+    }
+    
+    @Override
+    public boolean isSegmented() {
+        return segmentStore != null;
+    }
+    
+    public StorageLayout getLayout() {
+        return layout;
+    }
+    
+    // Months that loadTransactions() reads up front; everything else is loaded on demand
+    @Override
+    public Set<YearMonth> getStartupMonths() {
+        if (segmentStore == null) {
+            return Collections.emptySet();
+        }
+        Set<YearMonth> months = new TreeSet<>();
+        YearMonth current = YearMonth.now();
+        for (int i = 0; i < STARTUP_MONTHS; i++) {
+            months.add(current.minusMonths(i));
+        }
+        return months;
+    }
+    
+    // Months that have a segment on disk, oldest first (always empty for the single-file layout)
+    @Override
+    public NavigableSet<YearMonth> getStoredMonths() {
+        if (segmentStore == null) {
+            return Collections.emptyNavigableSet();
+        }
+        return segmentStore.getSegments().navigableKeySet();
+    }
+    
+    // Manifest entries describing each stored month without opening its segment
+    @Override
+    public NavigableMap<YearMonth, SegmentStore.SegmentInfo> getSegmentInfo() {
+        if (segmentStore == null) {
+            return Collections.emptyNavigableMap();
+        }
+        return segmentStore.getSegments();
+    }
+    
+    @Override
+    public List<Transaction> loadMonth(YearMonth month) {
+        List<Transaction> transactions = new ArrayList<>();
+        if (segmentStore != null) {
+            readSegment(month, transactions::add);
+        }
+        return transactions;
+    }
+    
+    private void readSegment(YearMonth month, Consumer<Transaction> consumer) {
+        try {
+            segmentStore.readSegment(month, consumer);
+        } catch (IOException e) {
+            System.err.println("Error loading transactions for " + month + ": " + e.getMessage());
+        }
+    }
+    
+    @Override
+    public MappedSnapshot mapSnapshot() {
+        if (layout != StorageLayout.BINARY) {
+            return null;
+        }
+        Map<String, JournalEntry> journalState = readJournal();
+        List<Transaction> journalTransactions = new ArrayList<>();
+        for (JournalEntry entry : journalState.values()) {
+            if (entry.isAdd()) {
+                journalTransactions.add(entry.transaction.toTransaction());
+            }
+        }
+        BinaryTransactionFile file = null;
+        try {
+            if (dataFile.length() > 0) {
+                file = BinaryTransactionFile.open(dataFile);
+            }
         } catch (IOException e) {
             System.err.println("Error loading transactions: " + e.getMessage());
-            return new ArrayList<>();
         }
+        return new MappedSnapshot(file, journalState.keySet(), journalTransactions);
     }
     
-    public void saveCategories(List<String> incomeCategories, List<String> expenseCategories) {
+    // Streams every stored transaction to the consumer without building an intermediate list.
+    // The journal is read first (it is bounded by the compaction threshold) so that snapshot
+    // rows it removed or replaced can be filtered while the snapshot streams past.
+    private void loadSingleFile(Consumer<Transaction> consumer) {
+        Map<String, JournalEntry> journalState = readJournal();
+        
+        Consumer<Transaction> snapshotRow = transaction -> {
+            if (!journalState.containsKey(transaction.getId())) {
+                consumer.accept(transaction);
+                return;
+            }
+            // The journal has the latest word on this ID: either its replacement or a removal
+            JournalEntry latest = journalState.remove(transaction.getId());
+            if (latest.isAdd()) {
+                consumer.accept(latest.transaction.toTransaction());
+            }
+        };
+        
         try {
-            Map<String, List<String>> categories = new HashMap<>();
-            categories.put("income", new ArrayList<>(incomeCategories));
-            categories.put("expense", new ArrayList<>(expenseCategories));
-            objectMapper.writeValue(categoriesFile, categories);
+            if (dataFile.length() > 0) {
+                if (layout == StorageLayout.BINARY) {
+                    BinaryTransactionFile.open(dataFile).forEach(snapshotRow);
+                } else {
+                    transactionReader.read(dataFile, snapshotRow);
+                }
+            }
         } catch (IOException e) {
-            System.err.println("Error saving categories: " + e.getMessage());
+            System.err.println("Error loading transactions: " + e.getMessage());
+        }
+        
+        for (JournalEntry entry : journalState.values()) {
+            if (entry.isAdd()) {
+                consumer.accept(entry.transaction.toTransaction());
+            }
         }
     }
     
+    // Collapses the journal to the last record for every ID it mentions, in first-seen order
+    private Map<String, JournalEntry> readJournal() {
+        return readJournal(entry -> {});
+    }
+    
+    // As above, also handing every valid record to the consumer before it is collapsed
+    private Map<String, JournalEntry> readJournal(Consumer<JournalEntry> eachRecord) {
+        journalEntries.set(0);
+        Map<String, JournalEntry> journalState = new LinkedHashMap<>();
+        if (!journalFile.exists() || journalFile.length() == 0) {
+            return journalState;
+        }
+        
+        try (BufferedReader reader = Files.newBufferedReader(journalFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                JournalEntry entry;
+                try {
+                    entry = objectMapper.readValue(line, JournalEntry.class);
+                } catch (IOException e) {
+                    // A torn final write leaves a partial line; everything before it is still valid
+                    System.err.println("Ignoring unreadable journal record: " + e.getMessage());
+                    break;
+                }
+                journalEntries.incrementAndGet();
+                
+                if (entry.isAdd() && entry.transaction != null) {
+                    eachRecord.accept(entry);
+                    journalState.put(entry.transaction.id, entry);
+                } else if (JournalEntry.REMOVE.equals(entry.op)) {
+                    eachRecord.accept(entry);
+                    journalState.put(entry.id, entry);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error replaying transaction journal: " + e.getMessage());
+        }
+        return journalState;
+    }
+    
+    private void openSegments() {
+        try {
+            if (!segmentStore.exists()) {
+                migrateToSegments();
+            } else {
+                segmentStore.loadManifest();
+                if (segmentStore.getVersion() < SegmentStore.Manifest.CURRENT_VERSION) {
+                    rewriteSegments();
+                }
+                foldJournalIntoSegments();
+            }
+        } catch (IOException e) {
+            System.err.println("Error opening transaction segments: " + e.getMessage());
+        }
+    }
+    
+    // First start with the segmented layout: split the existing single-file data by month
+    private void migrateToSegments() throws IOException {
+        Map<YearMonth, List<TransactionData>> months = new TreeMap<>();
+        loadSingleFile(transaction -> months
+            .computeIfAbsent(YearMonth.from(transaction.getDate()), m -> new ArrayList<>())
+            .add(new TransactionData(transaction)));
+        
+        segmentStore.writeSegments(months);
+        DurableFiles.truncate(journalFile);
+        journalEntries.set(0);
+        if (!months.isEmpty()) {
+            System.out.println("Split " + months.size() + " months of transactions into segments.");
+        }
+    }
+    
+    // Older manifests describe segments with decimal amounts; reading and rewriting every month
+    // stores them in minor units and stamps the manifest with the current version
+    private void rewriteSegments() throws IOException {
+        Map<YearMonth, List<TransactionData>> months = new TreeMap<>();
+        for (YearMonth month : segmentStore.getSegments().keySet()) {
+            List<TransactionData> data = new ArrayList<>();
+            segmentStore.readSegment(month, transaction -> data.add(new TransactionData(transaction)));
+            months.put(month, data);
+        }
+        segmentStore.writeSegments(months);
+        System.out.println("Converted " + months.size() + " month segments to minor-unit amounts.");
+    }
+    
+    // Applies journal records left from the previous session to the segments they touch, so
+    // months that are never loaded this session don't need to keep the journal around
+    private void foldJournalIntoSegments() throws IOException {
+        // Every month any record mentions is rewritten, not just the month of each ID's last
+        // record: an edit that moved a transaction (remove from A, add to B) must also clear A
+        Set<YearMonth> touched = new TreeSet<>();
+        Map<String, JournalEntry> journalState = readJournal(entry -> {
+            LocalDate date = entry.isAdd() ? entry.transaction.date : entry.date;
+            if (date == null) {
+                // A removal without a date could be in any month
+                touched.addAll(segmentStore.getSegments().keySet());
+            } else {
+                touched.add(YearMonth.from(date));
+            }
+        });
+        if (journalState.isEmpty()) {
+            return;
+        }
+        
+        Map<YearMonth, List<TransactionData>> months = new TreeMap<>();
+        for (YearMonth month : touched) {
+            List<TransactionData> data = new ArrayList<>();
+            segmentStore.readSegment(month, transaction -> {
+                if (!journalState.containsKey(transaction.getId())) {
+                    data.add(new TransactionData(transaction));
+                }
+            });
+            months.put(month, data);
+        }
+        for (JournalEntry entry : journalState.values()) {
+            if (entry.isAdd()) {
+                months.get(YearMonth.from(entry.transaction.date)).add(entry.transaction);
+            }
+        }
+        
+        segmentStore.writeSegments(months);
+        DurableFiles.truncate(journalFile);
+        journalEntries.set(0);
+    }
+    
+    @Override
+    public CompletableFuture<Void> saveCategories(Map<String, List<String>> categories) {
+        Map<String, List<String>> copy = new HashMap<>();
+        categories.forEach((key, names) -> copy.put(key, new ArrayList<>(names)));
+        return writer.submit(new PendingWrite(WriteKind.CATEGORIES, copy));
+    }
+    
+    @Override
     @SuppressWarnings("unchecked")
     public Map<String, List<String>> loadCategories() {
         try {
@@ -140,40 +620,34 @@ public class DataPersistenceService {
         }
     }
     
-    public void saveRecurringExpenses(List<RecurringExpense> recurringExpenses) {
-        try {
-            List<RecurringExpenseData> dataList = recurringExpenses.stream()
-                .map(RecurringExpenseData::new)
-                .collect(ArrayList::new, ArrayList::add, ArrayList::addAll);
-            objectMapper.writeValue(recurringFile, dataList);
-        } catch (IOException e) {
-            System.err.println("Error saving recurring expenses: " + e.getMessage());
-        }
+    @Override
+    public CompletableFuture<Void> saveRecurringExpenses(List<RecurringExpense> recurringExpenses) {
+        // Copied on the caller's thread so later edits to the templates can't race the writer
+        List<RecurringExpenseData> dataList = recurringExpenses.stream()
+            .map(RecurringExpenseData::new)
+            .collect(ArrayList::new, ArrayList::add, ArrayList::addAll);
+        return writer.submit(new PendingWrite(WriteKind.RECURRING, dataList));
     }
     
+    @Override
     public List<RecurringExpense> loadRecurringExpenses() {
         try {
             if (recurringFile.length() == 0) {
                 return new ArrayList<>();
             }
             
+            if (layout == StorageLayout.BINARY) {
+                List<RecurringExpense> recurringExpenses = new ArrayList<>();
+                BinaryTransactionFile.open(recurringFile).forEach(row -> recurringExpenses.add((RecurringExpense) row));
+                return recurringExpenses;
+            }
+            
             CollectionType listType = objectMapper.getTypeFactory().constructCollectionType(List.class, RecurringExpenseData.class);
             List<RecurringExpenseData> recurringDataList = objectMapper.readValue(recurringFile, listType);
             
             List<RecurringExpense> recurringExpenses = new ArrayList<>();
             for (RecurringExpenseData data : recurringDataList) {
-                RecurringExpense recurringExpense = new RecurringExpense();
-                recurringExpense.setId(data.id);
-                recurringExpense.setAmount(data.amount);
-                recurringExpense.setDate(data.date);
-                recurringExpense.setDescription(data.description);
-                recurringExpense.setCategory(data.category);
-                recurringExpense.setFrequency(data.frequency);
-                recurringExpense.setNextDueDate(data.nextDueDate);
-                recurringExpense.setStartDate(data.startDate);
-                recurringExpense.setActive(data.isActive);
-                recurringExpense.setOriginalRecurringId(data.originalRecurringId);
-                recurringExpenses.add(recurringExpense);
+                recurringExpenses.add(data.toRecurringExpense());
             }
             
             return recurringExpenses;
@@ -183,6 +657,7 @@ public class DataPersistenceService {
         }
     }
     
+    @Override
     public void createBackup() {
         try {
             String timestamp = java.time.LocalDateTime.now().format(java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss"));
@@ -192,7 +667,8 @@ public class DataPersistenceService {
             }
             
             File backupFile = new File(backupDir, "transactions_backup_" + timestamp + ".json");
-            objectMapper.writeValue(backupFile, loadTransactions());
+            flush().join();
+            objectMapper.writeValue(backupFile, loadAllTransactions());
             
             System.out.println("Backup created: " + backupFile.getAbsolutePath());
         } catch (IOException e) {
@@ -200,14 +676,47 @@ public class DataPersistenceService {
         }
     }
     
+    @Override
     public String getDataLocation() {
         return dataDir.getAbsolutePath();
     }
     
+    private enum WriteKind { JOURNAL, SNAPSHOT, SEGMENTS, CATEGORIES, RECURRING }
+    
+    // A write waiting for the background writer; payloads are already detached from live objects
+    private static class PendingWrite {
+        final WriteKind kind;
+        final Object payload;
+        
+        PendingWrite(WriteKind kind, Object payload) {
+            this.kind = kind;
+            this.payload = payload;
+        }
+        
+        @SuppressWarnings("unchecked")
+        Map<YearMonth, List<TransactionData>> segments() {
+            return (Map<YearMonth, List<TransactionData>>) payload;
+        }
+    }
+    
+    // Binary snapshot as mapped, with the journal on top: rows whose ID is in journalIds are
+    // superseded, and journalTransactions (in journal order) are added after the snapshot
+    public static class MappedSnapshot {
+        public final BinaryTransactionFile file; // null when nothing has been saved yet
+        public final Set<String> journalIds;
+        public final List<Transaction> journalTransactions;
+        
+        public MappedSnapshot(BinaryTransactionFile file, Set<String> journalIds, List<Transaction> journalTransactions) {
+            this.file = file;
+            this.journalIds = journalIds;
+            this.journalTransactions = journalTransactions;
+        }
+    }
+    
     // Helper class for JSON serialization
     public static class TransactionData {
         public String id;
-        public double amount;
+        public long amountMinorUnits;
         public java.time.LocalDate date;
         public String description;
         public String category;
@@ -218,7 +727,7 @@ public class DataPersistenceService {
         
         public TransactionData(Transaction transaction) {
             this.id = transaction.getId();
-            this.amount = transaction.getAmount();
+            this.amountMinorUnits = transaction.getAmountMinorUnits();
             this.date = transaction.getDate();
             this.description = transaction.getDescription();
             this.category = transaction.getCategory();
@@ -227,12 +736,55 @@ public class DataPersistenceService {
                 this.originalRecurringId = ((Expense) transaction).getOriginalRecurringId();
             }
         }
+        
+        // Records written before minor units carry a decimal "amount" instead
+        @JsonSetter("amount")
+        void setLegacyAmount(BigDecimal amount) {
+            this.amountMinorUnits = Money.toMinorUnits(amount);
+        }
+        
+        public Transaction toTransaction() {
+            return Transaction.of(transactionType, id, amountMinorUnits, date, description, category, originalRecurringId);
+        }
+    }
+    
+    // Helper class for one line of the append-only transaction journal
+    public static class JournalEntry {
+        public static final String ADD = "ADD";
+        public static final String REMOVE = "REMOVE";
+        
+        public String op;
+        public String id;
+        public LocalDate date; // date of a removed transaction, so its month is known
+        public TransactionData transaction;
+        
+        public JournalEntry() {}
+        
+        public static JournalEntry add(Transaction transaction) {
+            JournalEntry entry = new JournalEntry();
+            entry.op = ADD;
+            entry.id = transaction.getId();
+            entry.transaction = new TransactionData(transaction);
+            return entry;
+        }
+        
+        public static JournalEntry remove(Transaction transaction) {
+            JournalEntry entry = new JournalEntry();
+            entry.op = REMOVE;
+            entry.id = transaction.getId();
+            entry.date = transaction.getDate();
+            return entry;
+        }
+        
+        boolean isAdd() {
+            return ADD.equals(op);
+        }
     }
     
     // Helper class for recurring expense JSON serialization
     public static class RecurringExpenseData {
         public String id;
-        public double amount;
+        public long amountMinorUnits;
         public java.time.LocalDate date;
         public String description;
         public String category;
@@ -247,7 +799,7 @@ public class DataPersistenceService {
         
         public RecurringExpenseData(RecurringExpense recurringExpense) {
             this.id = recurringExpense.getId();
-            this.amount = recurringExpense.getAmount();
+            this.amountMinorUnits = recurringExpense.getAmountMinorUnits();
             this.date = recurringExpense.getDate();
             this.description = recurringExpense.getDescription();
             this.category = recurringExpense.getCategory();
@@ -258,5 +810,29 @@ public class DataPersistenceService {
             this.isActive = recurringExpense.isActive();
             this.originalRecurringId = recurringExpense.getOriginalRecurringId();
         }
+        
+        @JsonSetter("amount")
+        void setLegacyAmount(BigDecimal amount) {
+            this.amountMinorUnits = Money.toMinorUnits(amount);
+        }
+        
+        public RecurringExpense toRecurringExpense() {
+            RecurringExpense recurringExpense = new RecurringExpense();
+            recurringExpense.setId(id);
+            recurringExpense.setAmountMinorUnits(amountMinorUnits);
+            recurringExpense.setDate(date);
+            recurringExpense.setDescription(description);
+            recurringExpense.setCategory(category);
+            recurringExpense.setFrequency(frequency);
+            recurringExpense.setStartDate(startDate);
+            recurringExpense.setActive(isActive);
+            recurringExpense.setOriginalRecurringId(originalRecurringId);
+            // The frequency and start date setters recompute the due date, so the saved one goes last;
+            // files without one keep the computed date
+            if (nextDueDate != null) {
+                recurringExpense.setNextDueDate(nextDueDate);
+            }
+            return recurringExpense;
+        }
     }
 }
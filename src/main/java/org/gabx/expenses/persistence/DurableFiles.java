@@ -0,0 +1,73 @@
+package org.gabx.expenses.persistence;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// File writes that are on stable storage when they return: file contents are forced before the
+// call completes, and replacements go through a temporary file, an atomic rename and a sync of
+// the directory so the rename itself survives a power loss. The writer thread completes a
+// batch's futures only after these return.
+final class DurableFiles {
+    
+    private DurableFiles() {}
+    
+    // Replaces the target with the value as JSON
+    static void writeJson(ObjectMapper objectMapper, File target, Object value) throws IOException {
+        File tempFile = new File(target.getParentFile(), target.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tempFile)) {
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+            objectMapper.writeValue(generator, value);
+            generator.flush();
+            out.getFD().sync();
+        }
+        replace(tempFile, target);
+    }
+    
+    // Moves a fully written and forced file over the target
+    static void replace(File source, File target) throws IOException {
+        Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(target.getAbsoluteFile().getParentFile());
+    }
+    
+    static void append(File target, byte[] bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            writeFully(channel, ByteBuffer.wrap(bytes));
+            channel.force(true);
+        }
+    }
+    
+    static void truncate(File target) throws IOException {
+        try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.force(true);
+        }
+    }
+    
+    static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+    
+    // Some platforms (Windows) cannot open a directory for syncing; there the rename is as
+    // durable as the file system makes it
+    private static void syncDirectory(File directory) {
+        Path path = directory.toPath();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Best effort, see above
+        }
+    }
+}
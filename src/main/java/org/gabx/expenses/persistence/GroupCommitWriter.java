@@ -0,0 +1,159 @@
+package org.gabx.expenses.persistence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Single background thread that collects queued writes and hands them to the batch writer
+// in groups: a batch closes once its oldest write has waited maxLatencyMillis, once it holds
+// maxBatchSize writes, or as soon as someone asks for a flush.
+public class GroupCommitWriter<T> implements AutoCloseable {
+    private final BlockingQueue<PendingWrite<T>> queue = new LinkedBlockingQueue<>();
+    private final Consumer<List<T>> batchWriter;
+    private final long maxLatencyNanos;
+    private final int maxBatchSize;
+    private final Thread thread;
+    // Guards running together with adding to the queue, so nothing is queued after close() has
+    // switched the writer off and the thread could already have finished draining
+    private final Object stateLock = new Object();
+    private volatile boolean running = true;
+    
+    public GroupCommitWriter(String name, Consumer<List<T>> batchWriter, long maxLatencyMillis, int maxBatchSize) {
+        this.batchWriter = batchWriter;
+        this.maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxLatencyMillis));
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+    
+    // Queues a write; the future completes once the batch containing it has been written
+    public CompletableFuture<Void> submit(T write) {
+        return enqueue(write);
+    }
+    
+    // Completes once every write queued before this call is durable, without waiting out the latency window
+    public CompletableFuture<Void> flush() {
+        return enqueue(null);
+    }
+    
+    // Drains everything still queued and stops the writer thread
+    @Override
+    public void close() {
+        CompletableFuture<Void> drained;
+        synchronized (stateLock) {
+            if (!running) {
+                return;
+            }
+            drained = enqueue(null);
+            running = false;
+        }
+        drained.join();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Only reachable if the writer thread died early; never leave a caller waiting forever
+        IllegalStateException closed = new IllegalStateException("Writer has been closed");
+        for (PendingWrite<T> leftover; (leftover = queue.poll()) != null; ) {
+            leftover.future.completeExceptionally(closed);
+        }
+    }
+    
+    private CompletableFuture<Void> enqueue(T write) {
+        PendingWrite<T> pending = new PendingWrite<>(write);
+        synchronized (stateLock) {
+            if (!running) {
+                pending.future.completeExceptionally(new IllegalStateException("Writer has been closed"));
+                return pending.future;
+            }
+            queue.add(pending);
+        }
+        return pending.future;
+    }
+    
+    private void run() {
+        List<PendingWrite<T>> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite<T> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                collectBatch(batch, first.enqueuedAt + maxLatencyNanos);
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                // Interrupts only cut the wait short; queued writes are still drained
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+    
+    private void collectBatch(List<PendingWrite<T>> batch, long deadline) throws InterruptedException {
+        boolean flushRequested = batch.get(0).write == null;
+        while (!flushRequested && batch.size() < maxBatchSize) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            PendingWrite<T> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+            flushRequested = next.write == null;
+        }
+        // Anything that queued up while we were waiting rides along, up to the batch limit
+        while (!flushRequested && batch.size() < maxBatchSize) {
+            PendingWrite<T> next = queue.poll();
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+            flushRequested = next.write == null;
+        }
+    }
+    
+    private void writeBatch(List<PendingWrite<T>> batch) {
+        List<T> writes = new ArrayList<>(batch.size());
+        for (PendingWrite<T> pending : batch) {
+            if (pending.write != null) {
+                writes.add(pending.write);
+            }
+        }
+        
+        RuntimeException failure = null;
+        if (!writes.isEmpty()) {
+            try {
+                batchWriter.accept(writes);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+        
+        for (PendingWrite<T> pending : batch) {
+            if (failure == null) {
+                pending.future.complete(null);
+            } else {
+                pending.future.completeExceptionally(failure);
+            }
+        }
+    }
+    
+    private static class PendingWrite<T> {
+        final T write;
+        final long enqueuedAt = System.nanoTime();
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        
+        PendingWrite(T write) {
+            this.write = write;
+        }
+    }
+}
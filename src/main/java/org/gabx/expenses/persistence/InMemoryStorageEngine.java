@@ -0,0 +1,112 @@
+package org.gabx.expenses.persistence;
+
+import org.gabx.expenses.transactions.Transaction;
+import org.gabx.expenses.transactions.RecurringExpense;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+// Keeps everything on the heap and never touches disk; for load tests and engine benchmarks.
+// Stored rows are copies, so later changes to live objects don't leak into "storage".
+public class InMemoryStorageEngine implements StorageEngine {
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+    
+    private final Map<String, DataPersistenceService.TransactionData> transactions = new LinkedHashMap<>();
+    private final Map<String, List<String>> categories = new HashMap<>();
+    private final List<DataPersistenceService.RecurringExpenseData> recurringExpenses = new ArrayList<>();
+    
+    @Override
+    public synchronized List<Transaction> loadTransactions() {
+        List<Transaction> loaded = new ArrayList<>(transactions.size());
+        for (DataPersistenceService.TransactionData data : transactions.values()) {
+            loaded.add(data.toTransaction());
+        }
+        return loaded;
+    }
+    
+    @Override
+    public List<Transaction> loadAllTransactions() {
+        return loadTransactions();
+    }
+    
+    @Override
+    public synchronized CompletableFuture<Void> appendTransaction(Transaction transaction) {
+        transactions.put(transaction.getId(), new DataPersistenceService.TransactionData(transaction));
+        return DONE;
+    }
+    
+    @Override
+    public synchronized CompletableFuture<Void> appendRemoval(Transaction transaction) {
+        transactions.remove(transaction.getId());
+        return DONE;
+    }
+    
+    @Override
+    public synchronized CompletableFuture<Void> saveTransactions(List<DataPersistenceService.TransactionData> snapshot) {
+        transactions.clear();
+        for (DataPersistenceService.TransactionData data : snapshot) {
+            transactions.put(data.id, data);
+        }
+        return DONE;
+    }
+    
+    // Appends are applied in place, so there is never anything to compact
+    @Override
+    public boolean needsCompaction() {
+        return false;
+    }
+    
+    @Override
+    public synchronized Map<String, List<String>> loadCategories() {
+        Map<String, List<String>> copy = new HashMap<>();
+        categories.forEach((type, names) -> copy.put(type, new ArrayList<>(names)));
+        return copy;
+    }
+    
+    @Override
+    public synchronized CompletableFuture<Void> saveCategories(Map<String, List<String>> saved) {
+        categories.clear();
+        saved.forEach((key, names) -> categories.put(key, new ArrayList<>(names)));
+        return DONE;
+    }
+    
+    @Override
+    public synchronized List<RecurringExpense> loadRecurringExpenses() {
+        List<RecurringExpense> loaded = new ArrayList<>();
+        for (DataPersistenceService.RecurringExpenseData data : recurringExpenses) {
+            loaded.add(data.toRecurringExpense());
+        }
+        return loaded;
+    }
+    
+    @Override
+    public synchronized CompletableFuture<Void> saveRecurringExpenses(List<RecurringExpense> recurring) {
+        recurringExpenses.clear();
+        for (RecurringExpense recurringExpense : recurring) {
+            recurringExpenses.add(new DataPersistenceService.RecurringExpenseData(recurringExpense));
+        }
+        return DONE;
+    }
+    
+    @Override
+    public void createBackup() {
+        System.out.println("In-memory storage has nothing on disk to back up.");
+    }
+    
+    @Override
+    public String getDataLocation() {
+        return "(in memory, not saved)";
+    }
+    
+    @Override
+    public CompletableFuture<Void> flush() {
+        return DONE;
+    }
+    
+    @Override
+    public void close() {}
+}
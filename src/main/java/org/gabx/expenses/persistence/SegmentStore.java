@@ -0,0 +1,147 @@
+package org.gabx.expenses.persistence;
+
+import org.gabx.expenses.transactions.Transaction;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+// Month-partitioned transaction storage: one JSON segment per year-month under segments/,
+// plus a manifest describing every segment so callers can decide which ones to open
+public class SegmentStore {
+    private static final String SEGMENT_DIRECTORY = "segments";
+    private static final String MANIFEST_FILE = "manifest.json";
+    
+    private final ObjectMapper objectMapper;
+    private final TransactionStreamReader transactionReader;
+    private final File segmentDir;
+    private final File manifestFile;
+    private final NavigableMap<YearMonth, SegmentInfo> segments = new TreeMap<>();
+    private int version = Manifest.CURRENT_VERSION;
+    
+    public SegmentStore(File dataDir, ObjectMapper objectMapper, TransactionStreamReader transactionReader) {
+        this.objectMapper = objectMapper;
+        this.transactionReader = transactionReader;
+        this.segmentDir = new File(dataDir, SEGMENT_DIRECTORY);
+        this.manifestFile = new File(segmentDir, MANIFEST_FILE);
+    }
+    
+    public boolean exists() {
+        return manifestFile.exists();
+    }
+    
+    public synchronized void loadManifest() throws IOException {
+        segments.clear();
+        Manifest manifest = objectMapper.readValue(manifestFile, Manifest.class);
+        version = manifest.version;
+        for (Map.Entry<String, SegmentInfo> entry : manifest.segments.entrySet()) {
+            segments.put(YearMonth.parse(entry.getKey()), entry.getValue());
+        }
+    }
+    
+    // Format version of the segments on disk; see Manifest.CURRENT_VERSION
+    public synchronized int getVersion() {
+        return version;
+    }
+    
+    // Snapshot of the manifest, ordered by month
+    public synchronized NavigableMap<YearMonth, SegmentInfo> getSegments() {
+        return new TreeMap<>(segments);
+    }
+    
+    public void readSegment(YearMonth month, Consumer<Transaction> consumer) throws IOException {
+        File file = segmentFile(month);
+        if (file.exists() && file.length() > 0) {
+            transactionReader.read(file, consumer);
+        }
+    }
+    
+    public List<Transaction> loadSegment(YearMonth month) throws IOException {
+        List<Transaction> transactions = new ArrayList<>();
+        readSegment(month, transactions::add);
+        return transactions;
+    }
+    
+    // Replaces the given segments (an empty list deletes the segment) and then rewrites the manifest
+    public synchronized void writeSegments(Map<YearMonth, List<DataPersistenceService.TransactionData>> months) throws IOException {
+        if (!segmentDir.exists()) {
+            segmentDir.mkdirs();
+        }
+        
+        for (Map.Entry<YearMonth, List<DataPersistenceService.TransactionData>> entry : months.entrySet()) {
+            YearMonth month = entry.getKey();
+            List<DataPersistenceService.TransactionData> data = entry.getValue();
+            if (data.isEmpty()) {
+                Files.deleteIfExists(segmentFile(month).toPath());
+                segments.remove(month);
+            } else {
+                writeAtomically(segmentFile(month), data);
+                segments.put(month, SegmentInfo.describe(data));
+            }
+        }
+        
+        Manifest manifest = new Manifest();
+        for (Map.Entry<YearMonth, SegmentInfo> entry : segments.entrySet()) {
+            manifest.segments.put(entry.getKey().toString(), entry.getValue());
+        }
+        writeAtomically(manifestFile, manifest);
+        version = manifest.version;
+    }
+    
+    private void writeAtomically(File target, Object value) throws IOException {
+        DurableFiles.writeJson(objectMapper, target, value);
+    }
+    
+    private File segmentFile(YearMonth month) {
+        return new File(segmentDir, month + ".json");
+    }
+    
+    // Manifest file layout. Version 2 segments store amounts in minor units; version 1 ones use decimals.
+    public static class Manifest {
+        public static final int CURRENT_VERSION = 2;
+        
+        public int version = CURRENT_VERSION;
+        public Map<String, SegmentInfo> segments = new TreeMap<>();
+    }
+    
+    // What the manifest records about one segment, enough to summarize it without opening it
+    public static class SegmentInfo {
+        public int incomeCount;
+        public int expenseCount;
+        public LocalDate firstDate;
+        public LocalDate lastDate;
+        
+        public SegmentInfo() {}
+        
+        static SegmentInfo describe(List<DataPersistenceService.TransactionData> data) {
+            SegmentInfo info = new SegmentInfo();
+            for (DataPersistenceService.TransactionData transaction : data) {
+                if ("INCOME".equals(transaction.transactionType)) {
+                    info.incomeCount++;
+                } else {
+                    info.expenseCount++;
+                }
+                if (info.firstDate == null || transaction.date.isBefore(info.firstDate)) {
+                    info.firstDate = transaction.date;
+                }
+                if (info.lastDate == null || transaction.date.isAfter(info.lastDate)) {
+                    info.lastDate = transaction.date;
+                }
+            }
+            return info;
+        }
+        
+        public int transactionCount() {
+            return incomeCount + expenseCount;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.gabx.expenses.persistence;
+
+import java.io.File;
+
+// Picks the storage engine and data directory from system properties:
+//   expenses.storage.engine  json (default), binary or memory
+//   expenses.storage.layout  segmented splits the JSON engine's transactions by month
+//   expenses.storage.dir     data directory, ~/bin/.expense-tracker by default
+public class StorageConfig {
+    public enum Engine { JSON, BINARY, MEMORY }
+    
+    private final Engine engine;
+    private final StorageLayout layout;
+    private final File dataDirectory;
+    
+    public StorageConfig(Engine engine, StorageLayout layout, File dataDirectory) {
+        this.engine = engine;
+        this.layout = layout;
+        this.dataDirectory = dataDirectory;
+    }
+    
+    public static StorageConfig fromSystemProperties() {
+        StorageLayout layout = StorageLayout.fromProperty(System.getProperty("expenses.storage.layout"));
+        String engineName = System.getProperty("expenses.storage.engine", layout == StorageLayout.BINARY ? "binary" : "json");
+        Engine engine;
+        try {
+            engine = Engine.valueOf(engineName.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown storage engine '" + engineName + "', using json");
+            engine = Engine.JSON;
+        }
+        
+        String directory = System.getProperty("expenses.storage.dir");
+        File dataDirectory = directory == null || directory.isBlank()
+            ? new File(System.getProperty("user.home"), "bin" + File.separator + ".expense-tracker")
+            : new File(directory);
+        return new StorageConfig(engine, layout, dataDirectory);
+    }
+    
+    public StorageEngine createEngine() {
+        switch (engine) {
+            case MEMORY:
+                return new InMemoryStorageEngine();
+            case BINARY:
+                return new DataPersistenceService(dataDirectory, StorageLayout.BINARY);
+            default:
+                return new DataPersistenceService(dataDirectory,
+                    layout == StorageLayout.SEGMENTED ? StorageLayout.SEGMENTED : StorageLayout.SINGLE_FILE);
+        }
+    }
+    
+    public Engine getEngine() {
+        return engine;
+    }
+    
+    public File getDataDirectory() {
+        return dataDirectory;
+    }
+}
@@ -0,0 +1,137 @@
+package org.gabx.expenses.persistence;
+
+import org.gabx.expenses.transactions.Transaction;
+import org.gabx.expenses.transactions.RecurringExpense;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.type.CollectionType;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+// Converts transactions.json (plus its journal) and recurring_expenses.json into the binary
+// format, then reads the binary files back and checks every field survived unchanged.
+// Run directly with: java -cp <classpath> org.gabx.expenses.persistence.StorageConverter [dataDir]
+public class StorageConverter {
+    static final String BINARY_DATA_FILE = "transactions.bin";
+    static final String BINARY_RECURRING_FILE = "recurring_expenses.bin";
+    
+    public static void main(String[] args) {
+        File dataDir = args.length > 0 ? new File(args[0]) : StorageConfig.fromSystemProperties().getDataDirectory();
+        if (!convert(dataDir)) {
+            System.exit(1);
+        }
+    }
+    
+    // Returns false (leaving the JSON files untouched) if the binary copy would not be exact
+    public static boolean convert(File dataDir) {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JavaTimeModule());
+        File transactionsFile = new File(dataDir, BINARY_DATA_FILE);
+        File recurringFile = new File(dataDir, BINARY_RECURRING_FILE);
+        
+        try {
+            List<DataPersistenceService.TransactionData> transactions = new ArrayList<>();
+            DataPersistenceService json = new DataPersistenceService(dataDir, StorageLayout.SINGLE_FILE);
+            try {
+                for (Transaction transaction : json.loadAllTransactions()) {
+                    transactions.add(new DataPersistenceService.TransactionData(transaction));
+                }
+            } finally {
+                json.close();
+            }
+            List<DataPersistenceService.RecurringExpenseData> recurringExpenses = readRecurringJson(objectMapper, dataDir);
+            
+            BinaryTransactionFile.writeTransactions(transactionsFile, transactions);
+            BinaryTransactionFile.writeRecurringExpenses(recurringFile, recurringExpenses);
+            
+            verifyTransactions(BinaryTransactionFile.open(transactionsFile), transactions);
+            verifyRecurringExpenses(BinaryTransactionFile.open(recurringFile), recurringExpenses);
+            
+            System.out.println("Converted " + transactions.size() + " transactions and " + recurringExpenses.size()
+                + " recurring expenses to the binary format.");
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error converting to the binary format: " + e.getMessage());
+            try {
+                Files.deleteIfExists(transactionsFile.toPath());
+                Files.deleteIfExists(recurringFile.toPath());
+            } catch (IOException cleanup) {
+                System.err.println("Error removing partial binary files: " + cleanup.getMessage());
+            }
+            return false;
+        }
+    }
+    
+    // Read as raw data: the binary writer takes the persisted fields as they are
+    private static List<DataPersistenceService.RecurringExpenseData> readRecurringJson(ObjectMapper objectMapper, File dataDir) throws IOException {
+        File file = new File(dataDir, "recurring_expenses.json");
+        if (!file.exists() || file.length() == 0) {
+            return new ArrayList<>();
+        }
+        CollectionType listType = objectMapper.getTypeFactory().constructCollectionType(List.class, DataPersistenceService.RecurringExpenseData.class);
+        return objectMapper.readValue(file, listType);
+    }
+    
+    private static void verifyTransactions(BinaryTransactionFile file, List<DataPersistenceService.TransactionData> expected) throws IOException {
+        if (file.size() != expected.size()) {
+            throw new IOException("Binary file holds " + file.size() + " transactions, expected " + expected.size());
+        }
+        for (int row = 0; row < expected.size(); row++) {
+            DataPersistenceService.TransactionData original = expected.get(row);
+            DataPersistenceService.TransactionData copy = new DataPersistenceService.TransactionData(file.toTransaction(row));
+            if (!sameTransaction(original, copy)) {
+                throw new IOException("Transaction " + original.id + " did not survive conversion");
+            }
+        }
+        
+        // The mapped aggregate scan must agree with the source totals too
+        long[] totals = new long[2];
+        for (DataPersistenceService.TransactionData data : expected) {
+            if (data.date != null) {
+                totals["INCOME".equals(data.transactionType) ? 0 : 1] += data.amountMinorUnits;
+            }
+        }
+        if (file.sumMinorUnits(BinaryTransactionFile.TYPE_INCOME, Integer.MIN_VALUE + 1, Integer.MAX_VALUE) != totals[0]
+                || file.sumMinorUnits(BinaryTransactionFile.TYPE_EXPENSE, Integer.MIN_VALUE + 1, Integer.MAX_VALUE) != totals[1]) {
+            throw new IOException("Binary file totals do not match the converted transactions");
+        }
+    }
+    
+    private static void verifyRecurringExpenses(BinaryTransactionFile file, List<DataPersistenceService.RecurringExpenseData> expected) throws IOException {
+        if (file.size() != expected.size()) {
+            throw new IOException("Binary file holds " + file.size() + " recurring expenses, expected " + expected.size());
+        }
+        for (int row = 0; row < expected.size(); row++) {
+            DataPersistenceService.RecurringExpenseData original = expected.get(row);
+            RecurringExpense copy = (RecurringExpense) file.toTransaction(row);
+            boolean same = Objects.equals(original.id, copy.getId())
+                && original.amountMinorUnits == copy.getAmountMinorUnits()
+                && Objects.equals(original.date, copy.getDate())
+                && Objects.equals(original.description, copy.getDescription())
+                && Objects.equals(original.category, copy.getCategory())
+                && original.frequency == copy.getFrequency()
+                && Objects.equals(original.nextDueDate, copy.getNextDueDate())
+                && Objects.equals(original.startDate, copy.getStartDate())
+                && original.isActive == copy.isActive()
+                && Objects.equals(original.originalRecurringId, copy.getOriginalRecurringId());
+            if (!same) {
+                throw new IOException("Recurring expense " + original.id + " did not survive conversion");
+            }
+        }
+    }
+    
+    private static boolean sameTransaction(DataPersistenceService.TransactionData a, DataPersistenceService.TransactionData b) {
+        return Objects.equals(a.id, b.id)
+            && a.amountMinorUnits == b.amountMinorUnits
+            && Objects.equals(a.date, b.date)
+            && Objects.equals(a.description, b.description)
+            && Objects.equals(a.category, b.category)
+            && Objects.equals(a.transactionType, b.transactionType)
+            && Objects.equals(a.originalRecurringId, b.originalRecurringId);
+    }
+}
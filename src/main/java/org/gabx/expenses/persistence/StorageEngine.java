@@ -0,0 +1,85 @@
+package org.gabx.expenses.persistence;
+
+import org.gabx.expenses.transactions.Transaction;
+import org.gabx.expenses.transactions.RecurringExpense;
+
+import java.time.YearMonth;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+// Where the managers keep their data. One engine is created from StorageConfig at startup and
+// shared by TransactionManager and RecurringExpenseManager; writes may complete asynchronously.
+public interface StorageEngine {
+    
+    // Transactions held in memory at startup (all of them unless the engine is partitioned)
+    List<Transaction> loadTransactions();
+    
+    // Every stored transaction, whether or not loadTransactions() returned it
+    List<Transaction> loadAllTransactions();
+    
+    CompletableFuture<Void> appendTransaction(Transaction transaction);
+    
+    CompletableFuture<Void> appendRemoval(Transaction transaction);
+    
+    // Replaces everything stored with the given snapshot
+    CompletableFuture<Void> saveTransactions(List<DataPersistenceService.TransactionData> transactions);
+    
+    // True once appended changes are worth folding into a new snapshot
+    boolean needsCompaction();
+    
+    // Category menus keyed "income" and "expense", plus the registry's names in ID order under "ids"
+    Map<String, List<String>> loadCategories();
+    
+    CompletableFuture<Void> saveCategories(Map<String, List<String>> categories);
+    
+    List<RecurringExpense> loadRecurringExpenses();
+    
+    CompletableFuture<Void> saveRecurringExpenses(List<RecurringExpense> recurringExpenses);
+    
+    void createBackup();
+    
+    String getDataLocation();
+    
+    // Completes once every write queued so far is durable, i.e. forced to stable storage
+    CompletableFuture<Void> flush();
+    
+    void close();
+    
+    // Binary layout only: the mapped snapshot and the journal written after it, so a caller can
+    // copy whole columns instead of going through loadTransactions. Null everywhere else.
+    default DataPersistenceService.MappedSnapshot mapSnapshot() {
+        return null;
+    }
+    
+    // Month-partitioned engines load older months on demand; the rest keep everything in one piece
+    default boolean isSegmented() {
+        return false;
+    }
+    
+    default Set<YearMonth> getStartupMonths() {
+        return Collections.emptySet();
+    }
+    
+    default NavigableSet<YearMonth> getStoredMonths() {
+        return Collections.emptyNavigableSet();
+    }
+    
+    default NavigableMap<YearMonth, SegmentStore.SegmentInfo> getSegmentInfo() {
+        return Collections.emptyNavigableMap();
+    }
+    
+    default List<Transaction> loadMonth(YearMonth month) {
+        return Collections.emptyList();
+    }
+    
+    // Partitioned engines only: replaces the given months. Elsewhere the returned write fails, like
+    // any other write, instead of throwing on the caller's thread.
+    default CompletableFuture<Void> saveMonths(Map<YearMonth, List<DataPersistenceService.TransactionData>> months) {
+        return CompletableFuture.failedFuture(new UnsupportedOperationException("Storage is not partitioned by month"));
+    }
+}
@@ -0,0 +1,18 @@
+package org.gabx.expenses.persistence;
+
+// How DataPersistenceService arranges transactions on disk, chosen with -Dexpenses.storage.layout
+public enum StorageLayout {
+    SINGLE_FILE,  // transactions.json snapshot plus journal (default)
+    SEGMENTED,    // one JSON file per month under segments/
+    BINARY;       // memory-mapped transactions.bin / recurring_expenses.bin plus journal
+    
+    public static StorageLayout fromProperty(String value) {
+        if ("segmented".equalsIgnoreCase(value)) {
+            return SEGMENTED;
+        }
+        if ("binary".equalsIgnoreCase(value)) {
+            return BINARY;
+        }
+        return SINGLE_FILE;
+    }
+}
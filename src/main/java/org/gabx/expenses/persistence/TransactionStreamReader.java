@@ -0,0 +1,142 @@
+package org.gabx.expenses.persistence;
+
+import org.gabx.expenses.transactions.Transaction;
+import org.gabx.expenses.transactions.Money;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.function.Consumer;
+
+// Reads a transactions JSON array token by token, building each domain object directly
+// so the whole file never has to be materialized as an intermediate list
+public class TransactionStreamReader {
+    private final JsonFactory jsonFactory;
+    
+    public TransactionStreamReader(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+    
+    // Pushes every transaction in the file to the consumer and returns how many were read
+    public long read(File file, Consumer<Transaction> consumer) throws IOException {
+        long count = 0;
+        try (JsonParser parser = jsonFactory.createParser(file)) {
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                return 0;
+            }
+            if (token != JsonToken.START_ARRAY) {
+                throw new IOException("Expected a JSON array of transactions in " + file.getName());
+            }
+            
+            while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+                consumer.accept(readTransaction(parser));
+                count++;
+            }
+            
+            if (token != JsonToken.END_ARRAY) {
+                throw new IOException("Unexpected token " + token + " in " + file.getName());
+            }
+        }
+        return count;
+    }
+    
+    // True if the first record stores a decimal "amount" rather than minor units, i.e. the file
+    // predates fixed-point amounts
+    public boolean usesLegacyAmounts(File file) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(file)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY || parser.nextToken() != JsonToken.START_OBJECT) {
+                return false;
+            }
+            boolean legacy = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                if ("amountMinorUnits".equals(field)) {
+                    return false;
+                }
+                legacy |= "amount".equals(field);
+                parser.nextToken();
+                parser.skipChildren();
+            }
+            return legacy;
+        }
+    }
+    
+    // Reads one transaction object; the parser must be positioned on its START_OBJECT
+    private Transaction readTransaction(JsonParser parser) throws IOException {
+        String id = null;
+        long amountMinorUnits = 0;
+        LocalDate date = null;
+        String description = null;
+        String category = null;
+        String transactionType = null;
+        String originalRecurringId = null;
+        
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            
+            switch (field) {
+                case "id":
+                    id = readText(parser, value);
+                    break;
+                case "amountMinorUnits":
+                    amountMinorUnits = value == JsonToken.VALUE_NULL ? 0 : parser.getValueAsLong();
+                    break;
+                case "amount":
+                    // Files written before amounts became minor units
+                    amountMinorUnits = value == JsonToken.VALUE_NULL ? 0 : Money.toMinorUnits(new BigDecimal(parser.getText()));
+                    break;
+                case "date":
+                    date = readDate(parser, value);
+                    break;
+                case "description":
+                    description = readText(parser, value);
+                    break;
+                case "category":
+                    category = readText(parser, value);
+                    break;
+                case "transactionType":
+                    transactionType = readText(parser, value);
+                    break;
+                case "originalRecurringId":
+                    originalRecurringId = readText(parser, value);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        
+        return Transaction.of(transactionType, id, amountMinorUnits, date, description, category, originalRecurringId);
+    }
+    
+    private String readText(JsonParser parser, JsonToken value) throws IOException {
+        return value == JsonToken.VALUE_NULL ? null : parser.getText();
+    }
+    
+    // Dates are written as [year, month, day] by the JavaTimeModule, but ISO strings are accepted too
+    private LocalDate readDate(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (value == JsonToken.VALUE_STRING) {
+            return LocalDate.parse(parser.getText());
+        }
+        if (value != JsonToken.START_ARRAY) {
+            throw new IOException("Unexpected date token " + value);
+        }
+        
+        parser.nextToken();
+        int year = parser.getIntValue();
+        parser.nextToken();
+        int month = parser.getIntValue();
+        parser.nextToken();
+        int day = parser.getIntValue();
+        parser.nextToken(); // END_ARRAY
+        return LocalDate.of(year, month, day);
+    }
+}
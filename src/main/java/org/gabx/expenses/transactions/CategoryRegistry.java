@@ -0,0 +1,160 @@
+package org.gabx.expenses.transactions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Process-wide category table. Every category name gets a compact integer ID (0, 1, 2, ...) that
+// never changes while the process runs and survives restarts through the "ids" list it persists,
+// so IDs can index arrays in aggregations. Income and expense categories share the ID space; each
+// kind also keeps the ordered list of names offered in menus.
+//
+// Lookups are lock-free; registering a new name takes the lock once per distinct name.
+public final class CategoryRegistry {
+    public enum Kind { INCOME, EXPENSE }
+    
+    private static final String IDS_KEY = "ids";
+    private static final CategoryRegistry INSTANCE = new CategoryRegistry();
+    
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[0];
+    // Replaced whole by setCategories, so readers see either the old menu or the new one
+    private final Map<Kind, Menu> menus = new ConcurrentHashMap<>();
+    private volatile long version;
+    
+    private CategoryRegistry() {
+        setCategories(Kind.INCOME, List.of("Salary", "Freelance", "Investment", "Gift", "Allowance"));
+        setCategories(Kind.EXPENSE, List.of("Groceries", "Transport", "Entertainment", "Utilities",
+            "Healthcare", "Clothing", "Restaurants", "Education"));
+    }
+    
+    public static CategoryRegistry getInstance() {
+        return INSTANCE;
+    }
+    
+    // ID for the name, assigning the next free one the first time it is seen
+    public int idOf(String name) {
+        if (name == null) {
+            return -1;
+        }
+        Integer id = ids.get(name);
+        return id != null ? id : register(name);
+    }
+    
+    // -1 when the name has never been registered
+    public int lookup(String name) {
+        Integer id = name == null ? null : ids.get(name);
+        return id == null ? -1 : id;
+    }
+    
+    public String nameOf(int id) {
+        String[] current = names;
+        return id < 0 || id >= current.length ? null : current[id];
+    }
+    
+    // Number of IDs handed out so far; every valid ID is below it
+    public int size() {
+        return names.length;
+    }
+    
+    // Adds the name to the kind's menu; false if it was already there
+    public boolean add(Kind kind, String name) {
+        if (name == null || contains(kind, name)) {
+            return false;
+        }
+        synchronized (this) {
+            idOf(name);
+            if (!menus.get(kind).add(name)) {
+                return false;
+            }
+            version++;
+            return true;
+        }
+    }
+    
+    public boolean contains(Kind kind, String name) {
+        return name != null && menus.get(kind).members.contains(name);
+    }
+    
+    public List<String> getCategories(Kind kind) {
+        return new ArrayList<>(menus.get(kind).names);
+    }
+    
+    // Replaces a kind's menu; IDs already handed out are kept
+    public synchronized void setCategories(Kind kind, List<String> categories) {
+        Menu menu = new Menu();
+        for (String name : categories) {
+            if (name != null) {
+                idOf(name);
+                menu.add(name);
+            }
+        }
+        menus.put(kind, menu);
+        version++;
+    }
+    
+    // Bumped on every change, so callers can skip saving an unchanged registry
+    public long getVersion() {
+        return version;
+    }
+    
+    // Persisted form: "income" and "expense" menus plus the names in ID order under "ids"
+    public synchronized Map<String, List<String>> toMap() {
+        Map<String, List<String>> map = new HashMap<>();
+        map.put("income", getCategories(Kind.INCOME));
+        map.put("expense", getCategories(Kind.EXPENSE));
+        map.put(IDS_KEY, new ArrayList<>(Arrays.asList(names)));
+        return map;
+    }
+    
+    // Restores a saved registry. IDs already handed out are never moved; the saved names are
+    // registered in ID order, which reproduces the saved IDs in a fresh process because the
+    // built-in categories always come first. Files written before IDs were persisted have no
+    // "ids" list, and the menus assign them instead.
+    public synchronized void load(Map<String, List<String>> map) {
+        if (map.containsKey(IDS_KEY)) {
+            for (String name : map.get(IDS_KEY)) {
+                idOf(name);
+            }
+        }
+        if (map.containsKey("income")) {
+            setCategories(Kind.INCOME, map.get("income"));
+        }
+        if (map.containsKey("expense")) {
+            setCategories(Kind.EXPENSE, map.get("expense"));
+        }
+    }
+    
+    private synchronized int register(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        String[] grown = Arrays.copyOf(names, names.length + 1);
+        grown[names.length] = name;
+        // Publish the name before the ID so nameOf never misses an ID it could have been handed
+        names = grown;
+        ids.put(name, grown.length - 1);
+        version++;
+        return grown.length - 1;
+    }
+    
+    // One kind's menu: the names in order plus a set for membership checks
+    private static class Menu {
+        final List<String> names = new CopyOnWriteArrayList<>();
+        final Set<String> members = ConcurrentHashMap.newKeySet();
+        
+        boolean add(String name) {
+            if (!members.add(name)) {
+                return false;
+            }
+            names.add(name);
+            return true;
+        }
+    }
+}
@@ -1,15 +1,10 @@
 package org.gabx.expenses.transactions;
 import java.util.List;
-import java.util.ArrayList;
-import java.util.Arrays;
 
 public class Expense extends Transaction {
     private String expenseCategory;
     private String originalRecurringId; // ID of the recurring expense that generated this expense
-    private static List<String> expenseCategories = new ArrayList<>(
-        Arrays.asList("Groceries", "Transport", "Entertainment", "Utilities", 
-                     "Healthcare", "Clothing", "Restaurants", "Education")
-    );
+    private static final CategoryRegistry categories = CategoryRegistry.getInstance();
     
     @Override
     public String getTransactionType() {
@@ -18,9 +13,7 @@ public class Expense extends Transaction {
     
     @Override
     public void setCategory(String category) {
-        if (!expenseCategories.contains(category)) {
-            addExpenseCategory(category);
-        }
+        categories.add(CategoryRegistry.Kind.EXPENSE, category);
         this.expenseCategory = category;
     }
     
@@ -31,24 +24,22 @@ public class Expense extends Transaction {
     
     @Override
     public List<String> getAvailableCategories() {
-        return new ArrayList<>(expenseCategories);
+        return categories.getCategories(CategoryRegistry.Kind.EXPENSE);
     }
     
     // This method should be static and public
     public static void addExpenseCategory(String newCategory) {
-        if(!expenseCategories.contains(newCategory)) {
-            expenseCategories.add(newCategory);
-        } else {
+        if (!categories.add(CategoryRegistry.Kind.EXPENSE, newCategory)) {
             System.out.println(newCategory + " is already an expense category!");
         }
     }
     
     public static List<String> getCategories() {
-        return new ArrayList<>(expenseCategories);
+        return categories.getCategories(CategoryRegistry.Kind.EXPENSE);
     }
     
-    public static void setCategories(List<String> categories) {
-        expenseCategories = new ArrayList<>(categories);
+    public static void setCategories(List<String> names) {
+        categories.setCategories(CategoryRegistry.Kind.EXPENSE, names);
     }
     
     // Getter and setter for originalRecurringId
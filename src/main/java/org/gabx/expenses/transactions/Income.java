@@ -1,13 +1,9 @@
 package org.gabx.expenses.transactions;
 import java.util.List;
-import java.util.ArrayList;
-import java.util.Arrays;
 
 public class Income extends Transaction {
     private String incomeCategory;
-    private static List<String> incomeCategories = new ArrayList<>(
-        Arrays.asList("Salary", "Freelance", "Investment", "Gift", "Allowance")
-    );
+    private static final CategoryRegistry categories = CategoryRegistry.getInstance();
 
     @Override
     public String getTransactionType() {
@@ -16,9 +12,7 @@ public class Income extends Transaction {
 
     @Override
     public void setCategory(String category) {
-        if(!incomeCategories.contains(category)) {
-            addIncomeCategory(category); // Allow adding new categories
-        }
+        categories.add(CategoryRegistry.Kind.INCOME, category); // Allow adding new categories
         this.incomeCategory = category;
     }
 
@@ -29,22 +23,20 @@ public class Income extends Transaction {
 
     @Override
     public List<String> getAvailableCategories() {
-        return new ArrayList<>(incomeCategories);
+        return categories.getCategories(CategoryRegistry.Kind.INCOME);
     }
 
     public static void addIncomeCategory(String newCategory) {
-        if(!incomeCategories.contains(newCategory)) {
-            incomeCategories.add(newCategory);
-        } else {
+        if (!categories.add(CategoryRegistry.Kind.INCOME, newCategory)) {
             System.out.println(newCategory + " is already an income category!");
         }
     }
     
     public static List<String> getCategories() {
-        return new ArrayList<>(incomeCategories);
+        return categories.getCategories(CategoryRegistry.Kind.INCOME);
     }
     
-    public static void setCategories(List<String> categories) {
-        incomeCategories = new ArrayList<>(categories);
+    public static void setCategories(List<String> names) {
+        categories.setCategories(CategoryRegistry.Kind.INCOME, names);
     }
 }
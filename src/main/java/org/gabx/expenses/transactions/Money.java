@@ -0,0 +1,36 @@
+package org.gabx.expenses.transactions;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+// Amounts are fixed-point: a long count of minor units (cents) at a fixed currency scale.
+// Doubles only appear at the edges, for user input and printf output.
+public final class Money {
+    public static final int SCALE = 2;
+    public static final long MINOR_UNITS_PER_MAJOR = 100;
+    
+    private Money() {}
+    
+    // Rounds half up to the nearest minor unit; goes through the shortest decimal form of the double
+    // so that e.g. 0.1 + 0.2 typed as 0.3 becomes exactly 30
+    public static long toMinorUnits(double amount) {
+        return toMinorUnits(BigDecimal.valueOf(amount));
+    }
+    
+    public static long toMinorUnits(BigDecimal amount) {
+        return amount.setScale(SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+    
+    // Rescales an integer amount held at another scale (e.g. 4 decimal places) to minor units
+    public static long toMinorUnits(long unscaled, int scale) {
+        return toMinorUnits(BigDecimal.valueOf(unscaled, scale));
+    }
+    
+    public static double toMajor(long minorUnits) {
+        return (double) minorUnits / MINOR_UNITS_PER_MAJOR;
+    }
+    
+    public static BigDecimal toDecimal(long minorUnits) {
+        return BigDecimal.valueOf(minorUnits, SCALE);
+    }
+}
@@ -1,9 +1,11 @@
 package org.gabx.expenses.transactions;
 
 import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class RecurringExpense extends Expense {
     public enum Frequency {
@@ -30,6 +32,8 @@ public class RecurringExpense extends Expense {
         }
     }
     
+    private static final AtomicLong INSTANCE_SEQUENCE = new AtomicLong();
+    
     private Frequency frequency;
     private LocalDate nextDueDate;
     private LocalDate startDate;
@@ -92,50 +96,30 @@ public class RecurringExpense extends Expense {
         return "RECURRING_EXPENSE";
     }
     
-    // Calculate next due date based on frequency
+    // Calculate next due date based on frequency: one period after the start date
     public void updateNextDueDate() {
         if (frequency == null || startDate == null) {
             return;
         }
         
-        LocalDate current = startDate;
-        
-        switch (frequency) {
-            case DAILY:
-                nextDueDate = current.plusDays(1);
-                break;
-            case WEEKLY:
-                nextDueDate = current.plusWeeks(1);
-                break;
-            case FOUR_WEEKLY:
-                nextDueDate = current.plusWeeks(4);
-                break;
-            case MONTHLY:
-                nextDueDate = current.plusMonths(1);
-                break;
-            case QUARTERLY:
-                nextDueDate = current.plusMonths(3);
-                break;
-            case YEARLY:
-                nextDueDate = current.plusYears(1);
-                break;
-        }
+        nextDueDate = getOccurrence(1);
     }
     
     // Create a regular expense instance from this recurring expense
     public Expense createExpenseInstance() {
         Expense expense = new Expense();
         expense.setId(generateExpenseId());
-        expense.setAmount(this.getAmount());
+        expense.setAmountMinorUnits(this.getAmountMinorUnits());
         expense.setDescription(this.getDescription());
         expense.setCategory(this.getCategory());
         expense.setDate(this.getNextDueDate());
         return expense;
     }
     
-    // Generate a unique ID for the expense instance
+    // Generate a unique ID for the expense instance; the sequence keeps IDs distinct
+    // when several instances are generated within the same millisecond
     private String generateExpenseId() {
-        return "RE_" + this.getId() + "_" + System.currentTimeMillis();
+        return "RE_" + this.getId() + "_" + System.currentTimeMillis() + "_" + INSTANCE_SEQUENCE.incrementAndGet();
     }
     
     // Check if the recurring expense is due
@@ -143,54 +127,149 @@ public class RecurringExpense extends Expense {
         return isActive && (nextDueDate.isEqual(checkDate) || nextDueDate.isBefore(checkDate));
     }
     
-    // Get all due dates up to a certain date
+    // Occurrences are numbered from the start date, which is occurrence 0; occurrence k falls k
+    // periods after it. Month-based frequencies add all k periods to the start date at once, so a
+    // schedule starting on the 31st is clamped to the last day of shorter months and returns to the
+    // 31st afterwards instead of drifting. The methods below work on k directly rather than
+    // stepping through the dates in between, so their cost does not depend on the range length.
+    //
+    // Due dates continue from nextDueDate. When it lies on the start-date schedule they are that
+    // schedule's occurrences; when it does not (data saved by older versions, which stepped month by
+    // month and drifted after clamping, or a hand-edited template) they are counted from
+    // nextDueDate itself, which is where the generated instances so far have left off.
+    
+    // Date of the k-th occurrence
+    public LocalDate getOccurrence(long k) {
+        return occurrence(startDate, k);
+    }
+    
+    // Number of occurrences before the date, which is also the index of the first one on or after it
+    public long countOccurrencesBefore(LocalDate date) {
+        return countBefore(startDate, date);
+    }
+    
+    // Number of occurrences between the two dates, both inclusive
+    public long countOccurrences(LocalDate start, LocalDate end) {
+        if (frequency == null || startDate == null || end.isBefore(start)) {
+            return 0;
+        }
+        return countOccurrencesBefore(end.plusDays(1)) - countOccurrencesBefore(start);
+    }
+    
+    // Occurrences between the two dates (both inclusive), in order
+    public List<LocalDate> getDueDatesBetween(LocalDate start, LocalDate end) {
+        if (frequency == null || startDate == null) {
+            return new ArrayList<>();
+        }
+        return datesBetween(startDate, start, end);
+    }
+    
+    // First due date after the date, continuing from the next due date
+    public LocalDate getFirstDueDateAfter(LocalDate date) {
+        LocalDate anchor = dueAnchor();
+        return occurrence(anchor, countBefore(anchor, date.plusDays(1)));
+    }
+    
+    // Get all due dates up to a certain date, from the next due date on
     public List<LocalDate> getDueDatesUpTo(LocalDate endDate) {
-        List<LocalDate> dueDates = new ArrayList<>();
-        LocalDate current = startDate;
-        
-        while (!current.isAfter(endDate) && isActive) {
-            if (!current.isBefore(nextDueDate)) {
-                dueDates.add(current);
-            }
-            current = getNextDateForFrequency(current);
+        if (!isActive || frequency == null || nextDueDate == null) {
+            return new ArrayList<>();
         }
-        
-        return dueDates;
+        return datesBetween(dueAnchor(), nextDueDate, endDate);
     }
     
-    // Get the next date for a given frequency
-    private LocalDate getNextDateForFrequency(LocalDate date) {
+    // The date due dates are counted from: the start date while nextDueDate is one of its
+    // occurrences, otherwise nextDueDate
+    private LocalDate dueAnchor() {
+        if (startDate == null || nextDueDate == null || nextDueDate.isBefore(startDate)) {
+            return nextDueDate != null ? nextDueDate : startDate;
+        }
+        return getOccurrence(countOccurrencesBefore(nextDueDate)).equals(nextDueDate) ? startDate : nextDueDate;
+    }
+    
+    private LocalDate occurrence(LocalDate anchor, long k) {
         switch (frequency) {
             case DAILY:
-                return date.plusDays(1);
+                return anchor.plusDays(k);
             case WEEKLY:
-                return date.plusWeeks(1);
+                return anchor.plusWeeks(k);
             case FOUR_WEEKLY:
-                return date.plusWeeks(4);
+                return anchor.plusWeeks(4 * k);
             case MONTHLY:
-                return date.plusMonths(1);
+                return anchor.plusMonths(k);
             case QUARTERLY:
-                return date.plusMonths(3);
+                return anchor.plusMonths(3 * k);
             case YEARLY:
-                return date.plusYears(1);
+                return anchor.plusYears(k);
             default:
-                return date;
+                return anchor;
         }
     }
     
-    // Calculate total amount for a date range
-    public double calculateTotalForDateRange(LocalDate start, LocalDate end) {
-        if (!isActive) return 0.0;
-        
-        long count = 0;
-        LocalDate current = startDate;
-        
-        while (!current.isAfter(end) && !current.isBefore(start)) {
-            count++;
-            current = getNextDateForFrequency(current);
+    // Occurrences counted from the anchor that fall before the date
+    private long countBefore(LocalDate anchor, LocalDate date) {
+        if (!date.isAfter(anchor)) {
+            return 0;
+        }
+        int days = periodDays();
+        if (days > 0) {
+            return Math.floorDiv(ChronoUnit.DAYS.between(anchor, date) + days - 1, days);
         }
+        // Estimate from the calendar months between the two, then correct for the day of month;
+        // clamping moves an occurrence by less than a month, so this takes at most a step or two
+        long months = (date.getYear() * 12L + date.getMonthValue()) - (anchor.getYear() * 12L + anchor.getMonthValue());
+        long k = Math.max(0, months / periodMonths());
+        while (k > 0 && !occurrence(anchor, k - 1).isBefore(date)) {
+            k--;
+        }
+        while (occurrence(anchor, k).isBefore(date)) {
+            k++;
+        }
+        return k;
+    }
+    
+    private List<LocalDate> datesBetween(LocalDate anchor, LocalDate start, LocalDate end) {
+        List<LocalDate> dueDates = new ArrayList<>();
+        if (end.isBefore(start)) {
+            return dueDates;
+        }
+        long last = countBefore(anchor, end.plusDays(1));
+        for (long k = countBefore(anchor, start); k < last; k++) {
+            dueDates.add(occurrence(anchor, k));
+        }
+        return dueDates;
+    }
+    
+    // Calculate total amount for a date range, in minor units
+    public long calculateTotalForDateRange(LocalDate start, LocalDate end) {
+        if (!isActive) return 0;
         
-        return count * getAmount();
+        return countOccurrences(start, end) * getAmountMinorUnits();
+    }
+    
+    // Length of a period in days, or 0 for frequencies counted in months
+    private int periodDays() {
+        switch (frequency) {
+            case DAILY:
+                return 1;
+            case WEEKLY:
+                return 7;
+            case FOUR_WEEKLY:
+                return 28;
+            default:
+                return 0;
+        }
+    }
+    
+    private int periodMonths() {
+        switch (frequency) {
+            case QUARTERLY:
+                return 3;
+            case YEARLY:
+                return 12;
+            default:
+                return 1;
+        }
     }
     
     // Static method to get all frequency options
@@ -4,19 +4,43 @@ import java.util.List;
 
 public abstract class Transaction {
     protected String id;
-    protected double amount;
+    protected long amountMinorUnits; // see Money
     protected LocalDate date;
     protected String description;
     
     // Constructors
     public Transaction() {}
     
+    // Builds a stored transaction: an Income when the type is "INCOME" and an Expense for anything
+    // else, as every storage layout records them. The recurring ID only applies to expenses.
+    public static Transaction of(String transactionType, String id, long amountMinorUnits, LocalDate date,
+            String description, String category, String originalRecurringId) {
+        Transaction transaction;
+        if ("INCOME".equals(transactionType)) {
+            transaction = new Income();
+        } else {
+            Expense expense = new Expense();
+            expense.setOriginalRecurringId(originalRecurringId);
+            transaction = expense;
+        }
+        transaction.setId(id);
+        transaction.setAmountMinorUnits(amountMinorUnits);
+        transaction.setDate(date);
+        transaction.setDescription(description);
+        transaction.setCategory(category);
+        return transaction;
+    }
+    
     // Getters and Setters
     public String getId() { return id; }
     public void setId(String id) { this.id = id; }
     
-    public double getAmount() { return amount; }
-    public void setAmount(double amount) { this.amount = amount; }
+    public long getAmountMinorUnits() { return amountMinorUnits; }
+    public void setAmountMinorUnits(long amountMinorUnits) { this.amountMinorUnits = amountMinorUnits; }
+    
+    // Convenience views in major units for input and display
+    public double getAmount() { return Money.toMajor(amountMinorUnits); }
+    public void setAmount(double amount) { this.amountMinorUnits = Money.toMinorUnits(amount); }
     
     public LocalDate getDate() { return date; }
     public void setDate(LocalDate date) { this.date = date; }
@@ -15,7 +15,8 @@ public class MenuSystem {
         "3. [RECURRING] Add Recurring Expense",
         "4. [REMOVE] Remove Transaction",
         "5. [FIND] Find Transaction by ID",
-        "6. [BACK] Back to Main Menu"
+        "6. [SEARCH] Search Descriptions",
+        "7. [BACK] Back to Main Menu"
     };
     
     private static final String[] VIEWING_MENU_ITEMS = {
@@ -35,7 +36,8 @@ public class MenuSystem {
         "2. [CATEGORY] Category Spending Analysis",
         "3. [YTD] Year-to-Date Summary",
         "4. [INSIGHTS] Spending Insights",
-        "5. [BACK] Back to Main Menu"
+        "5. [PERCENTILE] Expense Percentiles",
+        "6. [BACK] Back to Main Menu"
     };
     
     private static final String[] RECURRING_EXPENSE_MENU_ITEMS = {
@@ -5,10 +5,12 @@ import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class UserInputHandler {
     private static final Scanner scanner = new Scanner(System.in);
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final AtomicLong ID_SEQUENCE = new AtomicLong();
     
     public static int getIntInput(String prompt) {
         while (true) {
@@ -95,7 +97,9 @@ public class UserInputHandler {
         return scanner.nextLine().trim();
     }
     
+    // IDs key the managers' indexes and the journal, so they must not repeat; a random suffix could
+    // collide, while the per-process sequence cannot even within one millisecond
     public static String generateId() {
-        return "TXN_" + System.currentTimeMillis() + "_" + (int)(Math.random() * 1000);
+        return "TXN_" + System.currentTimeMillis() + "_" + ID_SEQUENCE.incrementAndGet();
     }
 }
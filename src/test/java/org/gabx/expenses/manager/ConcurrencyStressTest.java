@@ -0,0 +1,152 @@
+package org.gabx.expenses.manager;
+
+import org.gabx.expenses.persistence.InMemoryStorageEngine;
+import org.gabx.expenses.persistence.StorageEngine;
+import org.gabx.expenses.transactions.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.gabx.expenses.manager.TransactionManagerTest.expense;
+import static org.gabx.expenses.manager.TransactionManagerTest.income;
+
+/**
+ * Managers shared between importer and report threads.
+ */
+public class ConcurrencyStressTest {
+    private static final LocalDate ORIGIN = LocalDate.of(2024, 1, 1);
+    
+    @Test
+    public void testTotalsHoldUnderContention() throws Exception {
+        TransactionManager manager = new TransactionManager(new InMemoryStorageEngine());
+        int writers = 8;
+        int perWriter = 500;
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+        
+        // Readers check that every view they get is internally consistent while writes land
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 4; r++) {
+            readers.add(new Thread(() -> {
+                while (writing.get()) {
+                    ReportSnapshot report = manager.getLifetimeSnapshot();
+                    if (Money.toMinorUnits(report.getTotalExpenses()) != report.getExpenseCount() * 125) {
+                        failures.add("report " + report.getTotalExpenses() + " for " + report.getExpenseCount());
+                    }
+                    TransactionSnapshot snapshot = manager.getSnapshot();
+                    int seen = 0;
+                    for (Transaction ignored : snapshot) {
+                        seen++;
+                    }
+                    if (seen != snapshot.size()) {
+                        failures.add("snapshot iterated " + seen + " of " + snapshot.size());
+                    }
+                    manager.query(TransactionQuery.all().between(ORIGIN, ORIGIN.plusDays(30)).limit(5));
+                }
+            }));
+        }
+        readers.forEach(Thread::start);
+        
+        runConcurrently(writers, thread -> {
+            for (int i = 0; i < perWriter; i++) {
+                LocalDate date = ORIGIN.plusDays((thread * 31 + i) % 365);
+                manager.addTransaction(expense("E" + thread + "-" + i, 1.25, date));
+                if (i % 5 == 0) {
+                    manager.addTransaction(income("I" + thread + "-" + i, 10.0, date));
+                }
+                if (i % 10 == 9) {
+                    manager.removeTransaction("E" + thread + "-" + (i - 1));
+                }
+            }
+        });
+        writing.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        
+        assertTrue(failures.isEmpty(), failures.toString());
+        long expenses = writers * (perWriter - perWriter / 10);
+        long incomes = writers * (perWriter / 5);
+        assertEquals(expenses, manager.getExpenseCount());
+        assertEquals(incomes, manager.getIncomeCount());
+        assertEquals(Money.toMajor(expenses * 125), manager.getTotalExpenses(), 0.0001);
+        assertEquals(Money.toMajor(expenses * 125), manager.getTotalExpenses(ORIGIN, ORIGIN.plusDays(365)), 0.0001);
+        assertEquals(expenses + incomes, manager.getSnapshot().size());
+    }
+    
+    @Test
+    public void testConcurrentCatchUpGeneratesEachOccurrenceOnce() throws Exception {
+        StorageEngine storage = new InMemoryStorageEngine();
+        TransactionManager transactions = new TransactionManager(storage);
+        RecurringExpenseManager recurring = new RecurringExpenseManager(transactions, storage);
+        LocalDate start = LocalDate.now().minusDays(59);
+        for (int i = 0; i < 10; i++) {
+            recurring.addRecurringExpense(RecurringExpenseManagerTest.daily("C" + i, start));
+        }
+        
+        runConcurrently(8, thread -> recurring.processOverdueRecurringExpenses());
+        assertEquals(10 * 60, transactions.getExpenseCount());
+    }
+    
+    // Mixed load of 90% reads and 10% writes; ThroughputBenchmark times the same load at growing
+    // thread counts
+    @Test
+    public void testMixedLoadKeepsEveryWrite() throws Exception {
+        TransactionManager manager = new TransactionManager(new InMemoryStorageEngine());
+        int threads = 8;
+        int perThread = 1000;
+        runConcurrently(threads, thread -> mixedLoad(manager, thread, perThread));
+        
+        int writes = threads * ((perThread + 9) / 10);
+        assertEquals(writes, manager.getExpenseCount());
+        assertEquals(writes * 2.0, manager.getTotalExpenses(), 0.0001);
+    }
+    
+    static void mixedLoad(TransactionManager manager, int thread, int operations) {
+        for (int i = 0; i < operations; i++) {
+            LocalDate date = ORIGIN.plusDays(i % 365);
+            if (i % 10 == 0) {
+                manager.addTransaction(expense("T" + thread + "-" + i, 2.0, date));
+            } else {
+                manager.getTotalExpenses(date.minusDays(30), date);
+            }
+        }
+    }
+    
+    interface Work {
+        void run(int thread) throws Exception;
+    }
+    
+    // Starts the threads together and rethrows the first failure
+    static void runConcurrently(int threads, Work work) throws Exception {
+        CountDownLatch ready = new CountDownLatch(1);
+        ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        List<Thread> started = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    ready.await();
+                    work.run(thread);
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+            worker.start();
+            started.add(worker);
+        }
+        ready.countDown();
+        for (Thread worker : started) {
+            worker.join();
+        }
+        if (!errors.isEmpty()) {
+            throw new AssertionError("Worker failed", errors.peek());
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.gabx.expenses.manager;
+
+import org.gabx.expenses.persistence.InMemoryStorageEngine;
+import org.gabx.expenses.persistence.StorageEngine;
+import org.gabx.expenses.transactions.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+/**
+ * Recurring expense processing against the in-memory storage engine.
+ */
+public class RecurringExpenseManagerTest {
+    
+    @Test
+    public void testCatchUpIsIdempotent() {
+        StorageEngine storage = new InMemoryStorageEngine();
+        TransactionManager transactions = new TransactionManager(storage);
+        RecurringExpenseManager manager = new RecurringExpenseManager(transactions, storage);
+        
+        LocalDate today = LocalDate.now();
+        LocalDate start = today.minusYears(3);
+        RecurringExpense coffee = daily("R1", start);
+        manager.addRecurringExpense(coffee);
+        
+        List<Expense> generated = manager.processOverdueRecurringExpenses();
+        long days = ChronoUnit.DAYS.between(start, today) + 1;
+        assertEquals(days, generated.size());
+        assertTrue(transactions.hasRecurringOccurrence("R1", start));
+        assertTrue(transactions.hasRecurringOccurrence("R1", today));
+        assertFalse(transactions.hasRecurringOccurrence("R1", start.minusDays(1)));
+        assertFalse(transactions.hasRecurringOccurrence("R2", today));
+        
+        // Rewinding the template must not generate any period twice; changes go through the manager
+        // so its due-date schedule sees them
+        coffee.setNextDueDate(start);
+        manager.updateRecurringExpense("R1", coffee);
+        assertTrue(manager.processOverdueRecurringExpenses().isEmpty());
+        assertEquals(days, transactions.getAllTransactions().size());
+        
+        // Once the generated instance is removed the date is free again
+        transactions.removeTransaction(generated.get(0).getId());
+        assertFalse(transactions.hasRecurringOccurrence("R1", start));
+        coffee.setNextDueDate(start);
+        manager.updateRecurringExpense("R1", coffee);
+        assertEquals(1, manager.processOverdueRecurringExpenses().size());
+    }
+    
+    @Test
+    public void testOccurrencesAreCountedWithoutStepping() {
+        RecurringExpense rent = daily("R1", LocalDate.of(2024, 1, 31));
+        rent.setFrequency(RecurringExpense.Frequency.MONTHLY);
+        rent.setNextDueDate(rent.getStartDate());
+        assertEquals(List.of(LocalDate.of(2024, 1, 31), LocalDate.of(2024, 2, 29), LocalDate.of(2024, 3, 31),
+            LocalDate.of(2024, 4, 30)), rent.getDueDatesUpTo(LocalDate.of(2024, 5, 30)));
+        assertEquals(LocalDate.of(2024, 5, 31), rent.getFirstDueDateAfter(LocalDate.of(2024, 5, 30)));
+        
+        // Ranges that start after the schedule does still count what falls inside them
+        assertEquals(350, rent.calculateTotalForDateRange(LocalDate.of(2025, 6, 1), LocalDate.of(2025, 6, 30)));
+        RecurringExpense coffee = daily("R2", LocalDate.of(2000, 1, 1));
+        assertEquals(30 * 350, coffee.calculateTotalForDateRange(LocalDate.of(2030, 4, 1), LocalDate.of(2030, 4, 30)));
+        assertEquals(0, coffee.calculateTotalForDateRange(LocalDate.of(1999, 1, 1), LocalDate.of(1999, 12, 31)));
+        
+        // Every frequency agrees with a walk over the occurrences
+        java.util.Random random = new java.util.Random(7);
+        for (RecurringExpense.Frequency frequency : RecurringExpense.Frequency.values()) {
+            RecurringExpense template = daily("R3", LocalDate.of(2023, 8, 31));
+            template.setFrequency(frequency);
+            for (int i = 0; i < 200; i++) {
+                LocalDate from = LocalDate.of(2023, 1, 1).plusDays(random.nextInt(2000));
+                LocalDate to = from.plusDays(random.nextInt(800));
+                long expected = 0;
+                for (long k = 0; !template.getOccurrence(k).isAfter(to); k++) {
+                    if (!template.getOccurrence(k).isBefore(from)) {
+                        expected++;
+                    }
+                }
+                assertEquals(expected, template.countOccurrences(from, to), frequency + " " + from + ".." + to);
+            }
+        }
+    }
+    
+    @Test
+    public void testOffScheduleDueDatesContinueFromTheNextDueDate() {
+        // Saved by the old month-by-month stepping, which drifted to the 28th after February
+        RecurringExpense rent = daily("R4", LocalDate.of(2024, 1, 31));
+        rent.setFrequency(RecurringExpense.Frequency.MONTHLY);
+        rent.setNextDueDate(LocalDate.of(2024, 3, 28));
+        assertEquals(List.of(LocalDate.of(2024, 3, 28), LocalDate.of(2024, 4, 28), LocalDate.of(2024, 5, 28)),
+            rent.getDueDatesUpTo(LocalDate.of(2024, 6, 27)));
+        assertEquals(LocalDate.of(2024, 6, 28), rent.getFirstDueDateAfter(LocalDate.of(2024, 5, 28)));
+        
+        // Catch-up generates those same dates, and rewinding finds them as already generated
+        StorageEngine storage = new InMemoryStorageEngine();
+        TransactionManager transactions = new TransactionManager(storage);
+        RecurringExpenseManager manager = new RecurringExpenseManager(transactions, storage);
+        manager.addRecurringExpense(rent);
+        List<Expense> generated = manager.processOverdueRecurringExpenses();
+        assertTrue(generated.stream().allMatch(expense -> expense.getDate().getDayOfMonth() == 28));
+        assertTrue(transactions.hasRecurringOccurrence("R4", LocalDate.of(2024, 4, 28)));
+        assertFalse(transactions.hasRecurringOccurrence("R4", LocalDate.of(2024, 4, 30)));
+        
+        rent.setNextDueDate(LocalDate.of(2024, 3, 28));
+        manager.updateRecurringExpense("R4", rent);
+        assertTrue(manager.processOverdueRecurringExpenses().isEmpty());
+        assertEquals(generated.size(), transactions.getExpenseCount());
+    }
+    
+    @Test
+    public void testDueQueriesFollowTheSchedule() {
+        StorageEngine storage = new InMemoryStorageEngine();
+        RecurringExpenseManager manager = new RecurringExpenseManager(new TransactionManager(storage), storage);
+        LocalDate today = LocalDate.now();
+        for (int i = 0; i < 50; i++) {
+            RecurringExpense template = daily("S" + i, today.minusDays(10));
+            template.setFrequency(RecurringExpense.Frequency.MONTHLY);
+            template.setNextDueDate(today.plusDays(i - 10));
+            manager.addRecurringExpense(template);
+        }
+        manager.toggleRecurringExpenseStatus("S12");
+        
+        List<RecurringExpense> upcoming = manager.getUpcomingRecurringExpenses(5);
+        assertEquals(List.of("S10", "S11", "S13", "S14", "S15"),
+            upcoming.stream().map(RecurringExpense::getId).collect(java.util.stream.Collectors.toList()));
+        assertEquals(today.minusDays(10), manager.getNextDueDate());
+        assertEquals(12, manager.getRecurringExpensesDueOn(today.plusDays(2)).size());
+        assertEquals(3, manager.getRecurringExpensesDueBetween(today.plusDays(37), today.plusDays(60)).size());
+        
+        // Processing moves each template to its next occurrence, out of the overdue range
+        manager.processRecurringExpenses(today.minusDays(1));
+        assertTrue(manager.getRecurringExpensesDueOn(today.minusDays(1)).isEmpty());
+        assertEquals(today.minusDays(10).plusMonths(1), manager.findRecurringExpenseById("S0").getNextDueDate());
+        
+        manager.toggleRecurringExpenseStatus("S12");
+        manager.removeRecurringExpense("S13");
+        assertEquals(List.of("S10", "S11", "S12", "S14", "S15"), manager.getUpcomingRecurringExpenses(5).stream()
+            .map(RecurringExpense::getId).collect(java.util.stream.Collectors.toList()));
+    }
+    
+    @Test
+    public void testTemplatesKeepInsertionOrderAcrossRemovals() {
+        StorageEngine storage = new InMemoryStorageEngine();
+        RecurringExpenseManager manager = new RecurringExpenseManager(new TransactionManager(storage), storage);
+        LocalDate start = LocalDate.now().plusDays(1);
+        for (int i = 0; i < 8; i++) {
+            manager.addRecurringExpense(daily("T" + i, start));
+        }
+        manager.removeRecurringExpense("T1");
+        assertEquals(List.of("T0", "T2", "T3", "T4", "T5", "T6", "T7"), ids(manager.getAllRecurringExpenses()));
+        
+        // Enough removals to compact the list, then a replacement and an add
+        for (String id : List.of("T0", "T3", "T5", "T6")) {
+            manager.removeRecurringExpense(id);
+        }
+        manager.updateRecurringExpense("T4", daily("T4", start.plusDays(1)));
+        manager.addRecurringExpense(daily("T8", start));
+        assertEquals(List.of("T2", "T4", "T7", "T8"), ids(manager.getAllRecurringExpenses()));
+        assertEquals(start.plusDays(1), manager.findRecurringExpenseById("T4").getStartDate());
+        assertEquals(List.of("T2", "T4", "T7", "T8"), ids(new RecurringExpenseManager(
+            new TransactionManager(storage), storage).getAllRecurringExpenses()));
+    }
+    
+    private static List<String> ids(List<RecurringExpense> templates) {
+        return templates.stream().map(RecurringExpense::getId).collect(java.util.stream.Collectors.toList());
+    }
+    
+    static RecurringExpense daily(String id, LocalDate start) {
+        RecurringExpense recurring = new RecurringExpense();
+        recurring.setId(id);
+        recurring.setAmount(3.50);
+        recurring.setDescription("Test " + id);
+        recurring.setCategory("Restaurants");
+        recurring.setFrequency(RecurringExpense.Frequency.DAILY);
+        recurring.setStartDate(start);
+        recurring.setNextDueDate(start);
+        return recurring;
+    }
+}
@@ -0,0 +1,61 @@
+package org.gabx.expenses.manager;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.YearMonth;
+import java.util.function.Supplier;
+
+/**
+ * Hits, period-based invalidation and eviction of the report cache.
+ */
+public class ReportCacheTest {
+    private static final YearMonth MARCH = YearMonth.of(2024, 3);
+    private static final YearMonth APRIL = YearMonth.of(2024, 4);
+    
+    private int computed;
+    private final Supplier<String> compute = () -> "value " + ++computed;
+    
+    @Test
+    public void testRepeatedLookupsHit() {
+        ReportCache cache = new ReportCache(3);
+        cache.get("month", MARCH, MARCH, compute);
+        cache.get("month", APRIL, APRIL, compute);
+        assertEquals("value 1", cache.get("month", MARCH, MARCH, compute));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+    
+    @Test
+    public void testInvalidationEvictsOnlyOverlappingPeriods() {
+        ReportCache cache = new ReportCache(3);
+        cache.get("month", MARCH, MARCH, compute);
+        cache.get("month", APRIL, APRIL, compute);
+        cache.get("year", YearMonth.of(2024, 1), YearMonth.of(2024, 12), compute);
+        
+        cache.invalidate(APRIL);
+        assertEquals("value 1", cache.get("month", MARCH, MARCH, compute));
+        assertEquals("value 4", cache.get("month", APRIL, APRIL, compute));
+        assertEquals("value 5", cache.get("year", YearMonth.of(2024, 1), YearMonth.of(2024, 12), compute));
+    }
+    
+    @Test
+    public void testUnboundedEntriesAreEvictedByAnyMonth() {
+        ReportCache cache = new ReportCache(3);
+        cache.get("lifetime", null, null, compute);
+        cache.invalidate(YearMonth.of(1999, 1));
+        assertEquals("value 2", cache.get("lifetime", null, null, compute));
+    }
+    
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvictedFirst() {
+        ReportCache cache = new ReportCache(2);
+        cache.get("month", MARCH, MARCH, compute);
+        cache.get("month", APRIL, APRIL, compute);
+        cache.get("month", MARCH, MARCH, compute);
+        cache.get("lifetime", null, null, compute);
+        
+        assertEquals("value 1", cache.get("month", MARCH, MARCH, compute));
+        assertEquals("value 4", cache.get("month", APRIL, APRIL, compute));
+    }
+}
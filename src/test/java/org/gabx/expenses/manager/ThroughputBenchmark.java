@@ -0,0 +1,30 @@
+package org.gabx.expenses.manager;
+
+import org.gabx.expenses.persistence.InMemoryStorageEngine;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Throughput of the transaction manager under a mixed load, at growing thread counts. Not part
+ * of the default test run; run it with mvn test -Pbenchmark.
+ */
+public class ThroughputBenchmark {
+    
+    // Prints the throughput curve; timings depend on the machine, so only the writes are checked
+    @Test
+    public void testThroughputCurve() throws Exception {
+        int operations = 32_000;
+        System.out.println("threads  ops/s");
+        for (int threads = 1; threads <= 32; threads *= 2) {
+            TransactionManager manager = new TransactionManager(new InMemoryStorageEngine());
+            int perThread = operations / threads;
+            long start = System.nanoTime();
+            ConcurrencyStressTest.runConcurrently(threads,
+                thread -> ConcurrencyStressTest.mixedLoad(manager, thread, perThread));
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%7d  %,.0f%n", threads, operations / seconds);
+            
+            assertEquals(threads * ((perThread + 9) / 10), manager.getExpenseCount());
+        }
+    }
+}
@@ -0,0 +1,713 @@
+package org.gabx.expenses.manager;
+
+import org.gabx.expenses.persistence.DataPersistenceService;
+import org.gabx.expenses.persistence.InMemoryStorageEngine;
+import org.gabx.expenses.persistence.StorageEngine;
+import org.gabx.expenses.persistence.StorageLayout;
+import org.gabx.expenses.transactions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Manager behaviour against the in-memory storage engine.
+ */
+public class TransactionManagerTest {
+    
+    @Test
+    public void testChangesReachTheSharedEngine() {
+        StorageEngine storage = new InMemoryStorageEngine();
+        TransactionManager manager = new TransactionManager(storage);
+        manager.addTransaction(income("I1", 2000.0, LocalDate.of(2024, 3, 1)));
+        manager.addTransaction(expense("E1", 45.5, LocalDate.of(2024, 3, 2)));
+        manager.addTransaction(expense("E2", 12.0, LocalDate.of(2024, 4, 2)));
+        manager.removeTransaction("E2");
+        
+        TransactionManager reloaded = new TransactionManager(storage);
+        assertEquals(2, reloaded.getAllTransactions().size());
+        assertNull(reloaded.findTransactionById("E2"));
+        assertEquals(2000.0, reloaded.getTotalIncome(3, 2024), 0.0001);
+        assertEquals(45.5, reloaded.getTotalExpenses(3, 2024), 0.0001);
+    }
+    
+    @Test
+    public void testDateQueriesComeBackNewestFirst() {
+        TransactionManager manager = new TransactionManager(new InMemoryStorageEngine());
+        manager.addTransaction(expense("A", 1.0, LocalDate.of(2024, 1, 10)));
+        manager.addTransaction(expense("B", 2.0, LocalDate.of(2024, 1, 20)));
+        manager.addTransaction(expense("C", 3.0, LocalDate.of(2024, 1, 10)));
+        manager.addTransaction(expense("D", 4.0, LocalDate.of(2024, 2, 5)));
+        manager.removeTransaction("B");
+        
+        assertEquals(List.of("A", "C"), ids(manager.getTransactionsByDateRange(
+            LocalDate.of(2024, 1, 1), LocalDate.of(2024, 1, 31))));
+        assertEquals(List.of("D", "A"), ids(manager.getRecentTransactions(2)));
+        assertTrue(manager.getTransactionsByDateRange(LocalDate.of(2024, 2, 1), LocalDate.of(2024, 1, 1)).isEmpty());
+    }
+    
+    @Test
+    public void testIdIndexStaysConsistentAcrossRemovals() {
+        TransactionManager manager = new TransactionManager(new InMemoryStorageEngine());
+        for (int i = 0; i < 5; i++) {
+            manager.addTransaction(expense("E" + i, i, LocalDate.of(2024, 5, 1 + i)));
+        }
+        manager.removeTransaction("E1");
+        manager.removeTransaction("E4");
+        manager.removeTransaction("missing");
+        
+        assertNull(manager.findTransactionById("E1"));
+        assertEquals(3, manager.getAllTransactions().size());
+        for (String id : List.of("E0", "E2", "E3")) {
+            assertEquals(id, manager.findTransactionById(id).getId());
+        }
+        
+        // Re-adding an existing ID replaces the earlier transaction everywhere
+        manager.addTransaction(expense("E2", 99.0, LocalDate.of(2024, 6, 1)));
+        assertEquals(3, manager.getAllTransactions().size());
+        assertEquals(99.0, manager.getTotalExpenses(6, 2024), 0.0001);
+        assertEquals(3.0, manager.getTotalExpenses(5, 2024), 0.0001);
+        assertEquals(List.of("E2", "E3", "E0"), ids(manager.getRecentTransactions(10)));
+    }
+    
+    @Test
+    public void testRollupsFollowAddsAndRemovals() {
+        TransactionManager manager = new TransactionManager(new InMemoryStorageEngine());
+        manager.addTransaction(income("I1", 1000.0, LocalDate.of(2024, 1, 31)));
+        manager.addTransaction(expense("E1", 20.0, LocalDate.of(2024, 1, 5)));
+        manager.addTransaction(expense("E2", 30.0, LocalDate.of(2024, 1, 6)));
+        manager.addTransaction(expense("E3", 40.0, LocalDate.of(2024, 3, 6)));
+        manager.removeTransaction("E2");
+        
+        assertEquals(20.0, manager.getTotalExpenses(1, 2024), 0.0001);
+        assertEquals(Map.of("Groceries", 20.0), manager.getExpensesByCategory(1, 2024));
+        assertEquals(Map.of(1, 20.0, 3, 40.0), manager.getMonthlyExpenses(2024));
+        assertEquals(Map.of(1, 1000.0), manager.getMonthlyIncome(2024));
+        assertEquals(60.0, manager.getTotalExpensesForYear(2024), 0.0001);
+        assertEquals(1000.0, manager.getTotalIncome(), 0.0001);
+        assertEquals(2, manager.getExpenseCount());
+        assertEquals(LocalDate.of(2024, 1, 5), manager.getEarliestDate());
+        assertEquals(0.0, manager.getTotalIncome(13, 2024));
+        
+        manager.removeTransaction("E3");
+        assertFalse(manager.getMonthlyExpenses(2024).containsKey(3));
+    }
+    
+    @Test
+    public void testDayRangeTotalsScanColumns() {
+        TransactionManager manager = new TransactionManager(new InMemoryStorageEngine());
+        manager.addTransaction(income("I1", 100.25, LocalDate.of(2024, 2, 10)));
+        manager.addTransaction(expense("E1", 10.10, LocalDate.of(2024, 2, 9)));
+        manager.addTransaction(expense("E2", 20.20, LocalDate.of(2024, 2, 11)));
+        manager.addTransaction(expense("E3", 30.30, LocalDate.of(2024, 2, 12)));
+        manager.removeTransaction("E2");
+        manager.addTransaction(expense("E4", 5.00, LocalDate.of(2024, 2, 11)));
+        
+        LocalDate from = LocalDate.of(2024, 2, 10);
+        LocalDate to = LocalDate.of(2024, 2, 12);
+        assertEquals(35.30, manager.getTotalExpenses(from, to), 0.0001);
+        assertEquals(100.25, manager.getTotalIncome(from, to), 0.0001);
+        assertEquals(2, manager.getExpenseCount(from, to));
+        assertEquals(Map.of("Groceries", 2, "Salary", 1), manager.getCategoryCounts(from, to));
+        assertEquals(0.0, manager.getTotalExpenses(to, from));
+    }
+    
+    @Test
+    public void testCategoryIdsArePersistedAndStable() throws Exception {
+        CategoryRegistry registry = CategoryRegistry.getInstance();
+        StorageEngine storage = new InMemoryStorageEngine();
+        TransactionManager manager = new TransactionManager(storage);
+        assertTrue(manager.addCategory(CategoryRegistry.Kind.EXPENSE, "Pets"));
+        assertFalse(manager.addCategory(CategoryRegistry.Kind.EXPENSE, "Pets"));
+        
+        List<String> savedIds = storage.loadCategories().get("ids");
+        int pets = registry.lookup("Pets");
+        assertEquals("Pets", savedIds.get(pets));
+        assertTrue(storage.loadCategories().get("expense").contains("Pets"));
+        
+        // Names registered from many threads at once still get exactly one ID each
+        Thread[] threads = new Thread[8];
+        int[][] seen = new int[threads.length][50];
+        for (int t = 0; t < threads.length; t++) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 50; i++) {
+                    seen[thread][i] = registry.idOf("Concurrent " + i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int i = 0; i < 50; i++) {
+            assertEquals("Concurrent " + i, registry.nameOf(seen[0][i]));
+            for (int[] ids : seen) {
+                assertEquals(seen[0][i], ids[i]);
+            }
+        }
+        
+        new TransactionManager(storage);
+        assertEquals(pets, registry.lookup("Pets"));
+    }
+    
+    @Test
+    public void testReplacingAMenuNeverShowsItEmpty() throws Exception {
+        CategoryRegistry registry = CategoryRegistry.getInstance();
+        List<String> menu = registry.getCategories(CategoryRegistry.Kind.EXPENSE);
+        java.util.concurrent.atomic.AtomicBoolean done = new java.util.concurrent.atomic.AtomicBoolean();
+        java.util.concurrent.atomic.AtomicInteger emptyReads = new java.util.concurrent.atomic.AtomicInteger();
+        Thread reader = new Thread(() -> {
+            while (!done.get()) {
+                if (registry.getCategories(CategoryRegistry.Kind.EXPENSE).isEmpty()
+                        || !registry.contains(CategoryRegistry.Kind.EXPENSE, menu.get(0))) {
+                    emptyReads.incrementAndGet();
+                }
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 100_000; i++) {
+            registry.setCategories(CategoryRegistry.Kind.EXPENSE, menu);
+        }
+        done.set(true);
+        reader.join();
+        assertEquals(0, emptyReads.get());
+        assertEquals(menu, registry.getCategories(CategoryRegistry.Kind.EXPENSE));
+    }
+    
+    @Test
+    public void testPrefixSumsMatchBruteForce() {
+        TransactionManager manager = new TransactionManager(new InMemoryStorageEngine());
+        java.util.Random random = new java.util.Random(42);
+        LocalDate origin = LocalDate.of(2020, 6, 15);
+        for (int i = 0; i < 500; i++) {
+            // Days up to five years either side force the trees to grow in both directions
+            LocalDate date = origin.plusDays(random.nextInt(3650) - 1825);
+            double amount = random.nextInt(100_000) / 100.0;
+            manager.addTransaction(i % 3 == 0 ? income("T" + i, amount, date) : expense("T" + i, amount, date));
+        }
+        for (int i = 0; i < 100; i++) {
+            manager.removeTransaction("T" + random.nextInt(500));
+        }
+        
+        List<Transaction> all = manager.getAllTransactions();
+        for (int i = 0; i < 50; i++) {
+            LocalDate from = origin.plusDays(random.nextInt(4000) - 2000);
+            LocalDate to = from.plusDays(random.nextInt(1500));
+            long income = 0, expenses = 0, groceries = 0, through = 0;
+            for (Transaction t : all) {
+                long amount = t.getAmountMinorUnits();
+                long signed = t instanceof Income ? amount : -amount;
+                if (!t.getDate().isAfter(to)) {
+                    through += signed;
+                }
+                if (t.getDate().isBefore(from) || t.getDate().isAfter(to)) {
+                    continue;
+                }
+                if (t instanceof Income) {
+                    income += amount;
+                } else {
+                    expenses += amount;
+                    groceries += amount;
+                }
+            }
+            assertEquals(Money.toMajor(income), manager.getTotalIncome(from, to), 0.0001);
+            assertEquals(Money.toMajor(expenses), manager.getTotalExpenses(from, to), 0.0001);
+            assertEquals(Money.toMajor(income - expenses), manager.sumBetween(from, to), 0.0001);
+            assertEquals(Money.toMajor(groceries), manager.getCategoryTotal("Groceries", from, to), 0.0001);
+            assertEquals(Money.toMajor(through), manager.balanceAsOf(to), 0.0001);
+        }
+    }
+    
+    @Test
+    public void testDistantDatesKeepRangeSumsExact() {
+        TransactionManager manager = new TransactionManager(new InMemoryStorageEngine());
+        manager.addTransaction(income("I1", 100.00, LocalDate.of(1, 1, 1)));
+        manager.addTransaction(expense("E1", 40.00, LocalDate.of(2024, 6, 15)));
+        manager.addTransaction(income("I2", 5.00, LocalDate.of(9999, 12, 31)));
+        
+        assertEquals(100.00, manager.balanceAsOf(LocalDate.of(1, 1, 1)), 0.0001);
+        assertEquals(60.00, manager.balanceAsOf(LocalDate.of(2024, 6, 15)), 0.0001);
+        assertEquals(65.00, manager.balanceAsOf(LocalDate.of(9999, 12, 31)), 0.0001);
+        assertEquals(-40.00, manager.sumBetween(LocalDate.of(2, 1, 1), LocalDate.of(9999, 12, 30)), 0.0001);
+    }
+    
+    @Test
+    public void testBinarySnapshotLoadsWithTheJournalOnTop(@TempDir java.io.File dataDir) {
+        DataPersistenceService binary = new DataPersistenceService(dataDir, StorageLayout.BINARY);
+        binary.saveTransactions(List.of(new DataPersistenceService.TransactionData(expense("A", 1.00, LocalDate.of(2024, 1, 2))),
+            new DataPersistenceService.TransactionData(income("B", 2.00, LocalDate.of(2024, 1, 3))),
+            new DataPersistenceService.TransactionData(expense("C", 4.00, LocalDate.of(2024, 1, 4)))));
+        binary.appendTransaction(expense("A", 8.00, LocalDate.of(2024, 2, 1)));
+        binary.appendRemoval(expense("C", 4.00, LocalDate.of(2024, 1, 4)));
+        binary.appendTransaction(expense("D", 16.00, LocalDate.of(2024, 2, 2)));
+        binary.close();
+        
+        DataPersistenceService reopened = new DataPersistenceService(dataDir, StorageLayout.BINARY);
+        TransactionManager manager = new TransactionManager(reopened);
+        assertEquals(List.of("A", "B", "D"), manager.getAllTransactions().stream()
+            .map(Transaction::getId).sorted().collect(Collectors.toList()));
+        assertEquals(24.00, manager.getTotalExpenses(), 0.0001);
+        assertEquals(2.00, manager.getTotalIncome(), 0.0001);
+        assertEquals(LocalDate.of(2024, 2, 1), manager.findTransactionById("A").getDate());
+        assertEquals(8.00, manager.getCategoryTotal("Groceries", LocalDate.of(2024, 2, 1), LocalDate.of(2024, 2, 1)), 0.0001);
+        reopened.close();
+    }
+    
+    @Test
+    public void testReportSnapshotAgreesWithTheIndexes() {
+        TransactionManager manager = new TransactionManager(new InMemoryStorageEngine());
+        java.util.Random random = new java.util.Random(7);
+        for (int i = 0; i < 300; i++) {
+            LocalDate date = LocalDate.of(2022, 1, 1).plusDays(random.nextInt(1095));
+            double amount = random.nextInt(50_000) / 100.0;
+            manager.addTransaction(i % 4 == 0 ? income("S" + i, amount, date) : expense("S" + i, amount, date));
+        }
+        for (int i = 0; i < 60; i++) {
+            manager.removeTransaction("S" + random.nextInt(300));
+        }
+        
+        ReportSnapshot year = manager.getReportSnapshot(2023);
+        assertEquals(manager.getTotalIncomeForYear(2023), year.getTotalIncome(), 0.0001);
+        assertEquals(manager.getTotalExpensesForYear(2023), year.getTotalExpenses(), 0.0001);
+        assertEquals(manager.getIncomeCount(LocalDate.of(2023, 1, 1), LocalDate.of(2023, 12, 31)), year.getIncomeCount());
+        for (int month = 1; month <= 12; month++) {
+            java.time.YearMonth key = java.time.YearMonth.of(2023, month);
+            assertEquals(manager.getMonthlyIncome(2023).getOrDefault(month, 0.0), year.getMonthlyIncome().getOrDefault(key, 0.0), 0.0001);
+            assertEquals(manager.getMonthlyExpenses(2023).getOrDefault(month, 0.0), year.getMonthlyExpenses().getOrDefault(key, 0.0), 0.0001);
+        }
+        assertEquals(manager.getCategoryTotal("Groceries", LocalDate.of(2023, 1, 1), LocalDate.of(2023, 12, 31)),
+            year.getExpensesByCategory().get("Groceries"), 0.0001);
+        
+        ReportSnapshot lifetime = manager.getLifetimeSnapshot();
+        assertEquals(manager.getTotalIncome(), lifetime.getTotalIncome(), 0.0001);
+        assertEquals(manager.getTotalExpenses(), lifetime.getTotalExpenses(), 0.0001);
+        assertEquals(manager.getIncomeCount() + manager.getExpenseCount(), lifetime.getTransactionCount());
+        assertEquals(manager.getEarliestDate(), lifetime.getFirstDate());
+        assertEquals(manager.getLatestDate(), lifetime.getLastDate());
+    }
+    
+    @Test
+    public void testReportSnapshotsOverPartialMonthsMatchBruteForce() {
+        TransactionManager manager = new TransactionManager(new InMemoryStorageEngine());
+        java.util.Random random = new java.util.Random(11);
+        for (int i = 0; i < 400; i++) {
+            LocalDate date = LocalDate.of(2022, 1, 1).plusDays(random.nextInt(730));
+            double amount = random.nextInt(50_000) / 100.0;
+            manager.addTransaction(i % 3 == 0 ? income("P" + i, amount, date) : expense("P" + i, amount, date));
+        }
+        for (int i = 0; i < 80; i++) {
+            manager.removeTransaction("P" + random.nextInt(400));
+        }
+        
+        List<Transaction> all = manager.getAllTransactions();
+        for (int i = 0; i < 40; i++) {
+            LocalDate from = LocalDate.of(2021, 12, 1).plusDays(random.nextInt(760));
+            LocalDate to = from.plusDays(random.nextInt(120));
+            long income = 0, expenses = 0, count = 0;
+            LocalDate first = null, last = null;
+            for (Transaction t : all) {
+                if (t.getDate().isBefore(from) || t.getDate().isAfter(to)) {
+                    continue;
+                }
+                count++;
+                if (t instanceof Income) {
+                    income += t.getAmountMinorUnits();
+                } else {
+                    expenses += t.getAmountMinorUnits();
+                }
+                first = first == null || t.getDate().isBefore(first) ? t.getDate() : first;
+                last = last == null || t.getDate().isAfter(last) ? t.getDate() : last;
+            }
+            ReportSnapshot snapshot = manager.getReportSnapshot(from, to);
+            assertEquals(Money.toMajor(income), snapshot.getTotalIncome(), 0.0001);
+            assertEquals(Money.toMajor(expenses), snapshot.getTotalExpenses(), 0.0001);
+            assertEquals(Money.toMajor(expenses), snapshot.getExpensesByCategory().getOrDefault("Groceries", 0.0), 0.0001);
+            assertEquals(count, snapshot.getTransactionCount());
+            assertEquals(first, snapshot.getFirstDate());
+            assertEquals(last, snapshot.getLastDate());
+            assertEquals(Money.toMajor(expenses),
+                snapshot.getMonthlyExpenses().values().stream().mapToDouble(Double::doubleValue).sum(), 0.0001);
+        }
+    }
+    
+    @Test
+    public void testSnapshotsAreSharedUntilAChangeAndNeverChange() {
+        TransactionManager manager = new TransactionManager(new InMemoryStorageEngine());
+        for (int i = 0; i < 1200; i++) {
+            manager.addTransaction(expense("V" + i, 1.0, LocalDate.of(2024, 1, 1).plusDays(i % 300)));
+        }
+        TransactionSnapshot first = manager.getSnapshot();
+        assertSame(first, manager.getSnapshot());
+        assertEquals(1200, first.size());
+        
+        manager.removeTransaction("V10");
+        manager.removeTransaction("V700");
+        manager.addTransaction(expense("W1", 2.0, LocalDate.of(2025, 1, 1)));
+        TransactionSnapshot second = manager.getSnapshot();
+        assertTrue(second.getVersion() > first.getVersion());
+        
+        // The earlier snapshot still sees exactly what it saw
+        assertEquals(1200, first.size());
+        assertTrue(ids(first).contains("V10"));
+        assertFalse(ids(first).contains("W1"));
+        assertEquals(1199, second.size());
+        java.util.Set<String> gone = new java.util.HashSet<>(ids(first));
+        gone.removeAll(ids(second));
+        assertEquals(java.util.Set.of("V10", "V700"), gone);
+        for (int i = 0; i < second.size(); i++) {
+            assertEquals(second.get(i).getId(), ids(second).get(i));
+        }
+    }
+    
+    @Test
+    public void testSnapshotsBuildEveryFieldOnAccess() {
+        TransactionManager manager = new TransactionManager(new InMemoryStorageEngine());
+        Expense generated = (Expense) expense("G1", 12.34, LocalDate.of(2024, 2, 3));
+        generated.setOriginalRecurringId("R1");
+        manager.addTransaction(generated);
+        TransactionSnapshot first = manager.getSnapshot();
+        
+        // Enough new recurring IDs to grow the dictionary behind the snapshot's back
+        for (int i = 0; i < 100; i++) {
+            Expense later = (Expense) expense("L" + i, 1.0, LocalDate.of(2024, 3, 1));
+            later.setOriginalRecurringId("R" + (i + 2));
+            manager.addTransaction(later);
+        }
+        
+        Expense copy = (Expense) first.get(0);
+        assertEquals("G1", copy.getId());
+        assertEquals(1234, copy.getAmountMinorUnits());
+        assertEquals(LocalDate.of(2024, 2, 3), copy.getDate());
+        assertEquals("Test G1", copy.getDescription());
+        assertEquals("Groceries", copy.getCategory());
+        assertEquals("R1", copy.getOriginalRecurringId());
+        
+        // Fresh objects each time, so a caller's edit never reaches other readers
+        copy.setAmount(99.0);
+        assertNotSame(copy, first.get(0));
+        assertEquals(1234, first.get(0).getAmountMinorUnits());
+    }
+    
+    @Test
+    public void testMonthPercentilesAreExactWithinTheSketchRange() {
+        TransactionManager manager = new TransactionManager(new InMemoryStorageEngine());
+        addOneToHundred(manager);
+        TransactionManager.Percentiles march = manager.getExpensePercentiles(3, 2024).get("Groceries");
+        assertEquals(100, march.count);
+        assertEquals(50.0, march.median);
+        assertEquals(90.0, march.p90);
+        assertEquals(99.0, march.p99);
+    }
+    
+    @Test
+    public void testRemovalsRebuildTheMonthSketch() {
+        TransactionManager manager = new TransactionManager(new InMemoryStorageEngine());
+        addOneToHundred(manager);
+        for (int i = 91; i <= 100; i++) {
+            manager.removeTransaction("S" + i);
+        }
+        TransactionManager.Percentiles march = manager.getExpensePercentiles(3, 2024).get("Groceries");
+        assertEquals(90, march.count);
+        assertEquals(90.0, march.p99);
+    }
+    
+    @Test
+    public void testMergedYearPercentilesStayWithinRankError() {
+        TransactionManager manager = new TransactionManager(new InMemoryStorageEngine());
+        java.util.Random random = new java.util.Random(3);
+        List<Long> amounts = new java.util.ArrayList<>();
+        for (int i = 0; i < 6000; i++) {
+            long cents = 100 + random.nextInt(100_000);
+            amounts.add(cents);
+            manager.addTransaction(expense("Y" + i, cents / 100.0, LocalDate.of(2023, 1, 1).plusDays(i % 365)));
+        }
+        java.util.Collections.sort(amounts);
+        TransactionManager.Percentiles year = manager.getExpensePercentiles(2023).get(TransactionManager.ALL_CATEGORIES);
+        assertEquals(6000, year.count);
+        for (double[] check : new double[][] { { 0.5, year.median }, { 0.9, year.p90 } }) {
+            int rank = java.util.Collections.binarySearch(amounts, Money.toMinorUnits(check[1]));
+            rank = rank < 0 ? -rank - 1 : rank;
+            assertEquals(check[0], rank / 6000.0, 0.02);
+        }
+    }
+    
+    @Test
+    public void testCachedViewsAreReusedUntilTheirMonthChanges() {
+        TransactionManager manager = new TransactionManager(new InMemoryStorageEngine());
+        manager.addTransaction(expense("C1", 10.0, LocalDate.of(2024, 3, 5)));
+        manager.addTransaction(expense("C2", 20.0, LocalDate.of(2024, 4, 5)));
+        Map<String, Double> march = manager.getExpensesByCategory(3, 2024);
+        assertSame(march, manager.getExpensesByCategory(3, 2024));
+        
+        Map<String, Double> aprilBefore = manager.getExpensesByCategory(4, 2024);
+        manager.addTransaction(expense("C3", 5.0, LocalDate.of(2024, 4, 6)));
+        assertSame(march, manager.getExpensesByCategory(3, 2024));
+        assertNotSame(aprilBefore, manager.getExpensesByCategory(4, 2024));
+        assertEquals(25.0, manager.getExpensesByCategory(4, 2024).get("Groceries"), 0.0001);
+        assertEquals(Map.of(3, 10.0, 4, 25.0), manager.getMonthlyExpenses(2024));
+    }
+    
+    @Test
+    public void testRollingSummaryCoversOnlyItsWindow() {
+        LocalDate today = LocalDate.now();
+        TransactionManager manager = new TransactionManager(new InMemoryStorageEngine());
+        manager.addTransaction(expense("E1", 10.0, today));
+        manager.addTransaction(expense("E2", 20.0, today.minusDays(10)));
+        manager.addTransaction(income("I1", 300.0, today.minusDays(40)));
+        manager.addTransaction(expense("Later", 5.0, today.plusDays(1)));
+        
+        RollingSummary month = manager.getRollingSummary(RollingWindow.LAST_30_DAYS);
+        assertEquals(30.0, month.getTotalExpenses(), 0.0001);
+        assertEquals(2, month.getTransactionCount());
+        assertEquals(15.0, month.getAverageTransaction(), 0.0001);
+        assertEquals(1.0, month.getAverageDailyExpenses(), 0.0001);
+        assertEquals("Groceries", month.getMostFrequentCategory());
+        assertEquals(1, manager.getRollingSummary(RollingWindow.LAST_7_DAYS).getExpenseCount());
+        assertEquals(300.0, manager.getRollingSummary(RollingWindow.LAST_90_DAYS).getTotalIncome(), 0.0001);
+    }
+    
+    @Test
+    public void testRollingSummaryDropsRemovedTransactions() {
+        LocalDate today = LocalDate.now();
+        TransactionManager manager = new TransactionManager(new InMemoryStorageEngine());
+        manager.addTransaction(expense("E1", 10.0, today));
+        manager.addTransaction(expense("E2", 20.0, today.minusDays(10)));
+        manager.removeTransaction("E2");
+        assertEquals(10.0, manager.getRollingSummary(RollingWindow.LAST_30_DAYS).getTotalExpenses(), 0.0001);
+    }
+    
+    @Test
+    public void testRollingWindowsPickUpDaysAsTheClockAdvances() {
+        LocalDate[] clock = { LocalDate.of(2024, 12, 30) };
+        RollingAggregates windows = rollingOverNewYear(clock);
+        assertEquals(3.0, windows.summary(RollingWindow.LAST_7_DAYS).getTotalExpenses(), 0.0001);
+        
+        clock[0] = LocalDate.of(2025, 1, 2);
+        assertEquals(6.0, windows.summary(RollingWindow.LAST_7_DAYS).getTotalExpenses(), 0.0001);
+    }
+    
+    @Test
+    public void testRollingWindowsDropDaysWhenTheClockMovesBack() {
+        LocalDate[] clock = { LocalDate.of(2024, 12, 30) };
+        RollingAggregates windows = rollingOverNewYear(clock);
+        clock[0] = LocalDate.of(2024, 12, 25);
+        assertEquals(1.0, windows.summary(RollingWindow.LAST_7_DAYS).getTotalExpenses(), 0.0001);
+    }
+    
+    @Test
+    public void testYearToDateRestartsOnNewYear() {
+        LocalDate[] clock = { LocalDate.of(2024, 12, 30) };
+        RollingAggregates windows = rollingOverNewYear(clock);
+        assertEquals(3.0, windows.summary(RollingWindow.YEAR_TO_DATE).getTotalExpenses(), 0.0001);
+        
+        clock[0] = LocalDate.of(2025, 1, 2);
+        RollingSummary yearToDate = windows.summary(RollingWindow.YEAR_TO_DATE);
+        assertEquals(4.0, yearToDate.getTotalExpenses(), 0.0001);
+        assertEquals(LocalDate.of(2025, 1, 1), yearToDate.getStartDate());
+    }
+    
+    @Test
+    public void testAddAllReportsAnOutcomePerItem() {
+        StorageEngine storage = new InMemoryStorageEngine();
+        TransactionManager manager = new TransactionManager(storage);
+        manager.addTransaction(expense("E1", 5.0, LocalDate.of(2024, 2, 1)));
+        Transaction undated = expense("E3", 1.0, LocalDate.of(2024, 2, 1));
+        undated.setDate(null);
+        
+        TransactionManager.BatchResult added = manager.addAll(List.of(
+            expense("E1", 7.0, LocalDate.of(2024, 2, 2)), expense("E2", 3.0, LocalDate.of(2024, 3, 1)), undated));
+        assertEquals(List.of(TransactionManager.BatchResult.Outcome.REPLACED,
+                TransactionManager.BatchResult.Outcome.ADDED, TransactionManager.BatchResult.Outcome.REJECTED),
+            added.getItems().stream().map(item -> item.outcome).collect(Collectors.toList()));
+        assertEquals("Missing date", added.getItems().get(2).reason);
+        assertEquals(10.0, new TransactionManager(storage).getTotalExpenses(), 0.0001);
+    }
+    
+    @Test
+    public void testLargeBatchesAreSavedAsOneSnapshot() {
+        int[] appends = new int[1];
+        int[] snapshots = new int[1];
+        StorageEngine storage = new InMemoryStorageEngine() {
+            @Override
+            public synchronized java.util.concurrent.CompletableFuture<Void> appendTransaction(Transaction transaction) {
+                appends[0]++;
+                return super.appendTransaction(transaction);
+            }
+            
+            @Override
+            public synchronized java.util.concurrent.CompletableFuture<Void> saveTransactions(
+                    List<org.gabx.expenses.persistence.DataPersistenceService.TransactionData> snapshot) {
+                snapshots[0]++;
+                return super.saveTransactions(snapshot);
+            }
+        };
+        TransactionManager manager = new TransactionManager(storage);
+        assertEquals(1200, manager.addAll(bulk(1200)).count(TransactionManager.BatchResult.Outcome.ADDED));
+        assertEquals(0, appends[0]);
+        assertEquals(1, snapshots[0]);
+        assertEquals(1200, new TransactionManager(storage).getExpenseCount());
+    }
+    
+    @Test
+    public void testRemoveAllByIdReportsMissingIds() {
+        StorageEngine storage = new InMemoryStorageEngine();
+        TransactionManager manager = new TransactionManager(storage);
+        manager.addTransaction(expense("E1", 5.0, LocalDate.of(2024, 2, 1)));
+        manager.addTransaction(expense("E2", 3.0, LocalDate.of(2024, 3, 1)));
+        
+        TransactionManager.BatchResult removed = manager.removeAll(List.of("E2", "missing"));
+        assertEquals(1, removed.count(TransactionManager.BatchResult.Outcome.REMOVED));
+        assertEquals(1, removed.count(TransactionManager.BatchResult.Outcome.NOT_FOUND));
+        TransactionManager reloaded = new TransactionManager(storage);
+        assertNull(reloaded.findTransactionById("E2"));
+        assertEquals(5.0, reloaded.getTotalExpenses(), 0.0001);
+    }
+    
+    @Test
+    public void testRemoveAllByFilterPersistsTheRemainder() {
+        StorageEngine storage = new InMemoryStorageEngine();
+        TransactionManager manager = new TransactionManager(storage);
+        manager.addAll(bulk(1200));
+        assertEquals(1080, manager.removeAll(t -> !t.getId().endsWith("0"))
+            .count(TransactionManager.BatchResult.Outcome.REMOVED));
+        
+        TransactionManager reloaded = new TransactionManager(storage);
+        assertEquals(120, reloaded.getExpenseCount());
+        assertEquals(120.0, reloaded.getTotalExpenses(), 0.0001);
+    }
+    
+    @Test
+    public void testQueryPlannerPicksTheNarrowestIndex() {
+        TransactionManager manager = new TransactionManager(new InMemoryStorageEngine());
+        LocalDate start = LocalDate.of(2023, 1, 1);
+        for (int i = 0; i < 400; i++) {
+            manager.addTransaction(expense("E" + i, 10 + i % 50, start.plusDays(i)));
+        }
+        Transaction vet = expense("V1", 80.0, LocalDate.of(2023, 6, 3));
+        vet.setCategory("Pets");
+        vet.setDescription("Annual vet check-up");
+        manager.addTransaction(vet);
+        manager.addTransaction(income("I1", 3000.0, LocalDate.of(2023, 6, 1)));
+        
+        TransactionQuery byId = TransactionQuery.all().id("E7");
+        assertTrue(manager.explain(byId).contains("Plan:       ID_INDEX"));
+        assertEquals(List.of("E7"), ids(manager.query(byId)));
+        
+        TransactionQuery june = TransactionQuery.all()
+            .between(LocalDate.of(2023, 6, 1), LocalDate.of(2023, 6, 5))
+            .type(TransactionQuery.Type.EXPENSE)
+            .limit(4);
+        assertTrue(manager.explain(june).contains("Plan:       DATE_INDEX"));
+        assertEquals(List.of("E155", "E154", "E153", "V1"), ids(manager.query(june)));
+        
+        TransactionQuery pets = TransactionQuery.all().categories("Pets").descriptionContains("VET");
+        assertTrue(manager.explain(pets).contains("Plan:       CATEGORY_BITMAP, about 1 rows"));
+        assertEquals(List.of("V1"), ids(manager.query(pets)));
+        
+        TransactionQuery expensive = TransactionQuery.all().amountBetween(60.0, null)
+            .orderBy(TransactionQuery.Order.AMOUNT_DESC);
+        assertTrue(manager.explain(expensive).contains("Plan:       FULL_SCAN"));
+        assertEquals(List.of("I1", "V1"), ids(manager.query(expensive)));
+        
+        Map<String, Double> byCategory = manager.sumBy(TransactionQuery.all()
+            .between(LocalDate.of(2023, 6, 1), LocalDate.of(2023, 6, 30))
+            .type(TransactionQuery.Type.EXPENSE), TransactionQuery.GroupBy.CATEGORY);
+        assertEquals(80.0, byCategory.get("Pets"), 0.0001);
+        assertEquals(manager.getTotalExpenses(LocalDate.of(2023, 6, 1), LocalDate.of(2023, 6, 30)),
+            byCategory.values().stream().mapToDouble(Double::doubleValue).sum(), 0.0001);
+        assertEquals(401, manager.count(TransactionQuery.all().type(TransactionQuery.Type.EXPENSE)));
+    }
+    
+    @Test
+    public void testDescriptionSearchIsRankedAndSurvivesRemovals() {
+        TransactionManager manager = new TransactionManager(new InMemoryStorageEngine());
+        String[] descriptions = { "Coffee beans", "Morning coffee", "Instantcoffee mix", "coffee", "Bus ticket" };
+        for (int i = 0; i < descriptions.length; i++) {
+            Transaction transaction = expense("D" + i, 5.0, LocalDate.of(2024, 1, 1 + i));
+            transaction.setDescription(descriptions[i]);
+            manager.addTransaction(transaction);
+        }
+        // Plenty of filler so the removals below leave enough stale postings to force a rebuild
+        for (int i = 0; i < 2000; i++) {
+            Transaction filler = expense("F" + i, 1.0, LocalDate.of(2023, 1, 1).plusDays(i % 300));
+            filler.setDescription("Filler row number " + i);
+            manager.addTransaction(filler);
+        }
+        
+        assertEquals(List.of("D3", "D0", "D1", "D2"), ids(manager.searchDescriptions("COFFEE", 10)));
+        assertTrue(manager.explain(TransactionQuery.all().descriptionContains("coffee"))
+            .contains("Plan:       TRIGRAM_INDEX"));
+        assertEquals(List.of("D3", "D0"), ids(manager.searchDescriptions("coffee", 2)));
+        assertEquals(List.of("D4"), ids(manager.searchDescriptions("us", 10)));
+        assertTrue(manager.searchDescriptions("espresso", 10).isEmpty());
+        
+        for (int i = 0; i < 2000; i++) {
+            manager.removeTransaction("F" + i);
+        }
+        manager.removeTransaction("D0");
+        Transaction reused = expense("R1", 2.0, LocalDate.of(2024, 2, 1));
+        reused.setDescription("Iced coffee");
+        manager.addTransaction(reused);
+        assertEquals(List.of("D3", "R1", "D1", "D2"), ids(manager.searchDescriptions("coffee", 10)));
+        assertTrue(manager.searchDescriptions("filler", 10).isEmpty());
+    }
+    
+    // Expenses of 1..100 spread over March 2024, IDs S1..S100
+    private static void addOneToHundred(TransactionManager manager) {
+        for (int i = 1; i <= 100; i++) {
+            manager.addTransaction(expense("S" + i, i, LocalDate.of(2024, 3, 1 + i % 28)));
+        }
+    }
+    
+    // Expenses of 1.0 each, IDs B0..B(count - 1), over the first 300 days of 2024
+    private static List<Transaction> bulk(int count) {
+        List<Transaction> bulk = new java.util.ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            bulk.add(expense("B" + i, 1.0, LocalDate.of(2024, 1, 1).plusDays(i % 300)));
+        }
+        return bulk;
+    }
+    
+    // Windows over expenses of 1.0 on Dec 24, 2.0 on Dec 30 and 4.0 on Jan 2, read at clock[0]
+    private static RollingAggregates rollingOverNewYear(LocalDate[] clock) {
+        TransactionColumns columns = new TransactionColumns();
+        DateIndex dateIndex = new DateIndex();
+        RollingAggregates windows = new RollingAggregates(columns, dateIndex, () -> clock[0]);
+        for (Transaction transaction : List.of(expense("A", 1.0, LocalDate.of(2024, 12, 24)),
+                expense("B", 2.0, LocalDate.of(2024, 12, 30)), expense("C", 4.0, LocalDate.of(2025, 1, 2)))) {
+            int row = columns.add(transaction);
+            dateIndex.add(columns.epochDay(row), row);
+            windows.add(row, 1);
+        }
+        return windows;
+    }
+    
+    static List<String> ids(List<Transaction> transactions) {
+        return transactions.stream().map(Transaction::getId).collect(Collectors.toList());
+    }
+    
+    static Transaction income(String id, double amount, LocalDate date) {
+        Income income = new Income();
+        income.setId(id);
+        income.setAmount(amount);
+        income.setDate(date);
+        income.setDescription("Test " + id);
+        income.setCategory("Salary");
+        return income;
+    }
+    
+    static Transaction expense(String id, double amount, LocalDate date) {
+        Expense expense = new Expense();
+        expense.setId(id);
+        expense.setAmount(amount);
+        expense.setDate(date);
+        expense.setDescription("Test " + id);
+        expense.setCategory("Groceries");
+        return expense;
+    }
+}
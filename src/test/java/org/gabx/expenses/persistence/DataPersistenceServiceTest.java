@@ -0,0 +1,252 @@
+package org.gabx.expenses.persistence;
+
+import org.gabx.expenses.transactions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+
+/**
+ * Round-trip tests for the JSON snapshot and transaction journal.
+ */
+public class DataPersistenceServiceTest {
+    
+    @TempDir
+    File dataDir;
+    
+    @Test
+    public void testJournalIsReplayedOnLoad() {
+        DataPersistenceService service = new DataPersistenceService(dataDir);
+        Transaction first = expense("A", 12.50, LocalDate.of(2024, 1, 15));
+        service.appendTransaction(first);
+        service.appendTransaction(expense("B", 7.25, LocalDate.of(2024, 2, 1)));
+        service.appendRemoval(first).join();
+        
+        List<Transaction> loaded = new DataPersistenceService(dataDir).loadTransactions();
+        
+        assertEquals(1, loaded.size());
+        assertEquals("B", loaded.get(0).getId());
+        assertEquals(7.25, loaded.get(0).getAmount(), 0.0001);
+        assertEquals(LocalDate.of(2024, 2, 1), loaded.get(0).getDate());
+    }
+    
+    @Test
+    public void testSnapshotTruncatesJournal() {
+        DataPersistenceService service = new DataPersistenceService(dataDir);
+        Transaction first = expense("A", 10.00, LocalDate.of(2024, 3, 3));
+        service.appendTransaction(first);
+        service.saveTransactions(List.of(new DataPersistenceService.TransactionData(first)));
+        service.appendTransaction(expense("B", 20.00, LocalDate.of(2024, 3, 4)));
+        service.flush().join();
+        
+        List<String> ids = new DataPersistenceService(dataDir).loadTransactions().stream()
+            .map(Transaction::getId)
+            .collect(Collectors.toList());
+        
+        assertEquals(List.of("A", "B"), ids);
+        assertFalse(service.needsCompaction());
+    }
+    
+    @Test
+    public void testStreamingLoadAcceptsStringDatesAndUnknownFields() throws Exception {
+        String json = "[{\"id\":\"I1\",\"amount\":1500.0,\"date\":\"2024-05-31\",\"description\":\"Pay\","
+            + "\"category\":\"Salary\",\"transactionType\":\"INCOME\",\"extra\":{\"nested\":[1,2]}},"
+            + "{\"id\":\"E1\",\"amount\":42.0,\"date\":[2024,6,1],\"description\":null,"
+            + "\"category\":\"Transport\",\"transactionType\":\"EXPENSE\",\"originalRecurringId\":\"R1\"}]";
+        java.nio.file.Files.writeString(new File(dataDir, "transactions.json").toPath(), json);
+        
+        List<Transaction> loaded = new DataPersistenceService(dataDir).loadTransactions();
+        
+        assertEquals(2, loaded.size());
+        assertTrue(loaded.get(0) instanceof Income);
+        assertEquals(LocalDate.of(2024, 5, 31), loaded.get(0).getDate());
+        assertEquals(LocalDate.of(2024, 6, 1), loaded.get(1).getDate());
+        assertEquals("R1", ((Expense) loaded.get(1)).getOriginalRecurringId());
+        assertEquals(150000, loaded.get(0).getAmountMinorUnits());
+    }
+    
+    @Test
+    public void testLegacyDecimalAmountsAreRewrittenAsMinorUnits() throws Exception {
+        File snapshot = new File(dataDir, "transactions.json");
+        java.nio.file.Files.writeString(snapshot.toPath(), "[{\"id\":\"E1\",\"amount\":19.99,"
+            + "\"date\":[2024,6,1],\"category\":\"Groceries\",\"transactionType\":\"EXPENSE\"}]");
+        java.nio.file.Files.writeString(new File(dataDir, "transactions.journal").toPath(),
+            "{\"op\":\"ADD\",\"id\":\"E2\",\"transaction\":{\"id\":\"E2\",\"amount\":0.3,"
+            + "\"date\":[2024,6,2],\"transactionType\":\"EXPENSE\"}}\n");
+        
+        DataPersistenceService service = new DataPersistenceService(dataDir);
+        List<Transaction> loaded = service.loadTransactions();
+        service.close();
+        
+        assertEquals(List.of(1999L, 30L), loaded.stream().map(Transaction::getAmountMinorUnits).collect(Collectors.toList()));
+        String rewritten = java.nio.file.Files.readString(snapshot.toPath());
+        assertTrue(rewritten.contains("\"amountMinorUnits\":1999"));
+        assertFalse(rewritten.contains("\"amount\":"));
+    }
+    
+    @Test
+    public void testSegmentedLayoutMigratesAndFoldsJournal() {
+        DataPersistenceService single = new DataPersistenceService(dataDir, StorageLayout.SINGLE_FILE);
+        single.appendTransaction(expense("A", 1.00, LocalDate.of(2023, 11, 2)));
+        single.appendTransaction(expense("B", 2.00, LocalDate.of(2024, 1, 9)));
+        single.close();
+        
+        DataPersistenceService segmented = new DataPersistenceService(dataDir, StorageLayout.SEGMENTED);
+        assertEquals(List.of(YearMonth.of(2023, 11), YearMonth.of(2024, 1)),
+            List.copyOf(segmented.getStoredMonths()));
+        
+        Transaction late = expense("C", 3.00, LocalDate.of(2023, 11, 30));
+        segmented.appendTransaction(late);
+        segmented.appendRemoval(segmented.loadMonth(YearMonth.of(2024, 1)).get(0));
+        segmented.close();
+        
+        DataPersistenceService reopened = new DataPersistenceService(dataDir, StorageLayout.SEGMENTED);
+        List<String> november = reopened.loadMonth(YearMonth.of(2023, 11)).stream()
+            .map(Transaction::getId)
+            .collect(Collectors.toList());
+        assertEquals(List.of("A", "C"), november);
+        assertEquals(List.of(YearMonth.of(2023, 11)), List.copyOf(reopened.getStoredMonths()));
+        assertEquals(2, reopened.getSegmentInfo().get(YearMonth.of(2023, 11)).expenseCount);
+    }
+    
+    @Test
+    public void testFoldingAMovedTransactionClearsItsOldMonth() {
+        DataPersistenceService segmented = new DataPersistenceService(dataDir, StorageLayout.SEGMENTED);
+        Transaction original = expense("A", 1.00, LocalDate.of(2024, 1, 5));
+        segmented.appendTransaction(original);
+        segmented.close();
+        
+        // Fold A into January, then move it to February through the journal
+        segmented = new DataPersistenceService(dataDir, StorageLayout.SEGMENTED);
+        segmented.appendRemoval(original);
+        segmented.appendTransaction(expense("A", 1.00, LocalDate.of(2024, 2, 5)));
+        segmented.close();
+        
+        DataPersistenceService reopened = new DataPersistenceService(dataDir, StorageLayout.SEGMENTED);
+        assertTrue(reopened.loadMonth(YearMonth.of(2024, 1)).isEmpty());
+        assertEquals(1, reopened.loadMonth(YearMonth.of(2024, 2)).size());
+        assertEquals(List.of(YearMonth.of(2024, 2)), List.copyOf(reopened.getStoredMonths()));
+        reopened.close();
+    }
+    
+    @Test
+    public void testSavingMonthsFailsTheWriteOnUnpartitionedStorage() {
+        DataPersistenceService single = new DataPersistenceService(dataDir, StorageLayout.SINGLE_FILE);
+        CompletionException failure = assertThrows(CompletionException.class,
+            () -> single.saveMonths(Map.of(YearMonth.of(2024, 1), List.of())).join());
+        assertTrue(failure.getCause() instanceof UnsupportedOperationException);
+        single.close();
+    }
+    
+    @Test
+    public void testJsonRecurringExpensesKeepAnAdvancedDueDate() {
+        DataPersistenceService json = new DataPersistenceService(dataDir, StorageLayout.SINGLE_FILE);
+        RecurringExpense rent = new RecurringExpense();
+        rent.setId("R1");
+        rent.setAmount(950.0);
+        rent.setCategory("Utilities");
+        rent.setFrequency(RecurringExpense.Frequency.MONTHLY);
+        rent.setStartDate(LocalDate.of(2024, 1, 1));
+        rent.setNextDueDate(LocalDate.of(2024, 5, 1));
+        json.saveRecurringExpenses(List.of(rent)).join();
+        json.close();
+        
+        DataPersistenceService reopened = new DataPersistenceService(dataDir, StorageLayout.SINGLE_FILE);
+        RecurringExpense loaded = reopened.loadRecurringExpenses().get(0);
+        assertEquals(LocalDate.of(2024, 1, 1), loaded.getStartDate());
+        assertEquals(LocalDate.of(2024, 5, 1), loaded.getNextDueDate());
+        reopened.close();
+    }
+    
+    @Test
+    public void testBinaryLayoutConvertsJsonLosslessly() throws Exception {
+        DataPersistenceService json = new DataPersistenceService(dataDir, StorageLayout.SINGLE_FILE);
+        Transaction odd = expense("A", 1234.56, LocalDate.of(2024, 4, 2));
+        odd.setDescription("Caf\u00e9 \u2615");
+        json.appendTransaction(odd);
+        json.appendTransaction(expense("B", 0.1, LocalDate.of(2024, 4, 3)));
+        RecurringExpense rent = new RecurringExpense();
+        rent.setId("R1");
+        rent.setAmount(950.0);
+        rent.setCategory("Utilities");
+        rent.setFrequency(RecurringExpense.Frequency.MONTHLY);
+        rent.setStartDate(LocalDate.of(2024, 1, 1));
+        rent.setNextDueDate(LocalDate.of(2024, 5, 1));
+        json.saveRecurringExpenses(List.of(rent));
+        json.close();
+        
+        DataPersistenceService binary = new DataPersistenceService(dataDir, StorageLayout.BINARY);
+        binary.appendTransaction(expense("C", 2.0, LocalDate.of(2024, 4, 4)));
+        binary.close();
+        
+        DataPersistenceService reopened = new DataPersistenceService(dataDir, StorageLayout.BINARY);
+        List<Transaction> loaded = reopened.loadTransactions();
+        assertEquals(List.of("A", "B", "C"), loaded.stream().map(Transaction::getId).collect(Collectors.toList()));
+        assertEquals(123456, loaded.get(0).getAmountMinorUnits());
+        assertEquals(10, loaded.get(1).getAmountMinorUnits());
+        assertEquals("Caf\u00e9 \u2615", loaded.get(0).getDescription());
+        
+        RecurringExpense loadedRent = reopened.loadRecurringExpenses().get(0);
+        assertEquals(RecurringExpense.Frequency.MONTHLY, loadedRent.getFrequency());
+        assertEquals(LocalDate.of(2024, 5, 1), loadedRent.getNextDueDate());
+        
+        reopened.close();
+        
+        // The snapshot holds the converted rows; C is still in the journal
+        BinaryTransactionFile mapped = BinaryTransactionFile.open(new File(dataDir, StorageConverter.BINARY_DATA_FILE));
+        assertEquals(2, mapped.size());
+        assertEquals(123456, mapped.amountMinorUnits(0));
+        assertEquals(BinaryTransactionFile.TYPE_EXPENSE, mapped.type(1));
+        assertEquals(123466, mapped.sumMinorUnits(BinaryTransactionFile.TYPE_EXPENSE,
+            (int) LocalDate.of(2024, 4, 1).toEpochDay(), (int) LocalDate.of(2024, 4, 30).toEpochDay()));
+        assertEquals(10, mapped.sumMinorUnits(BinaryTransactionFile.TYPE_EXPENSE,
+            (int) LocalDate.of(2024, 4, 3).toEpochDay(), (int) LocalDate.of(2024, 4, 3).toEpochDay()));
+        long[] amounts = new long[3];
+        mapped.copyAmounts(amounts, 1);
+        assertArrayEquals(new long[] { 0, 123456, 10 }, amounts);
+    }
+    
+    @Test
+    public void testOldBinaryVersionsAreUpgradedAndUnknownOnesRejected() throws Exception {
+        // A version 1 file holding 12.345 at scale 3, as written before amounts were minor units
+        File data = new File(dataDir, StorageConverter.BINARY_DATA_FILE);
+        BinaryTransactionFile.writeTransactions(data, List.of(
+            new DataPersistenceService.TransactionData(expense("A", 123.45, LocalDate.of(2024, 4, 2)))));
+        patchHeader(data, 1, 3);
+        
+        DataPersistenceService service = new DataPersistenceService(dataDir, StorageLayout.BINARY);
+        assertEquals(1235, service.loadTransactions().get(0).getAmountMinorUnits());
+        service.close();
+        BinaryTransactionFile upgraded = BinaryTransactionFile.open(data);
+        assertFalse(upgraded.needsUpgrade());
+        assertEquals(1235, upgraded.amountMinorUnits(0));
+        
+        patchHeader(data, 9, 2);
+        assertThrows(java.io.IOException.class, () -> BinaryTransactionFile.open(data));
+    }
+    
+    // Overwrites the version and amount scale in a binary file's header
+    private static void patchHeader(File file, int version, int scale) throws Exception {
+        try (java.io.RandomAccessFile raw = new java.io.RandomAccessFile(file, "rw")) {
+            raw.seek(4);
+            raw.write(new byte[] { (byte) version, (byte) (version >> 8), 0, (byte) scale });
+        }
+    }
+    
+    private static Transaction expense(String id, double amount, LocalDate date) {
+        Expense expense = new Expense();
+        expense.setId(id);
+        expense.setAmount(amount);
+        expense.setDate(date);
+        expense.setDescription("Test " + id);
+        expense.setCategory("Groceries");
+        return expense;
+    }
+}
@@ -0,0 +1,62 @@
+package org.gabx.expenses.persistence;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shutdown behaviour of the background writer.
+ */
+public class GroupCommitWriterTest {
+    
+    @Test
+    public void testSubmitsRacingCloseAlwaysComplete() throws Exception {
+        for (int round = 0; round < 50; round++) {
+            AtomicInteger written = new AtomicInteger();
+            GroupCommitWriter<Integer> writer = new GroupCommitWriter<>("test-writer",
+                batch -> written.addAndGet(batch.size()), 1, 16);
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            Thread submitter = new Thread(() -> {
+                for (int i = 0; i < 200; i++) {
+                    futures.add(writer.submit(i));
+                }
+            });
+            submitter.start();
+            writer.close();
+            submitter.join();
+            
+            // Every write was either written or refused; none is left waiting
+            int refused = 0;
+            for (CompletableFuture<Void> future : futures) {
+                try {
+                    future.get(5, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IllegalStateException);
+                    refused++;
+                } catch (TimeoutException e) {
+                    fail("A write submitted during close never completed");
+                }
+            }
+            assertEquals(200, written.get() + refused);
+        }
+    }
+    
+    @Test
+    public void testFailedBatchesFailTheirFutures() {
+        GroupCommitWriter<String> writer = new GroupCommitWriter<>("test-writer", batch -> {
+            throw new IllegalStateException("disk full");
+        }, 1, 16);
+        CompletableFuture<Void> write = writer.submit("A");
+        CompletionException failure = assertThrows(CompletionException.class, write::join);
+        assertEquals("disk full", failure.getCause().getMessage());
+        writer.close();
+    }
+}